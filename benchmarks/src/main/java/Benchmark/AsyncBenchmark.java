@@ -0,0 +1,104 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package Benchmark;
+
+import YaraParser.Accessories.CoNLLReader;
+import YaraParser.TransitionBasedSystem.Configuration.Configuration;
+import YaraParser.TransitionBasedSystem.Configuration.ParseResult;
+import YaraParser.TransitionBasedSystem.Parser.AsyncParser;
+import YaraParser.TransitionBasedSystem.Parser.KBeamArcEagerParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * All of the test sentences submitted to an {@link AsyncParser} with at most inFlight of them in flight, on a parser
+ * with a pool of workers; every parse is checked against the one of a single thread
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AsyncBenchmark {
+    @Param("64")
+    public int inFlight;
+
+    @Param("4")
+    public int workers;
+
+    private KBeamArcEagerParser parser;
+    private AsyncParser asyncParser;
+    private ArrayList<String[]> words;
+    private ArrayList<String[]> tags;
+    private ParseResult[] expected;
+
+    @Setup
+    public void setUp(Fixtures fixtures) throws Exception {
+        KBeamArcEagerParser sequentialParser = fixtures.parser(1);
+        expected = new ParseResult[fixtures.sentences.size()];
+        for (int i = 0; i < expected.length; i++) {
+            Configuration parse = sequentialParser.parse(fixtures.sentences.get(i), fixtures.options.rootFirst, fixtures.options.beamWidth, 1);
+            expected[i] = new ParseResult(parse);
+        }
+        sequentialParser.shutDownLiveThreads();
+
+        words = new ArrayList<String[]>();
+        tags = new ArrayList<String[]>();
+        CoNLLReader reader = new CoNLLReader(fixtures.file("test.conll"));
+        ArrayList<String> lines = new ArrayList<String>();
+        while (reader.readSentence(fixtures.options.labeled, fixtures.options.rootFirst, fixtures.options.lowercase, fixtures.infStruct.maps, lines) != null) {
+            String[] sentenceWords = new String[lines.size()];
+            String[] sentenceTags = new String[lines.size()];
+            for (int i = 0; i < lines.size(); i++) {
+                String[] columns = lines.get(i).split("\t");
+                sentenceWords[i] = columns[1];
+                sentenceTags[i] = columns[3];
+            }
+            words.add(sentenceWords);
+            tags.add(sentenceTags);
+            lines.clear();
+        }
+
+        parser = fixtures.parser(workers);
+        asyncParser = new AsyncParser(parser, fixtures.options.rootFirst, fixtures.options.beamWidth, fixtures.options.lowercase, inFlight);
+    }
+
+    @TearDown
+    public void tearDown() {
+        parser.shutDownLiveThreads();
+    }
+
+    @Benchmark
+    public ArrayList<CompletableFuture<ParseResult>> parseFile() throws Exception {
+        ArrayList<CompletableFuture<ParseResult>> parses = new ArrayList<CompletableFuture<ParseResult>>();
+        for (int i = 0; i < words.size(); i++)
+            parses.add(asyncParser.parse(words.get(i), tags.get(i)));
+        for (int i = 0; i < parses.size(); i++) {
+            ParseResult parse = parses.get(i).get();
+            if (!Arrays.equals(parse.heads(), expected[i].heads()) || !Arrays.equals(parse.labels(), expected[i].labels())
+                    || parse.score() != expected[i].score())
+                throw new IllegalStateException("the asynchronous parse of sentence " + i + " is not the one of a single thread");
+        }
+        return parses;
+    }
+}
@@ -0,0 +1,57 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package Benchmark;
+
+import YaraParser.TransitionBasedSystem.Configuration.Configuration;
+import YaraParser.TransitionBasedSystem.Configuration.GoldConfiguration;
+import YaraParser.TransitionBasedSystem.Configuration.State;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The copies of a decoder state and of a configuration (the state and the action history), as the beam makes them
+ * for each kept candidate
+ */
+
+@org.openjdk.jmh.annotations.State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CloneBenchmark {
+    private Configuration[] states;
+    private int next;
+
+    @Setup
+    public void setUp(Fixtures fixtures) throws Exception {
+        states = fixtures.states(new ArrayList<GoldConfiguration>());
+    }
+
+    @Benchmark
+    public State state() {
+        Configuration configuration = states[next];
+        next = next + 1 == states.length ? 0 : next + 1;
+        return configuration.state.clone();
+    }
+
+    @Benchmark
+    public Configuration configuration() {
+        Configuration configuration = states[next];
+        next = next + 1 == states.length ? 0 : next + 1;
+        return configuration.clone();
+    }
+}
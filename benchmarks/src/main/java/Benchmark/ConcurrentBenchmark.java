@@ -0,0 +1,113 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package Benchmark;
+
+import YaraParser.Learning.AveragedPerceptron;
+import YaraParser.Structures.InfStruct;
+import YaraParser.TransitionBasedSystem.Configuration.Configuration;
+import YaraParser.TransitionBasedSystem.Parser.KBeamArcEagerParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The parses of the test sentences on several caller threads (-t), each from a different sentence, with the beam width
+ * of the model: with one shared parser (each call on its thread, or split on the workers of the parser, which has a
+ * worker for each caller) or with a parser and a model for each thread. Every parse is checked against the one of a
+ * single thread, so these are also a stress test of the shared parser.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class ConcurrentBenchmark {
+    @State(Scope.Benchmark)
+    public static class Shared {
+        KBeamArcEagerParser parser;
+        Configuration[] expected;
+        int numOfThreads;
+
+        @Setup
+        public void setUp(Fixtures fixtures, BenchmarkParams params) throws Exception {
+            numOfThreads = params.getThreads();
+            KBeamArcEagerParser sequentialParser = fixtures.parser(1);
+            expected = new Configuration[fixtures.sentences.size()];
+            for (int i = 0; i < expected.length; i++)
+                expected[i] = sequentialParser.parse(fixtures.sentences.get(i), fixtures.options.rootFirst, fixtures.options.beamWidth, 1);
+            sequentialParser.shutDownLiveThreads();
+            parser = fixtures.parser(numOfThreads);
+        }
+
+        @TearDown
+        public void tearDown() {
+            parser.shutDownLiveThreads();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Caller {
+        Fixtures fixtures;
+        int next;
+        KBeamArcEagerParser ownParser;
+
+        @Setup
+        public void setUp(Fixtures fixtures, ThreadParams threadParams, BenchmarkParams params) throws Exception {
+            this.fixtures = fixtures;
+            next = threadParams.getThreadIndex() * fixtures.sentences.size() / threadParams.getThreadCount();
+            if (params.getBenchmark().endsWith(".parserPerThread")) {
+                // the thread's own copy of the model
+                InfStruct model = new InfStruct(fixtures.modelFile);
+                AveragedPerceptron perceptron = new AveragedPerceptron(model);
+                ownParser = new KBeamArcEagerParser(perceptron, model.dependencyLabels, perceptron.featureSize(), model.maps, 1);
+            }
+        }
+
+        @TearDown
+        public void tearDown() {
+            if (ownParser != null)
+                ownParser.shutDownLiveThreads();
+        }
+
+        Configuration parse(KBeamArcEagerParser parser, int numOfThreads, Shared shared) throws Exception {
+            int sentence = next;
+            next = next + 1 == fixtures.sentences.size() ? 0 : next + 1;
+            Configuration parse = parser.parse(fixtures.sentences.get(sentence), fixtures.options.rootFirst, fixtures.options.beamWidth, numOfThreads);
+            Fixtures.checkParse(parse, shared.expected[sentence], sentence);
+            return parse;
+        }
+    }
+
+    @Benchmark
+    public Configuration sharedParser(Shared shared, Caller caller) throws Exception {
+        return caller.parse(shared.parser, 1, shared);
+    }
+
+    @Benchmark
+    public Configuration sharedParserSplit(Shared shared, Caller caller) throws Exception {
+        return caller.parse(shared.parser, shared.numOfThreads, shared);
+    }
+
+    @Benchmark
+    public Configuration parserPerThread(Shared shared, Caller caller) throws Exception {
+        return caller.parse(caller.ownParser, 1, shared);
+    }
+}
@@ -0,0 +1,57 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package Benchmark;
+
+import YaraParser.TransitionBasedSystem.Configuration.Configuration;
+import YaraParser.TransitionBasedSystem.Configuration.GoldConfiguration;
+import YaraParser.TransitionBasedSystem.Features.FeatureExtractor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The feature extraction of one decoder state, for each template set (26 basic, 72 extended and 153 with the Brown
+ * clusters); the states are the ones of the parses of the test file, in turn
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExtractBenchmark {
+    @Param({"26", "72", "153"})
+    public int templates;
+
+    private Configuration[] states;
+    private long[] features;
+    private int next;
+
+    @Setup
+    public void setUp(Fixtures fixtures) throws Exception {
+        states = fixtures.states(new ArrayList<GoldConfiguration>());
+        features = new long[templates];
+    }
+
+    @Benchmark
+    public long[] extract() {
+        FeatureExtractor.extractAllParseFeatures(states[next], features);
+        next = next + 1 == states.length ? 0 : next + 1;
+        return features;
+    }
+}
@@ -0,0 +1,157 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package Benchmark;
+
+import YaraParser.Accessories.CoNLLReader;
+import YaraParser.Accessories.Options;
+import YaraParser.Learning.AveragedPerceptron;
+import YaraParser.Parser.YaraParser;
+import YaraParser.Structures.InfStruct;
+import YaraParser.Structures.Sentence;
+import YaraParser.TransitionBasedSystem.Configuration.Configuration;
+import YaraParser.TransitionBasedSystem.Configuration.GoldConfiguration;
+import YaraParser.TransitionBasedSystem.Parser.ArcEager;
+import YaraParser.TransitionBasedSystem.Parser.KBeamArcEagerParser;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+
+/**
+ * The model and the sentences of the benchmarks: the files of the sample_data directory (-p data=[dir]) and a model
+ * (-p model=[model-file]). Without a model, one is trained on train.conll with the default options for one iteration
+ * when the trial starts, so that the benchmarks run on a fresh checkout; a model of the deployed settings gives the
+ * numbers that matter.
+ */
+
+@State(Scope.Benchmark)
+public class Fixtures {
+    @Param("sample_data")
+    public String data;
+
+    @Param("")
+    public String model;
+
+    public String modelFile;
+    public InfStruct infStruct;
+    public Options options;
+    public AveragedPerceptron perceptron;
+    public int featureLength;
+    public ArrayList<GoldConfiguration> testData;
+    public ArrayList<Sentence> sentences;
+
+    private File trainedDirectory;
+
+    @Setup(Level.Trial)
+    public void load() throws Exception {
+        modelFile = model.equals("") ? train() : model;
+        infStruct = new InfStruct(modelFile);
+        options = infStruct.options;
+        perceptron = new AveragedPerceptron(infStruct);
+        featureLength = perceptron.featureSize();
+        testData = new CoNLLReader(file("test.conll")).readData(Integer.MAX_VALUE, true, options.labeled, options.rootFirst,
+                options.lowercase, infStruct.maps);
+        sentences = new ArrayList<Sentence>();
+        for (GoldConfiguration goldConfiguration : testData)
+            sentences.add(goldConfiguration.getSentence());
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() {
+        if (trainedDirectory == null)
+            return;
+        for (File file : trainedDirectory.listFiles())
+            file.delete();
+        trainedDirectory.delete();
+    }
+
+    /**
+     * @return the path of the file in the data directory
+     */
+    public String file(String name) {
+        return new File(data, name).getPath();
+    }
+
+    /**
+     * @return a new parser of the model with a pool of numOfThreads workers
+     */
+    public KBeamArcEagerParser parser(int numOfThreads) throws Exception {
+        return new KBeamArcEagerParser(perceptron, infStruct.dependencyLabels, featureLength, infStruct.maps, numOfThreads);
+    }
+
+    /**
+     * Parses the test sentences and replays the action history of each parse, so that the states are the ones that the
+     * decoder scores; the gold tree of the sentence of each state is added to stateGolds
+     */
+    public Configuration[] states(ArrayList<GoldConfiguration> stateGolds) throws Exception {
+        ArrayList<Integer> dependencyLabels = infStruct.dependencyLabels;
+        KBeamArcEagerParser parser = parser(1);
+        ArrayList<Configuration> states = new ArrayList<Configuration>();
+        for (GoldConfiguration goldConfiguration : testData) {
+            Sentence sentence = goldConfiguration.getSentence();
+            Configuration parse = parser.parse(sentence, options.rootFirst, options.beamWidth, 1);
+            Configuration configuration = new Configuration(sentence, options.rootFirst);
+            for (int action : parse.actionHistory()) {
+                states.add(configuration.clone());
+                stateGolds.add(goldConfiguration);
+                if (action == 0)
+                    ArcEager.shift(configuration.state);
+                else if (action == 1)
+                    ArcEager.reduce(configuration.state);
+                else if (action == 2)
+                    ArcEager.unShift(configuration.state);
+                else if (action - 3 < dependencyLabels.size())
+                    ArcEager.rightArc(configuration.state, action - 3);
+                else
+                    ArcEager.leftArc(configuration.state, action - 3 - dependencyLabels.size());
+                configuration.addAction(action);
+            }
+            for (int i = 0; i <= sentence.size(); i++)
+                if (configuration.state.getHead(i) != parse.state.getHead(i))
+                    throw new IllegalStateException("the replayed actions do not give the parse");
+        }
+        parser.shutDownLiveThreads();
+        return states.toArray(new Configuration[states.size()]);
+    }
+
+    /**
+     * Throws an exception if the parse is not the expected one, e.g. the one of a single thread
+     */
+    public static void checkParse(Configuration parse, Configuration expected, int sentence) {
+        for (int w = 0; w <= expected.sentence.size(); w++)
+            if (parse.state.getHead(w) != expected.state.getHead(w) || parse.state.getDependency(w) != expected.state.getDependency(w))
+                throw new IllegalStateException("a concurrent parse of sentence " + sentence + " is not the one of a single thread");
+    }
+
+    /**
+     * @return the path of a model that is trained on train.conll for one iteration, with its output hidden
+     */
+    private String train() throws Exception {
+        trainedDirectory = Files.createTempDirectory("yara_benchmark").toFile();
+        Options trainOptions = new Options();
+        trainOptions.inputFile = file("train.conll");
+        trainOptions.modelFile = new File(trainedDirectory, "model").getPath();
+        trainOptions.trainingIter = 1;
+        trainOptions.numOfThreads = 1;
+
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            YaraParser.train(trainOptions);
+        } finally {
+            System.setOut(out);
+        }
+        return trainOptions.modelFile + "_iter1";
+    }
+}
@@ -0,0 +1,60 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package Benchmark;
+
+import YaraParser.Structures.InfStruct;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The load of the model ({@link InfStruct}) after it is saved in the GZIP'd serialized format or in the memory-mapped
+ * binary format
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoadBenchmark {
+    @Param({"serialized", "binary"})
+    public String format;
+
+    private File modelFile;
+
+    @Setup
+    public void setUp(Fixtures fixtures) throws Exception {
+        modelFile = File.createTempFile("yara_benchmark", ".model");
+        if (format.equals("binary"))
+            fixtures.infStruct.saveBinaryModel(modelFile.getPath());
+        else
+            fixtures.infStruct.saveModel(modelFile.getPath());
+    }
+
+    @TearDown
+    public void tearDown() {
+        modelFile.delete();
+    }
+
+    @Benchmark
+    public InfStruct load() throws Exception {
+        return new InfStruct(modelFile.getPath());
+    }
+}
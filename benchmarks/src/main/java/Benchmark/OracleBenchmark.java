@@ -0,0 +1,63 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package Benchmark;
+
+import YaraParser.TransitionBasedSystem.Configuration.Configuration;
+import YaraParser.TransitionBasedSystem.Configuration.GoldConfiguration;
+import YaraParser.TransitionBasedSystem.Configuration.State;
+import YaraParser.TransitionBasedSystem.Parser.Actions;
+import YaraParser.TransitionBasedSystem.Parser.KBeamArcEagerParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The dynamic oracle costs of all of the actions (each arc with every label) of one decoder state against the gold
+ * tree of its sentence, as the trainer asks for them
+ */
+
+@org.openjdk.jmh.annotations.State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OracleBenchmark {
+    private Configuration[] states;
+    private ArrayList<GoldConfiguration> stateGolds;
+    private int[] labels;
+    private int next;
+
+    @Setup
+    public void setUp(Fixtures fixtures) throws Exception {
+        stateGolds = new ArrayList<GoldConfiguration>();
+        states = fixtures.states(stateGolds);
+        labels = KBeamArcEagerParser.labelArray(fixtures.infStruct.dependencyLabels);
+    }
+
+    @Benchmark
+    public int dynamic() throws Exception {
+        GoldConfiguration goldConfiguration = stateGolds.get(next);
+        State state = states[next].state;
+        next = next + 1 == states.length ? 0 : next + 1;
+        int sum = goldConfiguration.actionCost(Actions.Shift, -1, state);
+        sum += goldConfiguration.actionCost(Actions.Reduce, -1, state);
+        for (int label : labels) {
+            sum += goldConfiguration.actionCost(Actions.RightArc, label, state);
+            sum += goldConfiguration.actionCost(Actions.LeftArc, label, state);
+        }
+        return sum;
+    }
+}
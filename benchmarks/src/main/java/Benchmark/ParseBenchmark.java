@@ -0,0 +1,77 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package Benchmark;
+
+import YaraParser.Structures.Sentence;
+import YaraParser.TransitionBasedSystem.Configuration.Configuration;
+import YaraParser.TransitionBasedSystem.Configuration.ParseResult;
+import YaraParser.TransitionBasedSystem.Parser.KBeamArcEagerParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The beam search of one test sentence on one thread, giving the best configuration (parse) or only its arcs and
+ * score (parseResult); -p topLabels=1,2,4 keeps only the best labels of each arc in the beam
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark {
+    @Param({"1", "8", "64"})
+    public int beamWidth;
+
+    @Param("0")
+    public int topLabels;
+
+    private KBeamArcEagerParser parser;
+    private ArrayList<Sentence> sentences;
+    private boolean rootFirst;
+    private int next;
+
+    @Setup
+    public void setUp(Fixtures fixtures) throws Exception {
+        parser = fixtures.parser(1);
+        parser.setTopLabels(topLabels);
+        sentences = fixtures.sentences;
+        rootFirst = fixtures.options.rootFirst;
+    }
+
+    @TearDown
+    public void tearDown() {
+        parser.shutDownLiveThreads();
+    }
+
+    @Benchmark
+    public Configuration parse() throws Exception {
+        Sentence sentence = sentences.get(next);
+        next = next + 1 == sentences.size() ? 0 : next + 1;
+        return parser.parse(sentence, rootFirst, beamWidth, 1);
+    }
+
+    @Benchmark
+    public ParseResult parseResult() throws Exception {
+        Sentence sentence = sentences.get(next);
+        next = next + 1 == sentences.size() ? 0 : next + 1;
+        return parser.parseResult(sentence, rootFirst, beamWidth, 1);
+    }
+}
@@ -0,0 +1,52 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package Benchmark;
+
+import YaraParser.Accessories.CoNLLReader;
+import YaraParser.Accessories.Options;
+import YaraParser.Structures.IndexMaps;
+import YaraParser.TransitionBasedSystem.Configuration.GoldConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link CoNLLReader#readData} of the training file with the word maps of the model
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReadBenchmark {
+    private String trainFile;
+    private Options options;
+    private IndexMaps maps;
+
+    @Setup
+    public void setUp(Fixtures fixtures) {
+        trainFile = fixtures.file("train.conll");
+        options = fixtures.options;
+        maps = fixtures.infStruct.maps;
+    }
+
+    @Benchmark
+    public ArrayList<GoldConfiguration> readData() throws Exception {
+        return new CoNLLReader(trainFile).readData(Integer.MAX_VALUE, true, options.labeled, options.rootFirst, options.lowercase, maps);
+    }
+}
@@ -0,0 +1,70 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package Benchmark;
+
+import YaraParser.Accessories.Options;
+import YaraParser.TransitionBasedSystem.Parser.KBeamArcEagerParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The makespan of parsing the training file with parse_conll on the given number of workers, with the sentences
+ * submitted in the file order or longest first; the difference shows with about as many cores as workers
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ScheduleBenchmark {
+    @Param({"false", "true"})
+    public boolean longestFirst;
+
+    @Param("4")
+    public int workers;
+
+    private KBeamArcEagerParser parser;
+    private Options options;
+    private String trainFile;
+    private File output;
+
+    @Setup
+    public void setUp(Fixtures fixtures) throws Exception {
+        parser = fixtures.parser(workers);
+        parser.setLongestFirst(longestFirst);
+        options = fixtures.options;
+        trainFile = fixtures.file("train.conll");
+        output = File.createTempFile("yara_benchmark", ".conll");
+    }
+
+    @TearDown
+    public void tearDown() {
+        parser.shutDownLiveThreads();
+        output.delete();
+    }
+
+    @Benchmark
+    public long parseFile() throws Exception {
+        parser.parseConllFile(trainFile, output.getPath(), options.rootFirst, options.beamWidth, options.labeled, options.lowercase,
+                workers, false, "");
+        return output.length();
+    }
+}
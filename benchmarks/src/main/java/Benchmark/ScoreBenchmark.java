@@ -0,0 +1,67 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package Benchmark;
+
+import YaraParser.Learning.AveragedPerceptron;
+import YaraParser.TransitionBasedSystem.Configuration.Configuration;
+import YaraParser.TransitionBasedSystem.Configuration.GoldConfiguration;
+import YaraParser.TransitionBasedSystem.Features.FeatureBuffer;
+import YaraParser.TransitionBasedSystem.Features.FeatureExtractor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The scores of all of the actions of one decoder state from its extracted features, with the weights in the hash
+ * tables of the model (tables), in one row per feature (feature_rows) or in rows with all of the labels (dense_rows)
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScoreBenchmark {
+    @Param({"tables", "feature_rows", "dense_rows"})
+    public String layout;
+
+    private AveragedPerceptron perceptron;
+    private FeatureBuffer[] buffers;
+    private int next;
+
+    @Setup
+    public void setUp(Fixtures fixtures) throws Exception {
+        perceptron = new AveragedPerceptron(fixtures.infStruct);
+        if (!layout.equals("tables"))
+            perceptron.useFeatureRows(layout.equals("dense_rows"));
+        Configuration[] states = fixtures.states(new ArrayList<GoldConfiguration>());
+        buffers = new FeatureBuffer[states.length];
+        for (int i = 0; i < states.length; i++) {
+            buffers[i] = new FeatureBuffer(fixtures.featureLength, perceptron.dependencySize);
+            FeatureExtractor.extractAllParseFeatures(states[i], buffers[i]);
+        }
+    }
+
+    @Benchmark
+    public FeatureBuffer score() {
+        FeatureBuffer buffer = buffers[next];
+        perceptron.scoreActions(buffer, true, true, true, true, true);
+        next = next + 1 == buffers.length ? 0 : next + 1;
+        return buffer;
+    }
+}
@@ -0,0 +1,120 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package Benchmark;
+
+import YaraParser.Accessories.CoNLLReader;
+import YaraParser.Accessories.Evaluator;
+import YaraParser.Accessories.Options;
+import YaraParser.Accessories.Pair;
+import YaraParser.Learning.AveragedPerceptron;
+import YaraParser.Structures.InfStruct;
+import YaraParser.TransitionBasedSystem.Configuration.GoldConfiguration;
+import YaraParser.TransitionBasedSystem.Parser.KBeamArcEagerParser;
+import YaraParser.TransitionBasedSystem.Trainer.ArcEagerBeamTrainer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One training epoch on the training file with the options of the model (with saving its model): sequentially on one
+ * thread, and with Hogwild on more. The dev LAS of the model of the last epoch is printed at the end of the trial, as
+ * Hogwild trades some accuracy for the time.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class TrainBenchmark {
+    @Param({"1", "2", "4"})
+    public int threads;
+
+    private Fixtures fixtures;
+    private Options options;
+    private ArrayList<GoldConfiguration> trainData;
+    private File directory;
+    private String trainedModel;
+    private ArcEagerBeamTrainer trainer;
+
+    @Setup(Level.Trial)
+    public void setUp(Fixtures fixtures) throws Exception {
+        this.fixtures = fixtures;
+        options = fixtures.options.clone();
+        options.numOfThreads = threads;
+        options.hogwild = threads > 1;
+        options.pruneFeatures = false;
+        // the options of older models do not have the format; the epochs save serialized models
+        options.modelFormat = "";
+        trainData = new CoNLLReader(fixtures.file("train.conll")).readData(Integer.MAX_VALUE, false, options.labeled,
+                options.rootFirst, options.lowercase, fixtures.infStruct.maps);
+        directory = Files.createTempDirectory("yara_benchmark").toFile();
+        trainedModel = new File(directory, "model").getPath();
+    }
+
+    /**
+     * Each epoch starts from a new model
+     */
+    @Setup(Level.Iteration)
+    public void newTrainer() throws Exception {
+        InfStruct infStruct = fixtures.infStruct;
+        trainer = new ArcEagerBeamTrainer(options.useMaxViol ? "max_violation" : "early",
+                new AveragedPerceptron(fixtures.featureLength, infStruct.dependencyLabels.size()), options, infStruct.dependencyLabels,
+                fixtures.featureLength, infStruct.maps);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        String devFile = fixtures.file("dev.conll");
+        PrintStream out = System.out;
+        Pair<Double, Double> accuracy;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            KBeamArcEagerParser parser = KBeamArcEagerParser.createParser(trainedModel + "_iter1", 1);
+            parser.parseConllFile(devFile, trainedModel + ".dev", options.rootFirst, options.beamWidth, true,
+                    options.lowercase, 1, false, "");
+            parser.shutDownLiveThreads();
+            accuracy = Evaluator.evaluate(devFile, trainedModel + ".dev", options.punctuations);
+        } finally {
+            System.setOut(out);
+        }
+        System.out.println("dev LAS with " + threads + " threads: " + new DecimalFormat("0.00").format(accuracy.first));
+
+        for (File file : directory.listFiles())
+            file.delete();
+        directory.delete();
+    }
+
+    @Benchmark
+    public void epoch() throws Exception {
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            trainer.train(trainData, "", 1, trainedModel, options.lowercase, options.punctuations, options.partialTrainingStartingIteration);
+        } finally {
+            System.setOut(out);
+        }
+    }
+}
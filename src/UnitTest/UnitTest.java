@@ -9,22 +9,45 @@ import YaraParser.Accessories.CoNLLReader;
 import YaraParser.Accessories.Options;
 import YaraParser.Accessories.Pair;
 import YaraParser.Learning.AveragedPerceptron;
+import YaraParser.Structures.ConcurrentLongCompactArrayMap;
+import YaraParser.Structures.ConcurrentLongFloatMap;
 import YaraParser.Structures.IndexMaps;
+import YaraParser.Structures.InfStruct;
+import YaraParser.Structures.LongCompactArrayMap;
+import YaraParser.Structures.LongFloatMap;
 import YaraParser.Structures.Sentence;
+import YaraParser.TransitionBasedSystem.Configuration.BeamElement;
+import YaraParser.TransitionBasedSystem.Configuration.BeamSelector;
+import YaraParser.TransitionBasedSystem.Configuration.Configuration;
 import YaraParser.TransitionBasedSystem.Configuration.GoldConfiguration;
+import YaraParser.TransitionBasedSystem.Parser.KBeamArcEagerParser;
 import YaraParser.TransitionBasedSystem.Trainer.ArcEagerBeamTrainer;
 
+import java.io.File;
 import java.io.FileOutputStream;
 import java.io.ObjectOutput;
 import java.io.ObjectOutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 
 public class UnitTest {
 
     public static void main(String[] args) throws Exception {
+        testLongFloatMap();
+        testLongCompactArrayMap();
+        testConcurrentMaps();
+        testBeamSelector();
+
         Options options = new Options();
         options.inputFile = args[0];
         options.devPath = args[1];
@@ -43,10 +66,355 @@ public class UnitTest {
         options.numOfThreads = 2;
         for (Options o : optionList)
             testOption(o);
+        Options last = optionList.get(optionList.size() - 1);
+        testBinaryModels(last.modelFile + "_iter" + last.trainingIter, last.devPath);
 
         System.exit(0);
     }
 
+    /**
+     * Checks the zero key, the keys that are not in the table and the rehash of the open-addressing weight table
+     */
+    public static void testLongFloatMap() {
+        LongFloatMap map = new LongFloatMap();
+        check(map.get(0) == 0f && !map.containsKey(0), "the empty table has no zero key");
+        check(map.get(42) == 0f && !map.containsKey(42) && map.size() == 0, "an absent key has the value zero");
+
+        map.add(0, 1.5f);
+        map.add(0, 1f);
+        check(map.containsKey(0) && map.get(0) == 2.5f && map.size() == 1, "the zero key is kept in its own slot");
+        map.add(-7, 3f);
+        check(map.get(-7) == 3f && map.size() == 2, "an absent key is added from zero");
+
+        // enough keys for several rehashes, with the zero key in the extra slot
+        int count = 10000;
+        for (int i = 1; i <= count; i++)
+            map.put(i * 0x100000001L, i);
+        check(map.size() == count + 2, "the size after the rehashes is " + map.size());
+        check(map.get(0) == 2.5f && map.get(-7) == 3f, "the keys before the rehashes are kept");
+        for (int i = 1; i <= count; i++)
+            check(map.get(i * 0x100000001L) == i, "the value of key " + i + " is kept by the rehashes");
+        check(map.get((count + 1) * 0x100000001L) == 0f, "an absent key has the value zero after the rehashes");
+
+        long[] keys = map.keys();
+        HashSet<Long> keySet = new HashSet<Long>();
+        for (long key : keys)
+            keySet.add(key);
+        check(keys.length == map.size() && keySet.size() == keys.length && keySet.contains(0L), "keys() returns every key once");
+        System.out.println("LongFloatMap: ok");
+    }
+
+    /**
+     * Checks the growth of the label vectors, the zero key and the rehash of the label vector table
+     */
+    public static void testLongCompactArrayMap() {
+        LongCompactArrayMap map = new LongCompactArrayMap();
+        float[] scores = new float[8];
+        map.addTo(5, scores);
+        check(map.slot(5) < 0 && map.slot(0) < 0 && scores[0] == 0f, "an absent key adds nothing");
+
+        map.expandArray(5, 3, 1f);
+        map.expandArray(5, 1, 2f);
+        map.expandArray(5, 6, 4f);
+        map.expandArray(5, 3, 1f);
+        int slot = map.slot(5);
+        check(map.offset(slot) == 1 && map.array(slot).length == 6, "the vector grows to both sides");
+        map.addTo(5, scores);
+        check(scores[1] == 2f && scores[3] == 2f && scores[6] == 4f && scores[0] == 0f && scores[7] == 0f, "addTo adds the vector at its offset");
+
+        map.expandArray(0, 2, 7f);
+        check(map.slot(0) >= 0 && map.array(map.slot(0))[0] == 7f, "the zero key is kept in its own slot");
+
+        int count = 10000;
+        for (int i = 1; i <= count; i++)
+            map.put(-i, i % 4, new float[]{i});
+        check(map.size() == count + 2, "the size after the rehashes is " + map.size());
+        for (int i = 1; i <= count; i++) {
+            slot = map.slot(-i);
+            check(map.offset(slot) == i % 4 && map.array(slot)[0] == i, "the vector of key " + -i + " is kept by the rehashes");
+        }
+        check(map.array(map.slot(5)).length == 6 && map.array(map.slot(0))[0] == 7f, "the vectors before the rehashes are kept");
+        check(map.keys().length == map.size(), "keys() returns every key");
+        System.out.println("LongCompactArrayMap: ok");
+    }
+
+    /**
+     * Checks that the beam selector keeps the same candidates, in the same order, as a TreeSet of BeamElement that drops
+     * its first element whenever it has more than beamWidth ones: for several beam widths, with many equal scores (which
+     * the TreeSet drops when they are of the same action of the same item), and when the beam is scored in slices whose
+     * selectors are merged afterwards
+     */
+    public static void testBeamSelector() {
+        Random random = new Random(1);
+        int labelCount = 6;
+        int[] dependencies = new int[labelCount];
+        for (int i = 0; i < labelCount; i++)
+            dependencies[i] = i;
+
+        for (int beamWidth : new int[]{1, 2, 3, 8, 64}) {
+            BeamSelector selector = new BeamSelector(beamWidth);
+            BeamSelector arcSelector = new BeamSelector(beamWidth);
+            BeamSelector merged = new BeamSelector(beamWidth);
+            for (int step = 0; step < 500; step++) {
+                int beamSize = 1 + random.nextInt(beamWidth);
+                float[] prevScores = new float[beamSize];
+                float[][][] arcScores = new float[beamSize][2][];
+                ArrayList<BeamElement> candidates = new ArrayList<BeamElement>();
+                for (int b = 0; b < beamSize; b++) {
+                    // the scores are small integers, so that many of them are equal
+                    prevScores[b] = random.nextInt(3);
+                    if (random.nextInt(4) == 0)
+                        candidates.add(new BeamElement(prevScores[b], b, 4, -1));
+                    for (int action = 0; action < 2; action++) {
+                        if (random.nextBoolean())
+                            candidates.add(new BeamElement(random.nextInt(4) + prevScores[b], b, action, -1));
+                    }
+                    for (int arc = 0; arc < 2; arc++) {
+                        if (random.nextInt(3) == 0)
+                            continue;
+                        arcScores[b][arc] = new float[labelCount];
+                        for (int label = 0; label < labelCount; label++) {
+                            arcScores[b][arc][label] = random.nextInt(4);
+                            candidates.add(new BeamElement(arcScores[b][arc][label] + prevScores[b], b, 2 + arc, label));
+                        }
+                    }
+                }
+
+                // the candidates one by one, in the order of the parser
+                TreeSet<BeamElement> beam = boundedBeam(candidates, beamWidth);
+                selector.clear();
+                for (BeamElement candidate : candidates)
+                    selector.add(candidate);
+                check(sameBeam(beam, selector), "the selector keeps the beam of the TreeSet (width " + beamWidth + ")");
+
+                // the labels of an arc together, in one selector and in the merged selectors of the slices
+                arcSelector.clear();
+                addCandidates(arcSelector, candidates, arcScores, prevScores, dependencies, 0, beamSize);
+                check(sameBeam(beam, arcSelector), "the arc selector keeps the beam of the TreeSet (width " + beamWidth + ")");
+
+                int slices = 1 + random.nextInt(Math.min(beamSize, 4));
+                merged.clear();
+                for (int slice = 0; slice < slices; slice++) {
+                    BeamSelector sliceSelector = new BeamSelector(beamWidth);
+                    addCandidates(sliceSelector, candidates, arcScores, prevScores, dependencies, beamSize * slice / slices, beamSize * (slice + 1) / slices);
+                    merged.addAll(sliceSelector);
+                }
+                check(sameBeam(beam, merged), "the merged slices keep the beam of the TreeSet (width " + beamWidth + ", " + slices + " slices)");
+
+                // the candidates in any order
+                Collections.shuffle(candidates, random);
+                selector.clear();
+                for (BeamElement candidate : candidates)
+                    selector.add(candidate);
+                check(sameBeam(boundedBeam(candidates, beamWidth), selector), "the selector keeps the beam of the TreeSet in any order (width " + beamWidth + ")");
+            }
+        }
+        System.out.println("BeamSelector: ok");
+    }
+
+    /**
+     * @return the beam of the candidates, kept as the parser kept it before {@link BeamSelector}
+     */
+    private static TreeSet<BeamElement> boundedBeam(ArrayList<BeamElement> candidates, int beamWidth) {
+        TreeSet<BeamElement> beam = new TreeSet<BeamElement>();
+        for (BeamElement candidate : candidates) {
+            beam.add(candidate);
+            if (beam.size() > beamWidth)
+                beam.pollFirst();
+        }
+        return beam;
+    }
+
+    /**
+     * Adds the candidates of the beam items from (inclusive) to (exclusive) as the parser does, with the labels of each
+     * arc together
+     */
+    private static void addCandidates(BeamSelector selector, ArrayList<BeamElement> candidates, float[][][] arcScores, float[] prevScores,
+                                      int[] dependencies, int from, int to) {
+        for (int b = from; b < to; b++) {
+            for (BeamElement candidate : candidates) {
+                if (candidate.number == b && candidate.label == -1)
+                    selector.add(candidate);
+            }
+            for (int arc = 0; arc < 2; arc++) {
+                if (arcScores[b][arc] != null)
+                    selector.addArcs(prevScores[b], b, 2 + arc, arcScores[b][arc], dependencies, 0);
+            }
+        }
+    }
+
+    /**
+     * @return true if the selector has the candidates of the TreeSet, from the best one
+     */
+    private static boolean sameBeam(TreeSet<BeamElement> beam, BeamSelector selector) {
+        if (beam.size() != selector.size())
+            return false;
+        int rank = 0;
+        for (BeamElement element : beam.descendingSet()) {
+            if (Float.compare(element.score, selector.score(rank)) != 0 || element.number != selector.number(rank)
+                    || element.action != selector.action(rank) || element.label != selector.label(rank))
+                return false;
+            rank++;
+        }
+        return true;
+    }
+
+    /**
+     * Updates the concurrent weight tables from several threads: each adder thread adds to its own keys (in place once
+     * the key is in the table, and with longer vectors from time to time) while the inserter threads add new keys, so
+     * that the tables are rehashed under the additions. No addition may be lost, and each adder must read its own sums.
+     * A race is not lost in every run, so the check is run several times.
+     */
+    public static void testConcurrentMaps() throws Exception {
+        for (int run = 0; run < 8; run++)
+            checkConcurrentMaps();
+        System.out.println("concurrent maps: ok");
+    }
+
+    private static void checkConcurrentMaps() throws Exception {
+        final ConcurrentLongFloatMap map = new ConcurrentLongFloatMap();
+        final ConcurrentLongCompactArrayMap arrayMap = new ConcurrentLongCompactArrayMap();
+        final int adders = 4;
+        final int inserters = 2;
+        final int ownKeys = 64;
+        final int rounds = 2000;
+        final int newKeys = 20000;
+        final int vectorLength = 10;
+
+        ExecutorService executor = Executors.newFixedThreadPool(adders + inserters);
+        try {
+            ArrayList<Future<Object>> results = new ArrayList<Future<Object>>();
+            for (int t = 0; t < adders; t++) {
+                final long firstKey = (t + 1) * 1000000L;
+                results.add(executor.submit(new Callable<Object>() {
+                    @Override
+                    public Object call() {
+                        float[] scores = new float[vectorLength];
+                        for (int round = 0; round < rounds; round++) {
+                            int index = round * vectorLength / rounds;
+                            for (int k = 0; k < ownKeys; k++) {
+                                map.add(firstKey + k, 1f);
+                                arrayMap.expandArray(firstKey + k, index, 1f);
+                            }
+                            long key = firstKey + round % ownKeys;
+                            check(map.get(key) == round + 1, "an adder reads its own sum");
+                            Arrays.fill(scores, 0f);
+                            arrayMap.addTo(key, scores);
+                            check(scores[index] == round - (long) index * rounds / vectorLength + 1, "an adder reads its own vector");
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (int t = 0; t < inserters; t++) {
+                final long firstKey = -(t + 1) * 1000000L;
+                results.add(executor.submit(new Callable<Object>() {
+                    @Override
+                    public Object call() {
+                        for (int k = 0; k < newKeys; k++) {
+                            map.put(firstKey - k, k);
+                            arrayMap.expandArray(firstKey - k, k % vectorLength, k);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Object> result : results)
+                result.get();
+        } finally {
+            executor.shutdown();
+        }
+
+        check(map.size() == adders * ownKeys + inserters * newKeys, "the size of the table is " + map.size());
+        check(arrayMap.size() == map.size(), "the size of the vector table is " + arrayMap.size());
+        float[] scores = new float[vectorLength];
+        for (int t = 0; t < adders; t++) {
+            for (int k = 0; k < ownKeys; k++) {
+                long key = (t + 1) * 1000000L + k;
+                check(map.get(key) == rounds, "no addition to key " + key + " is lost: " + map.get(key));
+                check(arrayMap.array(arrayMap.slot(key)).length == vectorLength, "the vector of key " + key + " has every label");
+                Arrays.fill(scores, 0f);
+                arrayMap.addTo(key, scores);
+                for (int index = 0; index < vectorLength; index++)
+                    check(scores[index] == rounds / vectorLength, "no addition to label " + index + " of key " + key + " is lost");
+            }
+        }
+        for (int t = 0; t < inserters; t++) {
+            for (int k = 0; k < newKeys; k++) {
+                long key = -(t + 1) * 1000000L - k;
+                check(map.get(key) == k, "the inserted key " + key + " is kept");
+                Arrays.fill(scores, 0f);
+                arrayMap.addTo(key, scores);
+                check(scores[k % vectorLength] == k, "the inserted vector of key " + key + " is kept");
+            }
+        }
+    }
+
+    /**
+     * Converts the serialized model to the binary format and writes the memory-mapped model again, with float and with
+     * 8-bit weights: the memory-mapped models must parse the sample file as the serialized one does, and the model that
+     * is quantized from the memory-mapped one as the model that is quantized from the heap.
+     */
+    public static void testBinaryModels(String modelPath, String samplePath) throws Exception {
+        InfStruct serialized = new InfStruct(modelPath);
+        File binaryFile = temporaryModel();
+        serialized.saveBinaryModel(binaryFile.getPath());
+        InfStruct binary = new InfStruct(binaryFile.getPath());
+
+        File rewrittenFile = temporaryModel();
+        binary.saveBinaryModel(rewrittenFile.getPath());
+        File quantizedFromHeap = temporaryModel();
+        serialized.saveBinaryModel(quantizedFromHeap.getPath(), 8);
+        File quantizedFromBinary = temporaryModel();
+        binary.saveBinaryModel(quantizedFromBinary.getPath(), 8);
+
+        Options options = serialized.options;
+        CoNLLReader reader = new CoNLLReader(samplePath);
+        ArrayList<GoldConfiguration> data = reader.readData(Integer.MAX_VALUE, true, options.labeled, options.rootFirst, options.lowercase, serialized.maps);
+        check(sameParses(serialized, binary, data, options), "the binary model parses as the serialized one");
+        check(sameParses(serialized, new InfStruct(rewrittenFile.getPath()), data, options), "the rewritten binary model parses as the serialized one");
+        check(sameParses(new InfStruct(quantizedFromHeap.getPath()), new InfStruct(quantizedFromBinary.getPath()), data, options),
+                "the model quantized from the binary model parses as the one quantized from the heap");
+        System.out.println("binary models: ok");
+    }
+
+    private static File temporaryModel() throws Exception {
+        File file = File.createTempFile("yara_unit_test", ".model");
+        file.deleteOnExit();
+        return file;
+    }
+
+    /**
+     * @return true if the two models give the same trees and scores on all of the sentences
+     */
+    private static boolean sameParses(InfStruct first, InfStruct second, ArrayList<GoldConfiguration> data, Options options) throws Exception {
+        AveragedPerceptron firstPerceptron = new AveragedPerceptron(first);
+        AveragedPerceptron secondPerceptron = new AveragedPerceptron(second);
+        KBeamArcEagerParser firstParser = new KBeamArcEagerParser(firstPerceptron, first.dependencyLabels, firstPerceptron.featureSize(), first.maps, 1);
+        KBeamArcEagerParser secondParser = new KBeamArcEagerParser(secondPerceptron, second.dependencyLabels, secondPerceptron.featureSize(), second.maps, 1);
+        boolean same = true;
+        for (GoldConfiguration configuration : data) {
+            Sentence sentence = configuration.getSentence();
+            Configuration firstParse = firstParser.parse(sentence, options.rootFirst, options.beamWidth, 1);
+            Configuration secondParse = secondParser.parse(sentence, options.rootFirst, options.beamWidth, 1);
+            if (Float.compare(firstParse.getScore(true), secondParse.getScore(true)) != 0)
+                same = false;
+            for (int i = 0; i <= sentence.size(); i++) {
+                if (firstParse.state.getHead(i) != secondParse.state.getHead(i)
+                        || firstParse.state.getDependency(i) != secondParse.state.getDependency(i))
+                    same = false;
+            }
+        }
+        firstParser.shutDownLiveThreads();
+        secondParser.shutDownLiveThreads();
+        return same;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition)
+            throw new AssertionError(message);
+    }
+
     public static void testOption(Options options) throws Exception {
         System.out.println("**********************************************");
         System.out.print(options);
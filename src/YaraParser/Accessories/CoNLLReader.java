@@ -31,6 +31,13 @@ public class CoNLLReader {
         fileReader = new BufferedReader(new FileReader(filePath));
     }
 
+    /**
+     * Reads from an open reader, e.g. the standard input
+     */
+    public CoNLLReader(BufferedReader reader) {
+        fileReader = reader;
+    }
+
     public static IndexMaps createIndices(String filePath, boolean labeled, boolean lowercased, String clusterFile) throws Exception {
         HashMap<String, Integer> wordMap = new HashMap<String, Integer>();
         HashMap<Integer, Integer> labels = new HashMap<Integer, Integer>();
@@ -137,9 +144,32 @@ public class CoNLLReader {
      * @return
      */
     public ArrayList<GoldConfiguration> readData(int limit, boolean keepNonProjective, boolean labeled, boolean rootFirst, boolean lowerCased, IndexMaps maps) throws Exception {
-        HashMap<String, Integer> wordMap = maps.getWordMap();
         ArrayList<GoldConfiguration> configurationSet = new ArrayList<GoldConfiguration>();
 
+        GoldConfiguration goldConfiguration;
+        int sentenceCounter = 0;
+        while ((goldConfiguration = readSentence(labeled, rootFirst, lowerCased, maps, null)) != null) {
+            sentenceCounter++;
+            if (keepNonProjective || !goldConfiguration.isNonprojective())
+                configurationSet.add(goldConfiguration);
+            if (sentenceCounter >= limit) {
+                System.out.println("buffer full..." + configurationSet.size());
+                break;
+            }
+        }
+
+        return configurationSet;
+    }
+
+    /**
+     * Reads the next sentence, e.g. for parsing a file as a stream; {@link #readData} reads the sentences with it
+     *
+     * @param lines gets the token lines of the sentence as they are in the file; may be null
+     * @return the sentence with its (possibly partial) gold tree, or null at the end of the file
+     */
+    public GoldConfiguration readSentence(boolean labeled, boolean rootFirst, boolean lowerCased, IndexMaps maps, ArrayList<String> lines) throws Exception {
+        HashMap<String, Integer> wordMap = maps.getWordMap();
+
         String line;
         ArrayList<Integer> tokens = new ArrayList<Integer>();
         ArrayList<Integer> tags = new ArrayList<Integer>();
@@ -148,109 +178,74 @@ public class CoNLLReader {
         ArrayList<Integer> clusterIds = new ArrayList<Integer>();
 
         HashMap<Integer, Pair<Integer, Integer>> goldDependencies = new HashMap<Integer, Pair<Integer, Integer>>();
-        int sentenceCounter = 0;
         while ((line = fileReader.readLine()) != null) {
-            line = line.trim();
-            if (line.length() == 0) {
-                if (tokens.size() >= 1) {
-                    sentenceCounter++;
-                    if (!rootFirst) {
-                        for (int gold : goldDependencies.keySet()) {
-                            if (goldDependencies.get(gold).first.equals(0))
-                                goldDependencies.get(gold).setFirst(tokens.size() + 1);
-                        }
-                        tokens.add(0);
-                        tags.add(0);
-                        cluster4Ids.add(0);
-                        cluster6Ids.add(0);
-                        clusterIds.add(0);
-                    }
-                    Sentence currentSentence = new Sentence(tokens, tags, cluster4Ids, cluster6Ids, clusterIds);
-                    GoldConfiguration goldConfiguration = new GoldConfiguration(currentSentence, goldDependencies);
-                    if (keepNonProjective || !goldConfiguration.isNonprojective())
-                        configurationSet.add(goldConfiguration);
-                    goldDependencies = new HashMap<Integer, Pair<Integer, Integer>>();
-                    tokens = new ArrayList<Integer>();
-                    tags = new ArrayList<Integer>();
-                    cluster4Ids = new ArrayList<Integer>();
-                    cluster6Ids = new ArrayList<Integer>();
-                    clusterIds = new ArrayList<Integer>();
-                } else {
-                    goldDependencies = new HashMap<Integer, Pair<Integer, Integer>>();
-                    tokens = new ArrayList<Integer>();
-                    tags = new ArrayList<Integer>();
-                    cluster4Ids = new ArrayList<Integer>();
-                    cluster6Ids = new ArrayList<Integer>();
-                    clusterIds = new ArrayList<Integer>();
-                }
-                if (sentenceCounter >= limit) {
-                    System.out.println("buffer full..." + configurationSet.size());
+            if (line.trim().length() == 0) {
+                if (tokens.size() > 0)
                     break;
-                }
-            } else {
-                String[] splitLine = line.split("\t");
-                if (splitLine.length < 8)
-                    throw new Exception("wrong file format");
-                int wordIndex = Integer.parseInt(splitLine[0]);
-                String word = splitLine[1].trim();
-                if (lowerCased)
-                    word = word.toLowerCase();
-                String pos = splitLine[3].trim();
-
-                int wi = -1;
-                if (wordMap.containsKey(word))
-                    wi = wordMap.get(word);
-
-                int pi = -1;
-                if (wordMap.containsKey(pos))
-                    pi = wordMap.get(pos);
-
-                tags.add(pi);
-                tokens.add(wi);
-
-                int headIndex = Integer.parseInt(splitLine[6]);
-                String relation = splitLine[7];
-                if (relation.equals("_"))
-                    relation = "-";
-                if (!labeled)
-                    relation = "~";
-
-                if (headIndex == 0)
-                    relation = "ROOT";
-
-                int ri = -1;
-                if (wordMap.containsKey(relation))
-                    ri = wordMap.get(relation);
-                if (headIndex == -1)
-                    ri = -1;
-
-                int[] ids = maps.clusterId(word);
-                clusterIds.add(ids[0]);
-                cluster4Ids.add(ids[1]);
-                cluster6Ids.add(ids[2]);
-
-                if (headIndex >= 0)
-                    goldDependencies.put(wordIndex, new Pair<Integer, Integer>(headIndex, ri));
+                continue;
             }
+            if (lines != null)
+                lines.add(line);
+            String[] splitLine = line.trim().split("\t");
+            if (splitLine.length < 8)
+                throw new Exception("wrong file format");
+            int wordIndex = Integer.parseInt(splitLine[0]);
+            String word = splitLine[1].trim();
+            if (lowerCased)
+                word = word.toLowerCase();
+            String pos = splitLine[3].trim();
+
+            int wi = -1;
+            if (wordMap.containsKey(word))
+                wi = wordMap.get(word);
+
+            int pi = -1;
+            if (wordMap.containsKey(pos))
+                pi = wordMap.get(pos);
+
+            tags.add(pi);
+            tokens.add(wi);
+
+            int headIndex = Integer.parseInt(splitLine[6]);
+            String relation = splitLine[7];
+            if (relation.equals("_"))
+                relation = "-";
+            if (!labeled)
+                relation = "~";
+
+            if (headIndex == 0)
+                relation = "ROOT";
+
+            int ri = -1;
+            if (wordMap.containsKey(relation))
+                ri = wordMap.get(relation);
+            if (headIndex == -1)
+                ri = -1;
+
+            int[] ids = maps.clusterId(word);
+            clusterIds.add(ids[0]);
+            cluster4Ids.add(ids[1]);
+            cluster6Ids.add(ids[2]);
+
+            if (headIndex >= 0)
+                goldDependencies.put(wordIndex, new Pair<Integer, Integer>(headIndex, ri));
         }
-        if (tokens.size() > 0) {
-            if (!rootFirst) {
-                for (int gold : goldDependencies.keySet()) {
-                    if (goldDependencies.get(gold).first.equals(0))
-                        goldDependencies.get(gold).setFirst(goldDependencies.size() + 1);
-                }
-                tokens.add(0);
-                tags.add(0);
-                cluster4Ids.add(0);
-                cluster6Ids.add(0);
-                clusterIds.add(0);
+        if (tokens.size() == 0)
+            return null;
+
+        if (!rootFirst) {
+            for (int gold : goldDependencies.keySet()) {
+                if (goldDependencies.get(gold).first.equals(0))
+                    goldDependencies.get(gold).setFirst(tokens.size() + 1);
             }
-            sentenceCounter++;
-            Sentence currentSentence = new Sentence(tokens, tags, cluster4Ids, cluster6Ids, clusterIds);
-            configurationSet.add(new GoldConfiguration(currentSentence, goldDependencies));
+            tokens.add(0);
+            tags.add(0);
+            cluster4Ids.add(0);
+            cluster6Ids.add(0);
+            clusterIds.add(0);
         }
-
-        return configurationSet;
+        Sentence currentSentence = new Sentence(tokens, tags, cluster4Ids, cluster6Ids, clusterIds);
+        return new GoldConfiguration(currentSentence, goldDependencies);
     }
 
     public ArrayList<CompactTree> readStringData() throws Exception {
@@ -0,0 +1,170 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package YaraParser.Accessories;
+
+import YaraParser.Learning.AveragedPerceptron;
+import YaraParser.Structures.InfStruct;
+import YaraParser.Structures.Sentence;
+import YaraParser.TransitionBasedSystem.Configuration.Configuration;
+import YaraParser.TransitionBasedSystem.Configuration.GoldConfiguration;
+import YaraParser.TransitionBasedSystem.Parser.KBeamArcEagerParser;
+
+import java.io.File;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+
+/**
+ * Converts a model between the GZIP'd serialized format and the memory-mapped binary format of {@link InfStruct},
+ * optionally with pruned features or quantized weights.
+ * The converted model is loaded again and, if a sample file is given, both models parse it and their parse scores
+ * and trees (or, for pruned or quantized weights, their accuracies) are compared.
+ */
+
+public class ModelConverter {
+    public static final String BINARY_FORMAT = "binary";
+    public static final String SERIALIZED_FORMAT = "serialized";
+
+    /**
+     * Converts options.modelFile to options.outputFile; options.modelFormat is {@link #BINARY_FORMAT},
+     * {@link #SERIALIZED_FORMAT} or empty for the other format of the input. The weights are quantized if
+     * options.quantizationBits is 8 or 16 and the features are pruned as in {@link InfStruct#prune} if options.pruneFeatures
+     * is set; the sample file (options.inputFile) is then parsed with both models and their accuracies are compared,
+     * instead of the parses and scores.
+     *
+     * @return true if the two models give the same parses and scores on the sample file (always true for quantized or pruned weights)
+     */
+    public static boolean convert(Options options) throws Exception {
+        String inputModel = options.modelFile;
+        String outputModel = options.outputFile;
+        String format = options.modelFormat;
+        int quantizationBits = options.quantizationBits;
+
+        boolean inputIsBinary = InfStruct.isBinaryModel(inputModel);
+        if (format.equals(""))
+            format = inputIsBinary && quantizationBits == 32 ? SERIALIZED_FORMAT : BINARY_FORMAT;
+        if (!format.equals(BINARY_FORMAT) && !format.equals(SERIALIZED_FORMAT))
+            throw new IllegalArgumentException("unknown model format: " + format);
+        if (quantizationBits != 32 && !format.equals(BINARY_FORMAT))
+            throw new IllegalArgumentException("quantized weights are only kept in the " + BINARY_FORMAT + " format");
+
+        InfStruct input = load(inputModel, inputIsBinary ? BINARY_FORMAT : SERIALIZED_FORMAT);
+
+        long start = System.currentTimeMillis();
+        InfStruct converted = input;
+        if (options.pruneFeatures) {
+            converted = input.prune(options.pruneMinCount, options.pruneWeightThreshold, options.pruneTopK, null);
+            int featureCount = input.featureCount();
+            System.out.println("pruned features: " + featureCount + " -> " + converted.featureCount() + " ("
+                    + new DecimalFormat("0.00").format(100.0 * converted.featureCount() / featureCount) + "%)");
+        }
+        if (format.equals(BINARY_FORMAT))
+            converted.saveBinaryModel(outputModel, quantizationBits);
+        else
+            converted.saveModel(outputModel);
+        System.out.println("wrote " + outputModel + " in " + (System.currentTimeMillis() - start) + " ms");
+
+        InfStruct output = load(outputModel, quantizationBits == 32 ? format : format + ", " + quantizationBits + "-bit weights");
+
+        if (options.inputFile.equals(""))
+            return true;
+        if (quantizationBits != 32 || options.pruneFeatures) {
+            compareAccuracy(input, output, options);
+            return true;
+        }
+        return compare(input, output, options.inputFile, options.numOfThreads);
+    }
+
+    private static InfStruct load(String modelPath, String format) throws Exception {
+        long heapBefore = usedHeap();
+        long start = System.currentTimeMillis();
+        InfStruct infStruct = new InfStruct(modelPath);
+        long loadTime = System.currentTimeMillis() - start;
+        long heap = usedHeap() - heapBefore;
+
+        DecimalFormat decimalFormat = new DecimalFormat("##.00");
+        System.out.println(modelPath + " (" + format + "): loaded in " + loadTime + " ms; heap: "
+                + decimalFormat.format(heap / 1048576.0) + " MB; file: " + decimalFormat.format(new File(modelPath).length() / 1048576.0) + " MB");
+        return infStruct;
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static boolean compare(InfStruct first, InfStruct second, String sampleFile, int numOfThreads) throws Exception {
+        Options options = first.options;
+        CoNLLReader reader = new CoNLLReader(sampleFile);
+        ArrayList<GoldConfiguration> data = reader.readData(Integer.MAX_VALUE, true, options.labeled, options.rootFirst, options.lowercase, first.maps);
+
+        KBeamArcEagerParser firstParser = createParser(first, numOfThreads);
+        KBeamArcEagerParser secondParser = createParser(second, numOfThreads);
+
+        int mismatches = 0;
+        for (int s = 0; s < data.size(); s++) {
+            Sentence sentence = data.get(s).getSentence();
+            Configuration firstParse = firstParser.parse(sentence, options.rootFirst, options.beamWidth, numOfThreads);
+            Configuration secondParse = secondParser.parse(sentence, options.rootFirst, options.beamWidth, numOfThreads);
+
+            boolean same = Float.compare(firstParse.getScore(true), secondParse.getScore(true)) == 0;
+            for (int i = 0; same && i <= sentence.size(); i++) {
+                if (firstParse.state.getHead(i) != secondParse.state.getHead(i)
+                        || firstParse.state.getDependency(i) != secondParse.state.getDependency(i))
+                    same = false;
+            }
+            if (!same) {
+                if (mismatches == 0)
+                    System.out.println("first mismatch in sentence " + (s + 1) + ": score " + firstParse.getScore(true) + " vs " + secondParse.getScore(true));
+                mismatches++;
+            }
+        }
+        firstParser.shutDownLiveThreads();
+        secondParser.shutDownLiveThreads();
+
+        if (mismatches == 0)
+            System.out.println("verified: identical parses and scores on " + data.size() + " sentences");
+        else
+            System.out.println("verification failed: " + mismatches + " of " + data.size() + " sentences differ");
+        return mismatches == 0;
+    }
+
+    /**
+     * Parses the sample file with both models and reports the labeled and unlabeled accuracy of each of them
+     */
+    private static void compareAccuracy(InfStruct first, InfStruct second, Options options) throws Exception {
+        Pair<Double, Double> firstAccuracy = evaluate(first, options);
+        Pair<Double, Double> secondAccuracy = evaluate(second, options);
+
+        DecimalFormat format = new DecimalFormat("0.00");
+        System.out.println("LAS: " + format.format(firstAccuracy.first) + " -> " + format.format(secondAccuracy.first)
+                + " (" + format.format(secondAccuracy.first - firstAccuracy.first) + ")");
+        System.out.println("UAS: " + format.format(firstAccuracy.second) + " -> " + format.format(secondAccuracy.second)
+                + " (" + format.format(secondAccuracy.second - firstAccuracy.second) + ")");
+    }
+
+    private static Pair<Double, Double> evaluate(InfStruct infStruct, Options options) throws Exception {
+        File output = File.createTempFile("yara_convert", ".conll");
+        try {
+            KBeamArcEagerParser parser = createParser(infStruct, options.numOfThreads);
+            Options modelOptions = infStruct.options;
+            parser.parseConllFile(options.inputFile, output.getPath(), modelOptions.rootFirst, modelOptions.beamWidth, true,
+                    modelOptions.lowercase, options.numOfThreads, false, "");
+            parser.shutDownLiveThreads();
+            return Evaluator.evaluate(options.inputFile, output.getPath(), options.punctuations);
+        } finally {
+            output.delete();
+        }
+    }
+
+    private static KBeamArcEagerParser createParser(InfStruct infStruct, int numOfThreads) {
+        AveragedPerceptron perceptron = new AveragedPerceptron(infStruct);
+        return new KBeamArcEagerParser(perceptron, infStruct.dependencyLabels, perceptron.featureSize(), infStruct.maps, numOfThreads);
+    }
+}
@@ -12,6 +12,8 @@ import java.util.ArrayList;
 import java.util.HashSet;
 
 public class Options implements Serializable {
+    private static final long serialVersionUID = 279907630347159402L;
+
     public boolean train;
     public boolean parseTaggedFile;
     public boolean parseConllFile;
@@ -25,6 +27,28 @@ public class Options implements Serializable {
     public int trainingIter;
     public boolean evaluate;
     public boolean parsePartialConll;
+    public boolean convertModel;
+    public boolean serve;
+    public int port;
+    public int maxBatchSize;
+    public int batchWait;
+    public String modelFormat;
+    public int quantizationBits;
+    public boolean useFeatureRows;
+    public boolean useDenseRows;
+    public int topLabels;
+    public boolean longestFirst;
+    public boolean hogwild;
+    public int shards;
+    public boolean remoteShards;
+    public boolean trainWorker;
+    public String coordinator;
+    public String bindAddress;
+    public String secretFile;
+    public boolean pruneFeatures;
+    public int pruneMinCount;
+    public float pruneWeightThreshold;
+    public int pruneTopK;
     public String scorePath;
     public String clusterFile;
 
@@ -70,6 +94,28 @@ public class Options implements Serializable {
         numOfThreads = 8;
         useExtendedWithBrownClusterFeatures = false;
         parsePartialConll = false;
+        convertModel = false;
+        serve = false;
+        port = 8080;
+        maxBatchSize = 32;
+        batchWait = 2;
+        modelFormat = "";
+        quantizationBits = 32;
+        pruneFeatures = false;
+        pruneMinCount = 0;
+        pruneWeightThreshold = 0;
+        pruneTopK = 0;
+        useFeatureRows = false;
+        useDenseRows = false;
+        topLabels = 0;
+        longestFirst = false;
+        hogwild = false;
+        shards = 0;
+        remoteShards = false;
+        trainWorker = false;
+        coordinator = "";
+        bindAddress = "";
+        secretFile = "";
 
         partialTrainingStartingIteration = 3;
 
@@ -132,24 +178,59 @@ public class Options implements Serializable {
         output.append("\t \t static (default: use dynamic oracles, unless explicitly put `static' for static oracles)\n");
         output.append("\t \t random (default: choose maximum scoring oracle, unless explicitly put `random' for randomly choosing an oracle)\n");
         output.append("\t \t nt:[#_of_threads] (default:8)\n");
+        output.append("\t \t hogwild (the threads train on different sentences at once and update the shared weights without waiting for each other (only new features and a rehash of a table lock it), instead of scoring the beam of one sentence together: faster, but the model depends on the timing of the threads)\n");
+        output.append("\t \t shards:[#_of_workers] (iterative parameter mixing: the training sentences are split into this many shards, each one trained by a worker process, and the weights of the workers are averaged after every iteration; the workers are started on this machine and use nt threads each)\n");
+        output.append("\t \t remote_shards (with shards: the workers are not started, but train_worker is run on other machines; the coordinator waits for them on port:[port] (default:8080))\n");
+        output.append("\t \t\t remote_shards needs -secret [secret-file]: a file with the same secret bytes on the coordinator and the workers, which both ends prove to each other before any data is sent\n");
+        output.append("\t \t\t -bind [address] is the address that the coordinator listens on (default: the loopback address, so the workers must be on this machine or reach it through a tunnel)\n");
         output.append("\t \t pt:[#partail_training_starting_iteration] (default:3; shows the starting iteration for considering partial trees)\n");
+        output.append("\t \t prune (also saves [model-file]_iter#_pruned without the features whose weights are all zero; the size and dev accuracy of both models are reported)\n");
+        output.append("\t \t prune_count:[min_#_of_updates] prune_weight:[min_absolute_weight] prune_top:[max_#_of_features_per_template] (each one implies prune)\n");
+        output.append("\t \t -format binary (saves the models in the memory-mapped binary format instead of the GZIP'd serialized one: faster to load, but the files are not compressed and cannot be read by parsers older than the binary format)\n");
         output.append("\t \t root_first (default: put ROOT in the last position, unless explicitly put 'root_first')\n\n");
 
         output.append("* Parse a CoNLL'2006 file:\n");
         output.append("\tjava -jar YaraParser.jar parse_conll -input [test-file] -out [output-file] -model [model-file] nt:[#_of_threads (optional -- default:8)] \n");
         output.append("\t** The test file should have the conll 2006 format\n");
-        output.append("\t** Optional: -score [score file] averaged score of each output parse tree in a file\n\n");
+        output.append("\t** Use - as the test file or the output file for the standard input or output; the file is parsed as a stream\n");
+        output.append("\t** Optional: -score [score file] averaged score of each output parse tree in a file\n");
+        output.append("\t** Optional: feature_rows (keeps the weights of each feature for all actions in one row: faster, but copies a memory-mapped model into the heap)\n");
+        output.append("\t** Optional: dense_rows (feature rows with all of the labels, so that the label scores are summed in one vectorizable loop: uses more memory)\n");
+        output.append("\t** Optional: top_labels:[#] (only the best # labels of each arc are beam candidates: faster with a wide beam, but the parses can change; default:0 for all labels)\n");
+        output.append("\t** Optional: longest_first (with more than one thread, each block of sentences is parsed from the longest one, so that long sentences do not finish last; the output keeps the input order)\n\n");
 
         output.append("* Parse a tagged file:\n");
         output.append("\tjava -jar YaraParser.jar parse_tagged -input [test-file] -out [output-file]  -model [model-file] nt:[#_of_threads (optional -- default:8)] \n");
         output.append("\t** The test file should have each sentence in line and word_tag pairs are space-delimited\n");
+        output.append("\t** Use - as the test file or the output file for the standard input or output\n");
         output.append("\t** Optional:  -delim [delim] (default is _)\n");
         output.append("\t \t Example: He_PRP is_VBZ nice_AJ ._.\n\n");
 
         output.append("* Parse a CoNLL'2006 file with partial gold trees:\n");
         output.append("\tjava -jar YaraParser.jar parse_partial -input [test-file] -out [output-file] -model [model-file] nt:[#_of_threads (optional -- default:8)] \n");
-        output.append("\t** The test file should have the conll 2006 format; each word that does not have a parent, should have a -1 parent-index");
-        output.append("\t** Optional: -score [score file] averaged score of each output parse tree in a file\n\n");
+        output.append("\t** The test file should have the conll 2006 format; each word that does not have a parent, should have a -1 parent-index\n");
+        output.append("\t** Use - as the test file or the output file for the standard input or output\n");
+        output.append("\t** Optional: -score [score file] averaged score of each output parse tree in a file\n");
+        output.append("\t** Optional: longest_first (as in parse_conll)\n\n");
+
+        output.append("* Convert a model between the serialized and the memory-mapped binary formats:\n");
+        output.append("\tjava -jar YaraParser.jar convert_model -model [model-file] -out [output-model-file] -input [sample-file (optional)] nt:[#_of_threads (optional -- default:8)]\n");
+        output.append("\t** Optional: -format [binary or serialized] (default: the other format of the input model)\n");
+        output.append("\t** Binary models are not compressed (a few times larger than serialized ones) and cannot be read by parsers older than the binary format; quantized ones need a parser with quantized weights. Convert a model to serialized to use it with an older parser\n");
+        output.append("\t** Optional: prune, prune_weight:[min_absolute_weight] and prune_top:[max_#_of_features_per_template] as in training\n");
+        output.append("\t** Optional: -quantize [8 or 16] keeps the weights of the binary model as 8-bit or 16-bit integers; the accuracy of both models on the sample file is reported (use -punc [punc-file] for the punctuation tags)\n");
+        output.append("\t** The sample file should have the conll 2006 format; both models parse it and their scores are compared\n\n");
+
+        output.append("* Serve parses over HTTP on localhost:\n");
+        output.append("\tjava -jar YaraParser.jar serve -model [model-file] port:[port (optional -- default:8080)] nt:[#_of_threads (optional -- default:8)]\n");
+        output.append("\t** POST /parse?input=[tagged or conll]&output=[conll or json] with the sentences in the body: tagged sentences, one in each line, or CoNLL'2006 sentences (default: input=tagged, output=conll)\n");
+        output.append("\t** GET /stats gives the requests, sentences, batches, throughput and latency percentiles as JSON\n");
+        output.append("\t** Optional: batch:[max_#_of_sentences] (default:32) and batch_wait:[ms] (default:2): the sentences of concurrent requests are parsed together in batches of at most this many sentences, waiting at most this long to fill one\n");
+        output.append("\t** Optional:  -delim [delim] (default is _)\n\n");
+
+        output.append("* Train a shard of a training with remote_shards:\n");
+        output.append("\tjava -jar YaraParser.jar train_worker -coordinator [host]:[port] -secret [secret-file]\n");
+        output.append("\t** The options and the sentences of the shard are sent by the coordinator\n\n");
 
         output.append("* Evaluate a Conll file:\n");
         output.append("\tjava -jar YaraParser.jar eval -gold [gold-file] -parse [parsed-file]  -punc [punc-file]\n");
@@ -174,6 +255,18 @@ public class Options implements Serializable {
                 options.evaluate = true;
             else if (args[i].equals("parse_tagged"))
                 options.parseTaggedFile = true;
+            else if (args[i].equals("convert_model"))
+                options.convertModel = true;
+            else if (args[i].equals("serve"))
+                options.serve = true;
+            else if (args[i].equals("train_worker"))
+                options.trainWorker = true;
+            else if (args[i].equals("-coordinator"))
+                options.coordinator = args[i + 1];
+            else if (args[i].equals("-bind"))
+                options.bindAddress = args[i + 1];
+            else if (args[i].equals("-secret"))
+                options.secretFile = args[i + 1];
             else if (args[i].equals("-train-file") || args[i].equals("-input"))
                 options.inputFile = args[i + 1];
             else if (args[i].equals("-punc"))
@@ -191,12 +284,22 @@ public class Options implements Serializable {
                 options.useExtendedWithBrownClusterFeatures = true;
             } else if (args[i].startsWith("-out"))
                 options.outputFile = args[i + 1];
+            else if (args[i].equals("-format"))
+                options.modelFormat = args[i + 1];
+            else if (args[i].equals("-quantize"))
+                options.quantizationBits = Integer.parseInt(args[i + 1]);
             else if (args[i].startsWith("-delim"))
                 options.separator = args[i + 1];
             else if (args[i].startsWith("beam:"))
                 options.beamWidth = Integer.parseInt(args[i].substring(args[i].lastIndexOf(":") + 1));
             else if (args[i].startsWith("nt:"))
                 options.numOfThreads = Integer.parseInt(args[i].substring(args[i].lastIndexOf(":") + 1));
+            else if (args[i].startsWith("port:"))
+                options.port = Integer.parseInt(args[i].substring(args[i].lastIndexOf(":") + 1));
+            else if (args[i].startsWith("batch:"))
+                options.maxBatchSize = Integer.parseInt(args[i].substring(args[i].lastIndexOf(":") + 1));
+            else if (args[i].startsWith("batch_wait:"))
+                options.batchWait = Integer.parseInt(args[i].substring(args[i].lastIndexOf(":") + 1));
             else if (args[i].startsWith("pt:"))
                 options.partialTrainingStartingIteration = Integer.parseInt(args[i].substring(args[i].lastIndexOf(":") + 1));
             else if (args[i].equals("unlabeled"))
@@ -213,7 +316,33 @@ public class Options implements Serializable {
                 options.useDynamicOracle = false;
             else if (args[i].equals("random"))
                 options.useRandomOracleSelection = true;
-            else if (args[i].equals("root_first"))
+            else if (args[i].equals("feature_rows"))
+                options.useFeatureRows = true;
+            else if (args[i].equals("dense_rows")) {
+                options.useFeatureRows = true;
+                options.useDenseRows = true;
+            } else if (args[i].startsWith("top_labels:"))
+                options.topLabels = Integer.parseInt(args[i].substring(args[i].lastIndexOf(":") + 1));
+            else if (args[i].equals("longest_first"))
+                options.longestFirst = true;
+            else if (args[i].equals("hogwild"))
+                options.hogwild = true;
+            else if (args[i].startsWith("shards:"))
+                options.shards = Integer.parseInt(args[i].substring(args[i].lastIndexOf(":") + 1));
+            else if (args[i].equals("remote_shards"))
+                options.remoteShards = true;
+            else if (args[i].equals("prune"))
+                options.pruneFeatures = true;
+            else if (args[i].startsWith("prune_count:")) {
+                options.pruneFeatures = true;
+                options.pruneMinCount = Integer.parseInt(args[i].substring(args[i].lastIndexOf(":") + 1));
+            } else if (args[i].startsWith("prune_weight:")) {
+                options.pruneFeatures = true;
+                options.pruneWeightThreshold = Float.parseFloat(args[i].substring(args[i].lastIndexOf(":") + 1));
+            } else if (args[i].startsWith("prune_top:")) {
+                options.pruneFeatures = true;
+                options.pruneTopK = Integer.parseInt(args[i].substring(args[i].lastIndexOf(":") + 1));
+            } else if (args[i].equals("root_first"))
                 options.rootFirst = true;
             else if (args[i].startsWith("iter:"))
                 options.trainingIter = Integer.parseInt(args[i].substring(args[i].lastIndexOf(":") + 1));
@@ -356,7 +485,16 @@ public class Options implements Serializable {
 
             builder.append("training-iterations: " + trainingIter + "\n");
             builder.append("number of threads: " + numOfThreads + "\n");
+            if (hogwild)
+                builder.append("hogwild training: " + hogwild + "\n");
+            if (shards > 0)
+                builder.append("parameter mixing: " + shards + (remoteShards ? " remote shards, "
+                        + (bindAddress.equals("") ? "loopback" : bindAddress) + " port " + port : " shards") + "\n");
             builder.append("partial training starting iteration: " + partialTrainingStartingIteration + "\n");
+            if (modelFormat.equals("binary"))
+                builder.append("model format: binary\n");
+            if (pruneFeatures)
+                builder.append("pruning: min count " + pruneMinCount + ", min absolute weight " + pruneWeightThreshold + ", top " + pruneTopK + " per template\n");
             return builder.toString();
         } else if (parseConllFile) {
             StringBuilder builder = new StringBuilder();
@@ -366,6 +504,9 @@ public class Options implements Serializable {
             builder.append("model file: " + modelFile + "\n");
             builder.append("score file: " + scorePath + "\n");
             builder.append("number of threads: " + numOfThreads + "\n");
+            builder.append("feature rows: " + useFeatureRows + (useDenseRows ? " (dense)" : "") + "\n");
+            builder.append("top labels: " + (topLabels > 0 ? topLabels : "all") + "\n");
+            builder.append("longest first: " + longestFirst + "\n");
             return builder.toString();
         } else if (parseTaggedFile) {
             StringBuilder builder = new StringBuilder();
@@ -385,6 +526,31 @@ public class Options implements Serializable {
             builder.append("model file: " + modelFile + "\n");
             builder.append("labeled: " + labeled + "\n");
             builder.append("number of threads: " + numOfThreads + "\n");
+            builder.append("longest first: " + longestFirst + "\n");
+            return builder.toString();
+        } else if (convertModel) {
+            StringBuilder builder = new StringBuilder();
+            builder.append("convert model" + "\n");
+            builder.append("model file: " + modelFile + "\n");
+            builder.append("output file: " + outputFile + "\n");
+            builder.append("output format: " + modelFormat + "\n");
+            builder.append("weight bits: " + quantizationBits + "\n");
+            if (pruneFeatures)
+                builder.append("pruning: min absolute weight " + pruneWeightThreshold + ", top " + pruneTopK + " per template\n");
+            builder.append("sample file: " + inputFile + "\n");
+            return builder.toString();
+        } else if (serve) {
+            StringBuilder builder = new StringBuilder();
+            builder.append("serve" + "\n");
+            builder.append("model file: " + modelFile + "\n");
+            builder.append("port: " + port + "\n");
+            builder.append("number of threads: " + numOfThreads + "\n");
+            builder.append("batch: at most " + maxBatchSize + " sentences, " + batchWait + " ms wait\n");
+            return builder.toString();
+        } else if (trainWorker) {
+            StringBuilder builder = new StringBuilder();
+            builder.append("train worker" + "\n");
+            builder.append("coordinator: " + coordinator + "\n");
             return builder.toString();
         } else if (evaluate) {
             StringBuilder builder = new StringBuilder();
@@ -420,6 +586,28 @@ public class Options implements Serializable {
         options.separator = separator;
         options.useExtendedFeatures = useExtendedFeatures;
         options.parsePartialConll = parsePartialConll;
+        options.convertModel = convertModel;
+        options.serve = serve;
+        options.port = port;
+        options.maxBatchSize = maxBatchSize;
+        options.batchWait = batchWait;
+        options.modelFormat = modelFormat;
+        options.quantizationBits = quantizationBits;
+        options.useFeatureRows = useFeatureRows;
+        options.useDenseRows = useDenseRows;
+        options.topLabels = topLabels;
+        options.longestFirst = longestFirst;
+        options.hogwild = hogwild;
+        options.shards = shards;
+        options.remoteShards = remoteShards;
+        options.trainWorker = trainWorker;
+        options.coordinator = coordinator;
+        options.bindAddress = bindAddress;
+        options.secretFile = secretFile;
+        options.pruneFeatures = pruneFeatures;
+        options.pruneMinCount = pruneMinCount;
+        options.pruneWeightThreshold = pruneWeightThreshold;
+        options.pruneTopK = pruneTopK;
         options.partialTrainingStartingIteration = partialTrainingStartingIteration;
         return options;
     }
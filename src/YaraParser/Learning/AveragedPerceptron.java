@@ -5,13 +5,27 @@
 
 package YaraParser.Learning;
 
-import YaraParser.Structures.CompactArray;
+import YaraParser.Structures.ConcurrentLongCompactArrayMap;
+import YaraParser.Structures.ConcurrentLongFloatMap;
+import YaraParser.Structures.FeatureRowMap;
 import YaraParser.Structures.InfStruct;
+import YaraParser.Structures.LongCompactArrayMap;
+import YaraParser.Structures.LongFloatMap;
+import YaraParser.TransitionBasedSystem.Features.FeatureBuffer;
+import YaraParser.TransitionBasedSystem.Features.FeatureExtractor;
 import YaraParser.TransitionBasedSystem.Parser.Actions;
 
-import java.util.HashMap;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
 
 public class AveragedPerceptron {
+    /**
+     * Presence bits of the distance templates, which are only used for the arc scores
+     */
+    private static final long DISTANCE_TEMPLATES = 0x3FL << 26;
+
     /**
      * This class tries to implement averaged Perceptron algorithm
      * Collins, Michael. "Discriminative training methods for hidden Markov models: Theory and experiments with Perceptron algorithms."
@@ -26,51 +40,61 @@ public class AveragedPerceptron {
     /**
      * For the weights for all features
      */
-    public HashMap<Object, Float>[] shiftFeatureWeights;
-    public HashMap<Object, Float>[] reduceFeatureWeights;
-    public HashMap<Object, CompactArray>[] leftArcFeatureWeights;
-    public HashMap<Object, CompactArray>[] rightArcFeatureWeights;
+    public LongFloatMap[] shiftFeatureWeights;
+    public LongFloatMap[] reduceFeatureWeights;
+    public LongCompactArrayMap[] leftArcFeatureWeights;
+    public LongCompactArrayMap[] rightArcFeatureWeights;
 
     public int iteration;
     public int dependencySize;
     /**
      * This is the main part of the extension to the original perceptron algorithm which the averaging over all the history
      */
-    public HashMap<Object, Float>[] shiftFeatureAveragedWeights;
-    public HashMap<Object, Float>[] reduceFeatureAveragedWeights;
-    public HashMap<Object, CompactArray>[] leftArcFeatureAveragedWeights;
-    public HashMap<Object, CompactArray>[] rightArcFeatureAveragedWeights;
+    public LongFloatMap[] shiftFeatureAveragedWeights;
+    public LongFloatMap[] reduceFeatureAveragedWeights;
+    public LongCompactArrayMap[] leftArcFeatureAveragedWeights;
+    public LongCompactArrayMap[] rightArcFeatureAveragedWeights;
+
+    /**
+     * The number of updates of each feature (kept as floats in the same tables as the weights);
+     * null unless {@link #countFeatures()} is called
+     */
+    public LongFloatMap[] featureCounts;
 
+    /**
+     * The averaged weights as one row per feature; null unless {@link #useFeatureRows()} is called
+     */
+    private FeatureRowMap[] featureRows;
 
     public AveragedPerceptron(int featSize, int dependencySize) {
-        shiftFeatureWeights = new HashMap[featSize];
-        reduceFeatureWeights = new HashMap[featSize];
-        leftArcFeatureWeights = new HashMap[featSize];
-        rightArcFeatureWeights = new HashMap[featSize];
-
-        shiftFeatureAveragedWeights = new HashMap[featSize];
-        reduceFeatureAveragedWeights = new HashMap[featSize];
-        leftArcFeatureAveragedWeights = new HashMap[featSize];
-        rightArcFeatureAveragedWeights = new HashMap[featSize];
+        shiftFeatureWeights = new LongFloatMap[featSize];
+        reduceFeatureWeights = new LongFloatMap[featSize];
+        leftArcFeatureWeights = new LongCompactArrayMap[featSize];
+        rightArcFeatureWeights = new LongCompactArrayMap[featSize];
+
+        shiftFeatureAveragedWeights = new LongFloatMap[featSize];
+        reduceFeatureAveragedWeights = new LongFloatMap[featSize];
+        leftArcFeatureAveragedWeights = new LongCompactArrayMap[featSize];
+        rightArcFeatureAveragedWeights = new LongCompactArrayMap[featSize];
         for (int i = 0; i < featSize; i++) {
-            shiftFeatureWeights[i] = new HashMap<Object, Float>();
-            reduceFeatureWeights[i] = new HashMap<Object, Float>();
-            leftArcFeatureWeights[i] = new HashMap<Object, CompactArray>();
-            rightArcFeatureWeights[i] = new HashMap<Object, CompactArray>();
+            shiftFeatureWeights[i] = new LongFloatMap();
+            reduceFeatureWeights[i] = new LongFloatMap();
+            leftArcFeatureWeights[i] = new LongCompactArrayMap();
+            rightArcFeatureWeights[i] = new LongCompactArrayMap();
 
 
-            shiftFeatureAveragedWeights[i] = new HashMap<Object, Float>();
-            reduceFeatureAveragedWeights[i] = new HashMap<Object, Float>();
-            leftArcFeatureAveragedWeights[i] = new HashMap<Object, CompactArray>();
-            rightArcFeatureAveragedWeights[i] = new HashMap<Object, CompactArray>();
+            shiftFeatureAveragedWeights[i] = new LongFloatMap();
+            reduceFeatureAveragedWeights[i] = new LongFloatMap();
+            leftArcFeatureAveragedWeights[i] = new LongCompactArrayMap();
+            rightArcFeatureAveragedWeights[i] = new LongCompactArrayMap();
         }
 
         iteration = 1;
         this.dependencySize = dependencySize;
     }
 
-    private AveragedPerceptron(HashMap<Object, Float>[] shiftFeatureAveragedWeights, HashMap<Object, Float>[] reduceFeatureAveragedWeights,
-                               HashMap<Object, CompactArray>[] leftArcFeatureAveragedWeights, HashMap<Object, CompactArray>[] rightArcFeatureAveragedWeights,
+    private AveragedPerceptron(LongFloatMap[] shiftFeatureAveragedWeights, LongFloatMap[] reduceFeatureAveragedWeights,
+                               LongCompactArrayMap[] leftArcFeatureAveragedWeights, LongCompactArrayMap[] rightArcFeatureAveragedWeights,
                                int dependencySize) {
         this.shiftFeatureAveragedWeights = shiftFeatureAveragedWeights;
         this.reduceFeatureAveragedWeights = reduceFeatureAveragedWeights;
@@ -83,136 +107,386 @@ public class AveragedPerceptron {
         this(infStruct.shiftFeatureAveragedWeights, infStruct.reduceFeatureAveragedWeights, infStruct.leftArcFeatureAveragedWeights, infStruct.rightArcFeatureAveragedWeights, infStruct.dependencySize);
     }
 
-    public float changeWeight(Actions actionType, int slotNum, Object featureName, int labelIndex, float change) {
-        if (featureName == null)
+    public float changeWeight(Actions actionType, int slotNum, long feature, int labelIndex, float change) {
+        return changeWeight(actionType, slotNum, feature, labelIndex, change, iteration);
+    }
+
+    /**
+     * @param iteration the iteration stamp of the update for the averaged weights: the number of the training sample
+     *                  (counted over all of the epochs from 1), which is {@link #iteration} unless several samples are
+     *                  trained at once
+     */
+    public float changeWeight(Actions actionType, int slotNum, long feature, int labelIndex, float change, int iteration) {
+        if (feature == FeatureExtractor.NONE)
             return 0;
+        if (featureCounts != null)
+            featureCounts[slotNum].add(feature, 1);
         if (actionType == Actions.Shift) {
-            if (!shiftFeatureWeights[slotNum].containsKey(featureName))
-                shiftFeatureWeights[slotNum].put(featureName, change);
-            else
-                shiftFeatureWeights[slotNum].put(featureName, shiftFeatureWeights[slotNum].get(featureName) + change);
-
-            if (!shiftFeatureAveragedWeights[slotNum].containsKey(featureName))
-                shiftFeatureAveragedWeights[slotNum].put(featureName, iteration * change);
-            else
-                shiftFeatureAveragedWeights[slotNum].put(featureName, shiftFeatureAveragedWeights[slotNum].get(featureName) + iteration * change);
+            shiftFeatureWeights[slotNum].add(feature, change);
+            shiftFeatureAveragedWeights[slotNum].add(feature, iteration * change);
         } else if (actionType == Actions.Reduce) {
-            if (!reduceFeatureWeights[slotNum].containsKey(featureName))
-                reduceFeatureWeights[slotNum].put(featureName, change);
-            else
-                reduceFeatureWeights[slotNum].put(featureName, reduceFeatureWeights[slotNum].get(featureName) + change);
-
-            if (!reduceFeatureAveragedWeights[slotNum].containsKey(featureName))
-                reduceFeatureAveragedWeights[slotNum].put(featureName, iteration * change);
-            else
-                reduceFeatureAveragedWeights[slotNum].put(featureName, reduceFeatureAveragedWeights[slotNum].get(featureName) + iteration * change);
+            reduceFeatureWeights[slotNum].add(feature, change);
+            reduceFeatureAveragedWeights[slotNum].add(feature, iteration * change);
         } else if (actionType == Actions.RightArc) {
-            changeFeatureWeight(rightArcFeatureWeights[slotNum], rightArcFeatureAveragedWeights[slotNum], featureName, labelIndex, change, dependencySize);
+            changeFeatureWeight(rightArcFeatureWeights[slotNum], rightArcFeatureAveragedWeights[slotNum], feature, labelIndex, change, iteration);
         } else if (actionType == Actions.LeftArc) {
-            changeFeatureWeight(leftArcFeatureWeights[slotNum], leftArcFeatureAveragedWeights[slotNum], featureName, labelIndex, change, dependencySize);
+            changeFeatureWeight(leftArcFeatureWeights[slotNum], leftArcFeatureAveragedWeights[slotNum], feature, labelIndex, change, iteration);
         }
 
         return change;
     }
 
-    public void changeFeatureWeight(HashMap<Object, CompactArray> map, HashMap<Object, CompactArray> aMap, Object featureName, int labelIndex, float change, int size) {
-        CompactArray values = map.get(featureName);
-        CompactArray aValues;
-        if (values != null) {
-            values.expandArray(labelIndex, change);
-            aValues = aMap.get(featureName);
-            aValues.expandArray(labelIndex, iteration * change);
-        } else {
-            float[] val = new float[]{change};
-            values = new CompactArray(labelIndex, val);
-            map.put(featureName, values);
-
-            float[] aVal = new float[]{iteration * change};
-            aValues = new CompactArray(labelIndex, aVal);
-            aMap.put(featureName, aValues);
-        }
+    public void changeFeatureWeight(LongCompactArrayMap map, LongCompactArrayMap aMap, long feature, int labelIndex, float change) {
+        changeFeatureWeight(map, aMap, feature, labelIndex, change, iteration);
+    }
+
+    private void changeFeatureWeight(LongCompactArrayMap map, LongCompactArrayMap aMap, long feature, int labelIndex, float change, int iteration) {
+        map.expandArray(feature, labelIndex, change);
+        aMap.expandArray(feature, labelIndex, iteration * change);
     }
 
 
     /**
-     * Adds to the iterations
+     * Starts counting the updates of each feature, for pruning the rare features when the model is saved
      */
-    public void incrementIteration() {
-        iteration++;
+    public void countFeatures() {
+        featureCounts = new LongFloatMap[shiftFeatureWeights.length];
+        for (int i = 0; i < featureCounts.length; i++)
+            featureCounts[i] = new LongFloatMap();
     }
 
-    public float shiftScore(final Object[] features, boolean decode) {
-        float score = 0.0f;
+    /**
+     * Lets several threads score with and update the weights at once (Hogwild training): the weight tables (and the
+     * update counts) are replaced by concurrent copies, which only lock out the other threads to add new features
+     */
+    public void concurrentUpdates() {
+        shiftFeatureWeights = concurrentCopy(shiftFeatureWeights);
+        reduceFeatureWeights = concurrentCopy(reduceFeatureWeights);
+        leftArcFeatureWeights = concurrentCopy(leftArcFeatureWeights);
+        rightArcFeatureWeights = concurrentCopy(rightArcFeatureWeights);
+        shiftFeatureAveragedWeights = concurrentCopy(shiftFeatureAveragedWeights);
+        reduceFeatureAveragedWeights = concurrentCopy(reduceFeatureAveragedWeights);
+        leftArcFeatureAveragedWeights = concurrentCopy(leftArcFeatureAveragedWeights);
+        rightArcFeatureAveragedWeights = concurrentCopy(rightArcFeatureAveragedWeights);
+        if (featureCounts != null)
+            featureCounts = concurrentCopy(featureCounts);
+    }
+
+    private static LongFloatMap[] concurrentCopy(LongFloatMap[] maps) {
+        LongFloatMap[] copy = new LongFloatMap[maps.length];
+        for (int i = 0; i < maps.length; i++)
+            copy[i] = new ConcurrentLongFloatMap(maps[i]);
+        return copy;
+    }
 
-        HashMap<Object, Float>[] map = decode ? shiftFeatureAveragedWeights : shiftFeatureWeights;
+    private static LongCompactArrayMap[] concurrentCopy(LongCompactArrayMap[] maps) {
+        LongCompactArrayMap[] copy = new LongCompactArrayMap[maps.length];
+        for (int i = 0; i < maps.length; i++)
+            copy[i] = new ConcurrentLongCompactArrayMap(maps[i]);
+        return copy;
+    }
 
-        for (int i = 0; i < features.length; i++) {
-            if (features[i] == null || (i >= 26 && i < 32))
-                continue;
-            Float values = map[i].get(features[i]);
-            if (values != null) {
-                score += values;
-            }
-        }
+    /**
+     * Writes the iteration, the weights and the averaging sums (not the update counts), e.g. for sending them to
+     * another process; the stream should be reset before the same tables are written again
+     */
+    public void writeWeights(ObjectOutputStream writer) throws IOException {
+        writer.writeInt(iteration);
+        writer.writeObject(shiftFeatureWeights);
+        writer.writeObject(reduceFeatureWeights);
+        writer.writeObject(leftArcFeatureWeights);
+        writer.writeObject(rightArcFeatureWeights);
+        writer.writeObject(shiftFeatureAveragedWeights);
+        writer.writeObject(reduceFeatureAveragedWeights);
+        writer.writeObject(leftArcFeatureAveragedWeights);
+        writer.writeObject(rightArcFeatureAveragedWeights);
+    }
 
-        return score;
+    /**
+     * Replaces the iteration, the weights and the averaging sums by the ones written by {@link #writeWeights}
+     */
+    public void readWeights(ObjectInputStream reader) throws IOException, ClassNotFoundException {
+        iteration = reader.readInt();
+        shiftFeatureWeights = (LongFloatMap[]) reader.readObject();
+        reduceFeatureWeights = (LongFloatMap[]) reader.readObject();
+        leftArcFeatureWeights = (LongCompactArrayMap[]) reader.readObject();
+        rightArcFeatureWeights = (LongCompactArrayMap[]) reader.readObject();
+        shiftFeatureAveragedWeights = (LongFloatMap[]) reader.readObject();
+        reduceFeatureAveragedWeights = (LongFloatMap[]) reader.readObject();
+        leftArcFeatureAveragedWeights = (LongCompactArrayMap[]) reader.readObject();
+        rightArcFeatureAveragedWeights = (LongCompactArrayMap[]) reader.readObject();
     }
 
-    public float reduceScore(final Object[] features, boolean decode) {
-        float score = 0.0f;
+    /**
+     * Empties the weights and the averaging sums (the iteration and the update counts are kept)
+     */
+    public void clearWeights() {
+        for (int i = 0; i < shiftFeatureWeights.length; i++) {
+            shiftFeatureWeights[i] = new LongFloatMap();
+            reduceFeatureWeights[i] = new LongFloatMap();
+            leftArcFeatureWeights[i] = new LongCompactArrayMap();
+            rightArcFeatureWeights[i] = new LongCompactArrayMap();
+            shiftFeatureAveragedWeights[i] = new LongFloatMap();
+            reduceFeatureAveragedWeights[i] = new LongFloatMap();
+            leftArcFeatureAveragedWeights[i] = new LongCompactArrayMap();
+            rightArcFeatureAveragedWeights[i] = new LongCompactArrayMap();
+        }
+    }
 
-        HashMap<Object, Float>[] map = decode ? reduceFeatureAveragedWeights : reduceFeatureWeights;
+    /**
+     * Adds the weights and the averaging sums of the other perceptron, times the scale, to these ones; e.g. the
+     * mixture of iterative parameter mixing adds the ones of each shard with the scale 1/#shards.
+     * Each label vector keeps all of the labels of the other one (also the zero ones), so that a weight vector and its
+     * averaging sums keep the same labels.
+     */
+    public void addWeights(AveragedPerceptron other, float scale) {
+        for (int i = 0; i < shiftFeatureWeights.length; i++) {
+            addWeights(shiftFeatureWeights[i], other.shiftFeatureWeights[i], scale);
+            addWeights(reduceFeatureWeights[i], other.reduceFeatureWeights[i], scale);
+            addWeights(leftArcFeatureWeights[i], other.leftArcFeatureWeights[i], scale);
+            addWeights(rightArcFeatureWeights[i], other.rightArcFeatureWeights[i], scale);
+            addWeights(shiftFeatureAveragedWeights[i], other.shiftFeatureAveragedWeights[i], scale);
+            addWeights(reduceFeatureAveragedWeights[i], other.reduceFeatureAveragedWeights[i], scale);
+            addWeights(leftArcFeatureAveragedWeights[i], other.leftArcFeatureAveragedWeights[i], scale);
+            addWeights(rightArcFeatureAveragedWeights[i], other.rightArcFeatureAveragedWeights[i], scale);
+        }
+    }
+
+    private static void addWeights(LongFloatMap map, LongFloatMap other, float scale) {
+        for (long feat : other.keys())
+            map.add(feat, scale * other.get(feat));
+    }
 
-        for (int i = 0; i < features.length; i++) {
-            if (features[i] == null || (i >= 26 && i < 32))
+    private static void addWeights(LongCompactArrayMap map, LongCompactArrayMap other, float scale) {
+        for (long feat : other.keys()) {
+            int slot = other.slot(feat);
+            int offset = other.offset(slot);
+            float[] values = other.array(slot);
+            if (map.slot(feat) < 0) {
+                float[] scaled = new float[values.length];
+                for (int j = 0; j < values.length; j++)
+                    scaled[j] = scale * values[j];
+                map.put(feat, offset, scaled);
                 continue;
-            Float values = map[i].get(features[i]);
-            if (values != null) {
-                score += values;
             }
+            // grows the vector (once at each side) to the labels of the other one
+            map.expandArray(feat, offset, 0f);
+            map.expandArray(feat, offset + values.length - 1, 0f);
+            int mapSlot = map.slot(feat);
+            int start = offset - map.offset(mapSlot);
+            float[] array = map.array(mapSlot);
+            for (int j = 0; j < values.length; j++)
+                array[start + j] += scale * values[j];
         }
+    }
 
-        return score;
+    /**
+     * Adds to the iterations
+     */
+    public void incrementIteration() {
+        iteration++;
     }
 
-    public float[] leftArcScores(final Object[] features, boolean decode) {
-        float scores[] = new float[dependencySize];
+    /**
+     * Builds one weight row per feature from the averaged weights, so that decoding looks each feature up once
+     * for all of the actions. The rows are on the heap: a memory-mapped model is copied.
+     */
+    public void useFeatureRows() {
+        useFeatureRows(false);
+    }
 
-        HashMap<Object, CompactArray>[] map = decode ? leftArcFeatureAveragedWeights : leftArcFeatureWeights;
+    /**
+     * @param dense keeps the label weights of each row at the full width, so that both arc directions are summed
+     *              in one fixed-length loop (see {@link FeatureRowMap})
+     */
+    public void useFeatureRows(boolean dense) {
+        featureRows = new FeatureRowMap[shiftFeatureAveragedWeights.length];
+        for (int i = 0; i < featureRows.length; i++)
+            featureRows[i] = new FeatureRowMap(shiftFeatureAveragedWeights[i], reduceFeatureAveragedWeights[i],
+                    leftArcFeatureAveragedWeights[i], rightArcFeatureAveragedWeights[i], dense ? dependencySize : 0);
+    }
 
-        for (int i = 0; i < features.length; i++) {
-            if (features[i] == null)
-                continue;
-            CompactArray values = map[i].get(features[i]);
-            if (values != null) {
-                int offset = values.getOffset();
-                float[] weightVector = values.getArray();
+    /**
+     * Scores the requested actions into the buffer: {@link FeatureBuffer#shiftScore}, {@link FeatureBuffer#reduceScore}
+     * and the label score rows. The scores of the other actions are left as they are.
+     */
+    public void scoreActions(final FeatureBuffer features, boolean decode, boolean shift, boolean reduce, boolean rightArc, boolean leftArc) {
+        if (decode && featureRows != null) {
+            if (featureRows[0].denseWidth() > 0)
+                denseRowScores(features, shift, reduce, rightArc, leftArc);
+            else
+                rowScores(features, shift, reduce, rightArc, leftArc);
+            return;
+        }
+        if (shift)
+            features.shiftScore = shiftScore(features, decode);
+        if (reduce)
+            features.reduceScore = reduceScore(features, decode);
+        if (rightArc)
+            rightArcScores(features, decode);
+        if (leftArc)
+            leftArcScores(features, decode);
+    }
 
-                for (int d = offset; d < offset + weightVector.length; d++) {
-                    scores[d] += weightVector[d - offset];
+    /**
+     * The same sums as the separate scorers (in the same order), with one probe per template
+     */
+    private void rowScores(final FeatureBuffer buffer, boolean shift, boolean reduce, boolean rightArc, boolean leftArc) {
+        long[] features = buffer.features;
+        long[] presence = buffer.presence;
+        float[] leftArcScores = buffer.leftArcScores;
+        float[] rightArcScores = buffer.rightArcScores;
+        float shiftScore = 0.0f;
+        float reduceScore = 0.0f;
+        if (leftArc)
+            Arrays.fill(leftArcScores, 0f);
+        if (rightArc)
+            Arrays.fill(rightArcScores, 0f);
+
+        for (int w = 0; w < presence.length; w++) {
+            long bits = presence[w];
+            while (bits != 0) {
+                int i = (w << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                FeatureRowMap map = featureRows[i];
+                int row = map.row(features[i]);
+                if (row < 0)
+                    continue;
+                int[] rows = map.rows();
+                float[] pool = map.pool();
+                int start = rows[row];
+
+                if (i < 26 || i >= 32) {
+                    shiftScore += pool[start];
+                    reduceScore += pool[start + 1];
+                }
+                start += 2;
+                int length = rows[row + 2];
+                if (leftArc) {
+                    int offset = rows[row + 1];
+                    for (int j = 0; j < length; j++)
+                        leftArcScores[offset + j] += pool[start + j];
+                }
+                start += length;
+                if (rightArc) {
+                    int offset = rows[row + 3];
+                    length = rows[row + 4];
+                    for (int j = 0; j < length; j++)
+                        rightArcScores[offset + j] += pool[start + j];
                 }
             }
         }
+        if (shift)
+            buffer.shiftScore = shiftScore;
+        if (reduce)
+            buffer.reduceScore = reduceScore;
+    }
 
-        return scores;
+    /**
+     * The same sums as {@link #rowScores} over dense rows: the label scores of both arc directions are added in one
+     * loop without offsets, whose bounds are the same for every feature
+     */
+    private void denseRowScores(final FeatureBuffer buffer, boolean shift, boolean reduce, boolean rightArc, boolean leftArc) {
+        long[] features = buffer.features;
+        long[] presence = buffer.presence;
+        float[] arcScores = buffer.arcScores;
+        int width = arcScores.length;
+        boolean arcs = leftArc || rightArc;
+        float shiftScore = 0.0f;
+        float reduceScore = 0.0f;
+        if (arcs)
+            Arrays.fill(arcScores, 0f);
+
+        for (int w = 0; w < presence.length; w++) {
+            long bits = presence[w];
+            while (bits != 0) {
+                int i = (w << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                FeatureRowMap map = featureRows[i];
+                int row = map.row(features[i]);
+                if (row < 0)
+                    continue;
+                float[] pool = map.pool();
+                int start = map.rows()[row];
+
+                if (i < 26 || i >= 32) {
+                    shiftScore += pool[start];
+                    reduceScore += pool[start + 1];
+                }
+                if (arcs) {
+                    start += 2;
+                    for (int j = 0; j < width; j++)
+                        arcScores[j] += pool[start + j];
+                }
+            }
+        }
+        if (shift)
+            buffer.shiftScore = shiftScore;
+        if (reduce)
+            buffer.reduceScore = reduceScore;
+        if (leftArc)
+            System.arraycopy(arcScores, 0, buffer.leftArcScores, 0, dependencySize);
+        if (rightArc)
+            System.arraycopy(arcScores, dependencySize, buffer.rightArcScores, 0, dependencySize);
     }
 
-    public float[] rightArcScores(final Object[] features, boolean decode) {
-        float scores[] = new float[dependencySize];
+    public float shiftScore(final FeatureBuffer features, boolean decode) {
+        return actionScore(features, decode ? shiftFeatureAveragedWeights : shiftFeatureWeights);
+    }
 
-        HashMap<Object, CompactArray>[] map = decode ? rightArcFeatureAveragedWeights : rightArcFeatureWeights;
+    public float reduceScore(final FeatureBuffer features, boolean decode) {
+        return actionScore(features, decode ? reduceFeatureAveragedWeights : reduceFeatureWeights);
+    }
 
-        for (int i = 0; i < features.length; i++) {
-            if (features[i] == null)
-                continue;
-            CompactArray values = map[i].get(features[i]);
-            if (values != null) {
-                int offset = values.getOffset();
-                float[] weightVector = values.getArray();
+    /**
+     * Only the templates that fire are visited: the bits of the presence mask are walked in increasing order,
+     * so the sum is accumulated in the same order as a plain loop over the templates.
+     * The distance templates (26 to 31) are not used for shift and reduce.
+     */
+    private float actionScore(final FeatureBuffer buffer, LongFloatMap[] map) {
+        float score = 0.0f;
+        long[] features = buffer.features;
+        long[] presence = buffer.presence;
+
+        for (int w = 0; w < presence.length; w++) {
+            long bits = presence[w];
+            if (w == 0)
+                bits &= ~DISTANCE_TEMPLATES;
+            while (bits != 0) {
+                int i = (w << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                score += map[i].get(features[i]);
+            }
+        }
 
-                for (int d = offset; d < offset + weightVector.length; d++) {
-                    scores[d] += weightVector[d - offset];
-                }
+        return score;
+    }
+
+    /**
+     * @return the label scores, written into {@link FeatureBuffer#leftArcScores}
+     */
+    public float[] leftArcScores(final FeatureBuffer features, boolean decode) {
+        return arcScores(features, decode ? leftArcFeatureAveragedWeights : leftArcFeatureWeights, features.leftArcScores);
+    }
+
+    /**
+     * @return the label scores, written into {@link FeatureBuffer#rightArcScores}
+     */
+    public float[] rightArcScores(final FeatureBuffer features, boolean decode) {
+        return arcScores(features, decode ? rightArcFeatureAveragedWeights : rightArcFeatureWeights, features.rightArcScores);
+    }
+
+    private float[] arcScores(final FeatureBuffer buffer, LongCompactArrayMap[] map, float[] scores) {
+        Arrays.fill(scores, 0f);
+        long[] features = buffer.features;
+        long[] presence = buffer.presence;
+
+        for (int w = 0; w < presence.length; w++) {
+            long bits = presence[w];
+            while (bits != 0) {
+                int i = (w << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                map[i].addTo(features[i], scores);
             }
         }
 
@@ -224,45 +498,33 @@ public class AveragedPerceptron {
     }
 
     public int raSize() {
-        int size = 0;
-        for (int i = 0; i < leftArcFeatureAveragedWeights.length; i++) {
-            for (Object feat : rightArcFeatureAveragedWeights[i].keySet()) {
-                size += rightArcFeatureAveragedWeights[i].get(feat).length();
-            }
-        }
-        return size;
+        return size(rightArcFeatureAveragedWeights, false);
     }
 
     public int effectiveRaSize() {
-        int size = 0;
-        for (int i = 0; i < leftArcFeatureAveragedWeights.length; i++) {
-            for (Object feat : rightArcFeatureAveragedWeights[i].keySet()) {
-                for (float f : rightArcFeatureAveragedWeights[i].get(feat).getArray())
-                    if (f != 0f)
-                        size++;
-            }
-        }
-        return size;
+        return size(rightArcFeatureAveragedWeights, true);
     }
 
 
     public int laSize() {
-        int size = 0;
-        for (int i = 0; i < leftArcFeatureAveragedWeights.length; i++) {
-            for (Object feat : leftArcFeatureAveragedWeights[i].keySet()) {
-                size += leftArcFeatureAveragedWeights[i].get(feat).length();
-            }
-        }
-        return size;
+        return size(leftArcFeatureAveragedWeights, false);
     }
 
     public int effectiveLaSize() {
+        return size(leftArcFeatureAveragedWeights, true);
+    }
+
+    private int size(LongCompactArrayMap[] map, boolean nonZero) {
         int size = 0;
-        for (int i = 0; i < leftArcFeatureAveragedWeights.length; i++) {
-            for (Object feat : leftArcFeatureAveragedWeights[i].keySet()) {
-                for (float f : leftArcFeatureAveragedWeights[i].get(feat).getArray())
-                    if (f != 0f)
-                        size++;
+        for (int i = 0; i < map.length; i++) {
+            for (long feat : map[i].keys()) {
+                float[] values = map[i].array(map[i].slot(feat));
+                if (!nonZero)
+                    size += values.length;
+                else
+                    for (float f : values)
+                        if (f != 0f)
+                            size++;
             }
         }
         return size;
@@ -9,9 +9,12 @@ import YaraParser.Learning.AveragedPerceptron;
 import YaraParser.Structures.IndexMaps;
 import YaraParser.Structures.InfStruct;
 import YaraParser.TransitionBasedSystem.Configuration.Configuration;
+import YaraParser.TransitionBasedSystem.Configuration.ParseResult;
+import YaraParser.TransitionBasedSystem.Parser.AsyncParser;
 import YaraParser.TransitionBasedSystem.Parser.KBeamArcEagerParser;
 
 import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
 
 public class API_UsageExample {
     public static void main(String[] args) throws Exception {
@@ -43,6 +46,12 @@ public class API_UsageExample {
                 System.out.println(words[i] + "\t" + tags[i] + "\t" + head + "\t" + maps.revWords[bestParse.state.getDependency(i + 1)]);
             }
         }
+
+        // the same parse without waiting for it: at most 1000 parses may be in flight
+        AsyncParser asyncParser = new AsyncParser(parser, infStruct.options.rootFirst, infStruct.options.beamWidth, infStruct.options.lowercase, 1000);
+        CompletableFuture<ParseResult> asyncParse = asyncParser.parse(words, tags);
+        System.out.println("asynchronous parse score: " + asyncParse.get().score());
+
         parser.shutDownLiveThreads();
         System.exit(0);
     }
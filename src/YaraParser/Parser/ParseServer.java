@@ -0,0 +1,438 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package YaraParser.Parser;
+
+import YaraParser.Accessories.CoNLLReader;
+import YaraParser.Accessories.Options;
+import YaraParser.Structures.IndexMaps;
+import YaraParser.Structures.Sentence;
+import YaraParser.TransitionBasedSystem.Configuration.GoldConfiguration;
+import YaraParser.TransitionBasedSystem.Configuration.ParseResult;
+import YaraParser.TransitionBasedSystem.Parser.KBeamArcEagerParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A long-lived parser behind an HTTP server on localhost, so that the model is loaded once for all of the requests.
+ * <p/>
+ * POST /parse?input=[tagged|conll]&output=[conll|json] parses the sentences of the body: tagged sentences, one in
+ * each line, or CoNLL'2006 sentences as parse_conll reads them. GET /stats gives the counts, the throughput and the
+ * latency percentiles of the requests as JSON.
+ * <p/>
+ * The sentences of the requests are put in one queue; a dispatcher thread takes at most maxBatchSize of them (waiting
+ * at most batchWait ms for more after the first one) and parses them together on the workers of the parser, while the
+ * next batch gathers. So concurrent requests share the workers, and a batch of a few long sentences still uses all of
+ * them because their beams are split on the idle ones.
+ */
+
+public class ParseServer {
+    /**
+     * The threads that read the requests and write the responses; they wait for their parses, not parse
+     */
+    public static final int HANDLER_THREADS = 32;
+
+    /**
+     * The latency percentiles are of this many last requests
+     */
+    public static final int LATENCY_WINDOW = 10000;
+
+    private final KBeamArcEagerParser parser;
+    private final IndexMaps maps;
+    private final boolean rootFirst;
+    private final int beamWidth;
+    private final boolean lowercase;
+    private final String separator;
+    private final int port;
+    private final int maxBatchSize;
+    private final long batchWaitNanos;
+
+    private final LinkedBlockingQueue<Job> queue = new LinkedBlockingQueue<Job>();
+    private final Statistics statistics = new Statistics();
+    private HttpServer server;
+    private ExecutorService handlers;
+    private Thread dispatcher;
+    private volatile boolean running;
+
+    /**
+     * The sentences of one request and their parses
+     */
+    private static class ParseRequest {
+        final ArrayList<GoldConfiguration> sentences;
+        final ArrayList<ArrayList<String>> lines;
+        final ParseResult[] parses;
+        final CountDownLatch done;
+        volatile Throwable error;
+
+        ParseRequest(ArrayList<GoldConfiguration> sentences, ArrayList<ArrayList<String>> lines) {
+            this.sentences = sentences;
+            this.lines = lines;
+            parses = new ParseResult[sentences.size()];
+            done = new CountDownLatch(sentences.size());
+        }
+    }
+
+    /**
+     * One sentence of a request in the queue
+     */
+    private static class Job {
+        final ParseRequest request;
+        final int index;
+
+        Job(ParseRequest request, int index) {
+            this.request = request;
+            this.index = index;
+        }
+    }
+
+    /**
+     * @param rootFirst the root position, beam width and lower-casing of the model
+     * @param options   the port, batch size and wait and tag delimiter of the server
+     */
+    public ParseServer(KBeamArcEagerParser parser, IndexMaps maps, boolean rootFirst, int beamWidth, boolean lowercase, Options options) {
+        this.parser = parser;
+        this.maps = maps;
+        this.rootFirst = rootFirst;
+        this.beamWidth = beamWidth;
+        this.lowercase = lowercase;
+        separator = options.separator;
+        port = options.port;
+        maxBatchSize = Math.max(1, options.maxBatchSize);
+        batchWaitNanos = TimeUnit.MILLISECONDS.toNanos(options.batchWait);
+    }
+
+    public void start() throws Exception {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/parse", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) {
+                handleParse(exchange);
+            }
+        });
+        server.createContext("/stats", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) {
+                handleStats(exchange);
+            }
+        });
+        handlers = Executors.newFixedThreadPool(HANDLER_THREADS);
+        server.setExecutor(handlers);
+
+        running = true;
+        dispatcher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                dispatch();
+            }
+        }, "parse-dispatcher");
+        dispatcher.start();
+        server.start();
+        System.err.println("serving on http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/parse");
+    }
+
+    /**
+     * Waits until the server is stopped
+     */
+    public void join() throws InterruptedException {
+        dispatcher.join();
+    }
+
+    /**
+     * Stops the server; the requests that are waiting get an error
+     */
+    public void stop() {
+        running = false;
+        server.stop(0);
+        handlers.shutdownNow();
+        dispatcher.interrupt();
+    }
+
+    /**
+     * @return the port of the server (the given one, or the one that was chosen for port 0)
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void dispatch() {
+        ArrayList<Job> batch = new ArrayList<Job>(maxBatchSize);
+        ArrayList<Sentence> sentences = new ArrayList<Sentence>(maxBatchSize);
+        while (running) {
+            try {
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + batchWaitNanos;
+                while (batch.size() < maxBatchSize) {
+                    long wait = deadline - System.nanoTime();
+                    Job job = wait > 0 ? queue.poll(wait, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (job == null)
+                        break;
+                    batch.add(job);
+                }
+            } catch (InterruptedException e) {
+                break;
+            }
+
+            for (Job job : batch)
+                sentences.add(job.request.sentences.get(job.index).getSentence());
+            try {
+                ParseResult[] parses = parser.parseBatch(sentences, rootFirst, beamWidth);
+                for (int i = 0; i < parses.length; i++)
+                    batch.get(i).request.parses[batch.get(i).index] = parses[i];
+            } catch (Throwable e) {
+                for (Job job : batch)
+                    job.request.error = e;
+            }
+            statistics.addBatch(batch.size());
+            for (Job job : batch)
+                job.request.done.countDown();
+            batch.clear();
+            sentences.clear();
+        }
+
+        queue.drainTo(batch);
+        for (Job job : batch) {
+            job.request.error = new InterruptedException("the server is stopped");
+            job.request.done.countDown();
+        }
+    }
+
+    private void handleParse(HttpExchange exchange) {
+        long start = System.nanoTime();
+        try {
+            if (!exchange.getRequestMethod().equals("POST")) {
+                respond(exchange, 405, "text/plain", "use POST\n");
+                return;
+            }
+            HashMap<String, String> parameters = parameters(exchange.getRequestURI().getRawQuery());
+            String input = parameters.containsKey("input") ? parameters.get("input") : "tagged";
+            String output = parameters.containsKey("output") ? parameters.get("output") : "conll";
+            String delim = parameters.containsKey("delim") ? parameters.get("delim") : separator;
+            if (!(input.equals("tagged") || input.equals("conll")) || !(output.equals("conll") || output.equals("json"))) {
+                respond(exchange, 400, "text/plain", "input should be tagged or conll, and output conll or json\n");
+                return;
+            }
+
+            String body = read(exchange.getRequestBody());
+            ArrayList<GoldConfiguration> sentences = new ArrayList<GoldConfiguration>();
+            ArrayList<ArrayList<String>> lines = new ArrayList<ArrayList<String>>();
+            try {
+                CoNLLReader reader = new CoNLLReader(new BufferedReader(new StringReader(input.equals("tagged") ? taggedToConll(body, delim) : body)));
+                while (true) {
+                    ArrayList<String> sentenceLines = new ArrayList<String>();
+                    GoldConfiguration sentence = reader.readSentence(true, rootFirst, lowercase, maps, sentenceLines);
+                    if (sentence == null)
+                        break;
+                    sentences.add(sentence);
+                    lines.add(sentenceLines);
+                }
+            } catch (Exception e) {
+                statistics.addError();
+                respond(exchange, 400, "text/plain", "wrong " + input + " input: " + e.getMessage() + "\n");
+                return;
+            }
+
+            ParseRequest request = new ParseRequest(sentences, lines);
+            for (int i = 0; i < sentences.size(); i++)
+                queue.add(new Job(request, i));
+            request.done.await();
+            if (request.error != null) {
+                statistics.addError();
+                respond(exchange, 500, "text/plain", "parse error: " + request.error + "\n");
+                return;
+            }
+
+            respond(exchange, 200, output.equals("json") ? "application/json" : "text/plain",
+                    output.equals("json") ? jsonParses(request) : conllParses(request));
+            statistics.addRequest(sentences.size(), System.nanoTime() - start);
+        } catch (Exception e) {
+            statistics.addError();
+            exchange.close();
+        }
+    }
+
+    private void handleStats(HttpExchange exchange) {
+        try {
+            respond(exchange, 200, "application/json", statistics.toJson());
+        } catch (Exception e) {
+            exchange.close();
+        }
+    }
+
+    /**
+     * @return the CoNLL lines of the tagged sentences, with no heads (-1) and labels
+     */
+    private static String taggedToConll(String body, String delim) {
+        StringBuilder conll = new StringBuilder();
+        for (String line : body.split("\n")) {
+            int index = 0;
+            for (String token : line.trim().split(" ")) {
+                if (token.length() == 0)
+                    continue;
+                int tagIndex = token.lastIndexOf(delim);
+                if (tagIndex < 0)
+                    throw new IllegalArgumentException("no tag in " + token);
+                conll.append(++index).append("\t").append(token.substring(0, tagIndex)).append("\t_\t")
+                        .append(token.substring(tagIndex + delim.length())).append("\t_\t_\t-1\t_\t_\t_\n");
+            }
+            if (index > 0)
+                conll.append("\n");
+        }
+        return conll.toString();
+    }
+
+    private String conllParses(ParseRequest request) {
+        StringBuilder output = new StringBuilder();
+        for (int i = 0; i < request.parses.length; i++)
+            output.append(parser.conllParse(request.parses[i], request.lines.get(i)));
+        return output.toString();
+    }
+
+    /**
+     * @return {"sentences":[[{"id":1,"word":..,"tag":..,"head":..,"label":..},..],..]}
+     */
+    private String jsonParses(ParseRequest request) {
+        StringBuilder output = new StringBuilder("{\"sentences\":[");
+        for (int i = 0; i < request.parses.length; i++) {
+            if (i > 0)
+                output.append(",");
+            output.append("[");
+            String[] conll = parser.conllParse(request.parses[i], request.lines.get(i)).split("\n");
+            for (int j = 0; j < request.lines.get(i).size(); j++) {
+                String[] columns = conll[j].split("\t");
+                if (j > 0)
+                    output.append(",");
+                output.append("{\"id\":").append(columns[0]).append(",\"word\":").append(jsonString(columns[1]))
+                        .append(",\"tag\":").append(jsonString(columns[3])).append(",\"head\":").append(columns[6])
+                        .append(",\"label\":").append(jsonString(columns[7])).append("}");
+            }
+            output.append("]");
+        }
+        output.append("]}\n");
+        return output.toString();
+    }
+
+    private static String jsonString(String value) {
+        StringBuilder output = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\')
+                output.append('\\').append(c);
+            else if (c < 0x20)
+                output.append(String.format("\\u%04x", (int) c));
+            else
+                output.append(c);
+        }
+        return output.append("\"").toString();
+    }
+
+    private static HashMap<String, String> parameters(String query) throws Exception {
+        HashMap<String, String> parameters = new HashMap<String, String>();
+        if (query == null)
+            return parameters;
+        for (String parameter : query.split("&")) {
+            int index = parameter.indexOf('=');
+            if (index > 0)
+                parameters.put(URLDecoder.decode(parameter.substring(0, index), "UTF-8"), URLDecoder.decode(parameter.substring(index + 1), "UTF-8"));
+        }
+        return parameters;
+    }
+
+    /**
+     * Reads the body in the default charset, as the files are read, so that the words are found in the model
+     */
+    private static String read(InputStream stream) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int length;
+        while ((length = stream.read(buffer)) > 0)
+            bytes.write(buffer, 0, length);
+        return bytes.toString(Charset.defaultCharset().name());
+    }
+
+    private static void respond(HttpExchange exchange, int status, String contentType, String body) throws Exception {
+        byte[] bytes = body.getBytes(Charset.defaultCharset());
+        exchange.getResponseHeaders().set("Content-Type", contentType + "; charset=" + Charset.defaultCharset().name());
+        exchange.sendResponseHeaders(status, bytes.length);
+        OutputStream stream = exchange.getResponseBody();
+        stream.write(bytes);
+        stream.close();
+    }
+
+    /**
+     * The counts of the server and the latencies of its last {@link #LATENCY_WINDOW} requests
+     */
+    private static class Statistics {
+        final long startTime = System.nanoTime();
+        final long[] latencies = new long[LATENCY_WINDOW];
+        long requests;
+        long sentences;
+        long errors;
+        long batches;
+        long batchedSentences;
+
+        synchronized void addRequest(int sentenceCount, long latency) {
+            latencies[(int) (requests % LATENCY_WINDOW)] = latency;
+            requests++;
+            sentences += sentenceCount;
+        }
+
+        synchronized void addError() {
+            errors++;
+        }
+
+        synchronized void addBatch(int size) {
+            batches++;
+            batchedSentences += size;
+        }
+
+        synchronized String toJson() {
+            long[] window = Arrays.copyOf(latencies, (int) Math.min(requests, LATENCY_WINDOW));
+            Arrays.sort(window);
+            double seconds = (System.nanoTime() - startTime) / 1e9;
+            DecimalFormat format = new DecimalFormat("0.000", new DecimalFormatSymbols(Locale.US));
+            return "{\"requests\":" + requests + ",\"sentences\":" + sentences + ",\"errors\":" + errors
+                    + ",\"batches\":" + batches + ",\"mean_batch_size\":" + format.format(batches == 0 ? 0 : (double) batchedSentences / batches)
+                    + ",\"uptime_seconds\":" + format.format(seconds)
+                    + ",\"requests_per_second\":" + format.format(requests / seconds)
+                    + ",\"sentences_per_second\":" + format.format(sentences / seconds)
+                    + ",\"latency_ms\":{\"p50\":" + format.format(percentile(window, 0.5))
+                    + ",\"p90\":" + format.format(percentile(window, 0.9))
+                    + ",\"p99\":" + format.format(percentile(window, 0.99))
+                    + ",\"max\":" + format.format(percentile(window, 1)) + "}}\n";
+        }
+
+        /**
+         * @return the latency in ms below which there are the given fraction of the sorted latencies
+         */
+        static double percentile(long[] sorted, double fraction) {
+            if (sorted.length == 0)
+                return 0;
+            int index = (int) Math.ceil(fraction * sorted.length) - 1;
+            return sorted[Math.max(0, index)] / 1e6;
+        }
+    }
+}
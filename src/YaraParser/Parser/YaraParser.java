@@ -7,6 +7,7 @@ package YaraParser.Parser;
 
 import YaraParser.Accessories.CoNLLReader;
 import YaraParser.Accessories.Evaluator;
+import YaraParser.Accessories.ModelConverter;
 import YaraParser.Accessories.Options;
 import YaraParser.Learning.AveragedPerceptron;
 import YaraParser.Structures.IndexMaps;
@@ -14,6 +15,7 @@ import YaraParser.Structures.InfStruct;
 import YaraParser.TransitionBasedSystem.Configuration.GoldConfiguration;
 import YaraParser.TransitionBasedSystem.Parser.KBeamArcEagerParser;
 import YaraParser.TransitionBasedSystem.Trainer.ArcEagerBeamTrainer;
+import YaraParser.TransitionBasedSystem.Trainer.ParameterMixingTrainer;
 
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -25,13 +27,23 @@ public class YaraParser {
         if (options.showHelp) {
             Options.showHelp();
         } else {
-            System.out.println(options);
+            // the parse can be written to the standard output
+            if (options.outputFile.equals(KBeamArcEagerParser.STANDARD_STREAM))
+                System.err.println(options);
+            else
+                System.out.println(options);
             if (options.train) {
                 train(options);
             } else if (options.parseTaggedFile || options.parseConllFile || options.parsePartialConll) {
                 parse(options);
             } else if (options.evaluate) {
                 evaluate(options);
+            } else if (options.convertModel) {
+                convertModel(options);
+            } else if (options.serve) {
+                serve(options);
+            } else if (options.trainWorker) {
+                trainWorker(options);
             } else {
                 Options.showHelp();
             }
@@ -47,6 +59,16 @@ public class YaraParser {
         }
     }
 
+    private static void convertModel(Options options) throws Exception {
+        if (options.modelFile.equals("") || options.outputFile.equals(""))
+            Options.showHelp();
+        else {
+            boolean verified = ModelConverter.convert(options);
+            if (!verified)
+                System.exit(1);
+        }
+    }
+
     private static void parse(Options options) throws Exception {
         if (options.outputFile.equals("") || options.inputFile.equals("")
                 || options.modelFile.equals("")) {
@@ -60,9 +82,13 @@ public class YaraParser {
 
             Options inf_options = infStruct.options;
             AveragedPerceptron averagedPerceptron = new AveragedPerceptron(infStruct);
+            if (options.useFeatureRows)
+                averagedPerceptron.useFeatureRows(options.useDenseRows);
 
             int featureSize = averagedPerceptron.featureSize();
             KBeamArcEagerParser parser = new KBeamArcEagerParser(averagedPerceptron, dependencyLabels, featureSize, maps, options.numOfThreads);
+            parser.setTopLabels(options.topLabels);
+            parser.setLongestFirst(options.longestFirst);
 
             if (options.parseTaggedFile)
                 parser.parseTaggedFile(options.inputFile,
@@ -77,15 +103,38 @@ public class YaraParser {
         }
     }
 
+    private static void serve(Options options) throws Exception {
+        if (options.modelFile.equals("")) {
+            Options.showHelp();
+        } else {
+            InfStruct infStruct = new InfStruct(options.modelFile);
+            Options inf_options = infStruct.options;
+            AveragedPerceptron averagedPerceptron = new AveragedPerceptron(infStruct);
+            if (options.useFeatureRows)
+                averagedPerceptron.useFeatureRows(options.useDenseRows);
+
+            KBeamArcEagerParser parser = new KBeamArcEagerParser(averagedPerceptron, infStruct.dependencyLabels, averagedPerceptron.featureSize(), infStruct.maps, options.numOfThreads);
+            parser.setTopLabels(options.topLabels);
+
+            ParseServer server = new ParseServer(parser, infStruct.maps, inf_options.rootFirst, inf_options.beamWidth, inf_options.lowercase, options);
+            server.start();
+            server.join();
+            parser.shutDownLiveThreads();
+        }
+    }
+
+    private static void trainWorker(Options options) throws Exception {
+        if (options.coordinator.equals("") || options.secretFile.equals(""))
+            Options.showHelp();
+        else
+            ParameterMixingTrainer.work(options.coordinator, options.secretFile);
+    }
+
     public static void train(Options options) throws Exception {
         if (options.inputFile.equals("") || options.modelFile.equals("")) {
             Options.showHelp();
         } else {
             IndexMaps maps = CoNLLReader.createIndices(options.inputFile, options.labeled, options.lowercase, options.clusterFile);
-            CoNLLReader reader = new CoNLLReader(options.inputFile);
-            ArrayList<GoldConfiguration> dataSet = reader.readData(Integer.MAX_VALUE, false, options.labeled, options.rootFirst, options.lowercase, maps);
-            System.out.println("CoNLL data reading done!");
-
             ArrayList<Integer> dependencyLabels = new ArrayList<Integer>();
             for (int lab : maps.getLabels().keySet())
                 dependencyLabels.add(lab);
@@ -94,6 +143,18 @@ public class YaraParser {
             if (options.useExtendedWithBrownClusterFeatures || maps.hasClusters())
                 featureLength = 153;
 
+            if (options.shards > 0) {
+                // the workers read the sentences of their shards
+                ParameterMixingTrainer trainer = new ParameterMixingTrainer(options.useMaxViol ? "max_violation" : "early", options,
+                        dependencyLabels, featureLength, maps);
+                trainer.train(options.inputFile, options.devPath, options.trainingIter, options.modelFile, options.lowercase, options.punctuations, options.partialTrainingStartingIteration);
+                return;
+            }
+
+            CoNLLReader reader = new CoNLLReader(options.inputFile);
+            ArrayList<GoldConfiguration> dataSet = reader.readData(Integer.MAX_VALUE, false, options.labeled, options.rootFirst, options.lowercase, maps);
+            System.out.println("CoNLL data reading done!");
+
             System.out.println("size of training data (#sens): " + dataSet.size());
 
             HashMap<String, Integer> labels = new HashMap<String, Integer>();
@@ -0,0 +1,148 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package YaraParser.Structures;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * A {@link LongCompactArrayMap} that several threads can read and update at once, with the same locking as
+ * {@link ConcurrentLongFloatMap}: lookups are optimistic reads, additions to a label that the vector already has share
+ * the read lock, and new keys and longer vectors are made under the write lock, so no addition is made to a vector
+ * or a table that is being copied.
+ * <p/>
+ * All of the vectors start from label 0 and only grow to the right, so a vector is one array and a reader never
+ * combines the offset of one vector with the values of another. The vectors are a bit longer than the compact ones
+ * of a table that is trained by one thread.
+ */
+
+public class ConcurrentLongCompactArrayMap extends LongCompactArrayMap {
+    private static final long serialVersionUID = 8857991271290754381L;
+
+    private final StampedLock lock = new StampedLock();
+
+    public ConcurrentLongCompactArrayMap() {
+        super();
+    }
+
+    /**
+     * Copies the keys and vectors of the map
+     */
+    public ConcurrentLongCompactArrayMap(LongCompactArrayMap map) {
+        super(map.size());
+        for (long key : map.keys()) {
+            int slot = map.slot(key);
+            put(key, map.offset(slot), map.array(slot));
+        }
+    }
+
+    /**
+     * The vector may miss the latest additions of the other threads
+     */
+    @Override
+    public void addTo(long key, float[] scores) {
+        float[] array = vector(key);
+        if (array == null)
+            return;
+        for (int j = 0; j < array.length; j++)
+            scores[j] += array[j];
+    }
+
+    @Override
+    public void expandArray(long key, int index, float value) {
+        long stamp = lock.readLock();
+        try {
+            int pos = slot(key);
+            if (pos >= 0 && index < arrays[pos].length) {
+                arrays[pos][index] += value;
+                return;
+            }
+        } finally {
+            lock.unlockRead(stamp);
+        }
+
+        stamp = lock.writeLock();
+        try {
+            int pos = slot(key);
+            float[] array;
+            if (pos < 0) {
+                array = new float[index + 1];
+                super.put(key, 0, array);
+            } else if (index >= arrays[pos].length) {
+                array = Arrays.copyOf(arrays[pos], index + 1);
+                arrays[pos] = array;
+            } else {
+                array = arrays[pos];
+            }
+            array[index] += value;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Keeps a copy of the vector that starts from label 0
+     */
+    @Override
+    public void put(long key, int offset, float[] array) {
+        float[] vector = new float[offset + array.length];
+        System.arraycopy(array, 0, vector, offset, array.length);
+        long stamp = lock.writeLock();
+        try {
+            super.put(key, 0, vector);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public long[] keys() {
+        long stamp = lock.readLock();
+        try {
+            return super.keys();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @return the vector of the key (from label 0), or null if the key is not in the table
+     */
+    private float[] vector(long key) {
+        long stamp = lock.tryOptimisticRead();
+        long[] keys = this.keys;
+        float[][] arrays = this.arrays;
+        float[] vector = null;
+        // the fields may be of two tables until the stamp is validated
+        if (arrays.length == keys.length) {
+            int mask = keys.length - 2;
+            if (key == 0) {
+                if (containsZeroKey)
+                    vector = arrays[mask + 1];
+            } else {
+                int pos = LongFloatMap.mix(key) & mask;
+                long k;
+                while ((k = keys[pos]) != 0) {
+                    if (k == key) {
+                        vector = arrays[pos];
+                        break;
+                    }
+                    pos = (pos + 1) & mask;
+                }
+            }
+        }
+        if (lock.validate(stamp))
+            return vector;
+
+        stamp = lock.readLock();
+        try {
+            int pos = slot(key);
+            return pos < 0 ? null : this.arrays[pos];
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+}
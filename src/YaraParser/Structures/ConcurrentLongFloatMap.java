@@ -0,0 +1,129 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package YaraParser.Structures;
+
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * A {@link LongFloatMap} that several threads can read and update at once, for Hogwild training
+ * (Recht et al. "Hogwild!: A lock-free approach to parallelizing stochastic gradient descent", NIPS 2011).
+ * <p/>
+ * The lookups are optimistic reads of the {@link StampedLock} of the table: a lookup that overlaps an insertion or a
+ * rehash is done again under the read lock. The additions to keys that are already in the table share the read lock
+ * and change the values in place, so two additions to the same key may race and one of them may be lost, which is
+ * the staleness that Hogwild allows. New keys (and so the rehashes) take the write lock, which waits for the
+ * additions, so an addition is never made to a table that is being copied.
+ */
+
+public class ConcurrentLongFloatMap extends LongFloatMap {
+    private static final long serialVersionUID = -8469274022025717403L;
+
+    private final StampedLock lock = new StampedLock();
+
+    public ConcurrentLongFloatMap() {
+        super();
+    }
+
+    /**
+     * Copies the keys and values of the map
+     */
+    public ConcurrentLongFloatMap(LongFloatMap map) {
+        super(map.size());
+        for (long key : map.keys())
+            super.put(key, map.get(key));
+    }
+
+    @Override
+    public float get(long key) {
+        long stamp = lock.tryOptimisticRead();
+        long[] keys = this.keys;
+        float[] values = this.values;
+        float value = 0f;
+        // the fields may be of two tables until the stamp is validated
+        if (values.length == keys.length) {
+            int pos = find(keys, key);
+            if (pos >= 0)
+                value = values[pos];
+        }
+        if (lock.validate(stamp))
+            return value;
+
+        stamp = lock.readLock();
+        try {
+            return super.get(key);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public void add(long key, float change) {
+        long stamp = lock.readLock();
+        try {
+            int pos = slot(key);
+            if (pos >= 0) {
+                values[pos] += change;
+                return;
+            }
+        } finally {
+            lock.unlockRead(stamp);
+        }
+
+        stamp = lock.writeLock();
+        try {
+            super.add(key, change);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void put(long key, float value) {
+        long stamp = lock.writeLock();
+        try {
+            super.put(key, value);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public boolean containsKey(long key) {
+        long stamp = lock.readLock();
+        try {
+            return super.containsKey(key);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public long[] keys() {
+        long stamp = lock.readLock();
+        try {
+            return super.keys();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @return the slot of the key in the given key array (of a capacity plus one slots), or -1 if it is not there
+     */
+    private int find(long[] keys, long key) {
+        int mask = keys.length - 2;
+        if (key == 0)
+            return containsZeroKey ? mask + 1 : -1;
+        int pos = mix(key) & mask;
+        long k;
+        while ((k = keys[pos]) != 0) {
+            if (k == key)
+                return pos;
+            pos = (pos + 1) & mask;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,177 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package YaraParser.Structures;
+
+/**
+ * The weights of one feature template for all of the actions, kept as one row per feature:
+ * the shift weight, the reduce weight, then the left-arc and the right-arc label vectors.
+ * The label vectors keep the same offsets and lengths as in {@link LongCompactArrayMap}, so a score that is summed from
+ * a row is the same float as the one summed from the four separate tables.
+ * <p/>
+ * All of the rows are in one float pool; for each slot, {@link #rows} keeps the row start in the pool,
+ * the left-arc offset and length, and the right-arc offset and length.
+ * <p/>
+ * Dense rows keep both label vectors at their full width (zeros for the missing labels), one after the other,
+ * so that all of the label scores of a row are added in one fixed-length loop that the JIT can vectorize.
+ * They take more memory: 2 * (1 + dependencySize) floats for every feature.
+ */
+
+public class FeatureRowMap {
+    public static final int FIELDS = 5;
+
+    long[] keys;
+    int[] rows;
+    float[] pool;
+    boolean containsZeroKey;
+    int mask;
+    int denseWidth;
+
+    /**
+     * Builds the rows from the four tables of the same template; missing weights are zero.
+     */
+    public FeatureRowMap(LongFloatMap shiftWeights, LongFloatMap reduceWeights, LongCompactArrayMap leftArcWeights,
+                         LongCompactArrayMap rightArcWeights) {
+        this(shiftWeights, reduceWeights, leftArcWeights, rightArcWeights, 0);
+    }
+
+    /**
+     * @param denseWidth the number of labels for dense rows; 0 for compact rows
+     */
+    public FeatureRowMap(LongFloatMap shiftWeights, LongFloatMap reduceWeights, LongCompactArrayMap leftArcWeights,
+                         LongCompactArrayMap rightArcWeights, int denseWidth) {
+        this.denseWidth = denseWidth;
+        LongFloatMap features = new LongFloatMap(shiftWeights.size() + reduceWeights.size());
+        for (long feat : shiftWeights.keys())
+            features.put(feat, 0);
+        for (long feat : reduceWeights.keys())
+            features.put(feat, 0);
+        for (long feat : leftArcWeights.keys())
+            features.put(feat, 0);
+        for (long feat : rightArcWeights.keys())
+            features.put(feat, 0);
+
+        int capacity = LongFloatMap.tableSize(features.size());
+        keys = new long[capacity + 1];
+        rows = new int[FIELDS * (capacity + 1)];
+        mask = capacity - 1;
+
+        long[] allKeys = features.keys();
+        if (denseWidth > 0) {
+            fillDense(allKeys, shiftWeights, reduceWeights, leftArcWeights, rightArcWeights);
+            return;
+        }
+        int poolLength = 0;
+        for (long feat : allKeys) {
+            poolLength += 2;
+            int slot = leftArcWeights.slot(feat);
+            if (slot >= 0)
+                poolLength += leftArcWeights.array(slot).length;
+            slot = rightArcWeights.slot(feat);
+            if (slot >= 0)
+                poolLength += rightArcWeights.array(slot).length;
+        }
+        pool = new float[poolLength];
+
+        int start = 0;
+        for (long feat : allKeys) {
+            int pos = insert(feat);
+            int row = FIELDS * pos;
+            rows[row] = start;
+            pool[start++] = shiftWeights.get(feat);
+            pool[start++] = reduceWeights.get(feat);
+
+            int slot = leftArcWeights.slot(feat);
+            if (slot >= 0) {
+                float[] array = leftArcWeights.array(slot);
+                rows[row + 1] = leftArcWeights.offset(slot);
+                rows[row + 2] = array.length;
+                System.arraycopy(array, 0, pool, start, array.length);
+                start += array.length;
+            }
+            slot = rightArcWeights.slot(feat);
+            if (slot >= 0) {
+                float[] array = rightArcWeights.array(slot);
+                rows[row + 3] = rightArcWeights.offset(slot);
+                rows[row + 4] = array.length;
+                System.arraycopy(array, 0, pool, start, array.length);
+                start += array.length;
+            }
+        }
+    }
+
+    private void fillDense(long[] allKeys, LongFloatMap shiftWeights, LongFloatMap reduceWeights,
+                           LongCompactArrayMap leftArcWeights, LongCompactArrayMap rightArcWeights) {
+        int rowLength = 2 + 2 * denseWidth;
+        pool = new float[rowLength * allKeys.length];
+        int start = 0;
+        for (long feat : allKeys) {
+            int row = FIELDS * insert(feat);
+            rows[row] = start;
+            rows[row + 2] = denseWidth;
+            rows[row + 4] = denseWidth;
+            pool[start] = shiftWeights.get(feat);
+            pool[start + 1] = reduceWeights.get(feat);
+
+            int slot = leftArcWeights.slot(feat);
+            if (slot >= 0) {
+                float[] array = leftArcWeights.array(slot);
+                System.arraycopy(array, 0, pool, start + 2 + leftArcWeights.offset(slot), array.length);
+            }
+            slot = rightArcWeights.slot(feat);
+            if (slot >= 0) {
+                float[] array = rightArcWeights.array(slot);
+                System.arraycopy(array, 0, pool, start + 2 + denseWidth + rightArcWeights.offset(slot), array.length);
+            }
+            start += rowLength;
+        }
+    }
+
+    private int insert(long key) {
+        if (key == 0) {
+            containsZeroKey = true;
+            return mask + 1;
+        }
+        int pos = LongFloatMap.mix(key) & mask;
+        while (keys[pos] != 0)
+            pos = (pos + 1) & mask;
+        keys[pos] = key;
+        return pos;
+    }
+
+    /**
+     * @return the index of the row fields of the key in {@link #rows()} or -1 if the key is not in the table
+     */
+    public int row(long key) {
+        if (key == 0)
+            return containsZeroKey ? FIELDS * (mask + 1) : -1;
+        int pos = LongFloatMap.mix(key) & mask;
+        long k;
+        while ((k = keys[pos]) != 0) {
+            if (k == key)
+                return FIELDS * pos;
+            pos = (pos + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * @return for each slot: the row start in {@link #pool()}, the left-arc offset and length, and the right-arc offset and length
+     */
+    public int[] rows() {
+        return rows;
+    }
+
+    public float[] pool() {
+        return pool;
+    }
+
+    /**
+     * @return the number of labels of the dense rows; 0 if the rows are compact
+     */
+    public int denseWidth() {
+        return denseWidth;
+    }
+}
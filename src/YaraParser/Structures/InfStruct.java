@@ -2,9 +2,15 @@ package YaraParser.Structures;
 
 import YaraParser.Accessories.Options;
 import YaraParser.Learning.AveragedPerceptron;
+import YaraParser.TransitionBasedSystem.Features.FeatureExtractor;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
@@ -18,17 +24,24 @@ import java.util.zip.GZIPOutputStream;
  */
 
 public class InfStruct {
-    public HashMap<Object, Float>[] shiftFeatureAveragedWeights;
-    public HashMap<Object, Float>[] reduceFeatureAveragedWeights;
-    public HashMap<Object, CompactArray>[] leftArcFeatureAveragedWeights;
-    public HashMap<Object, CompactArray>[] rightArcFeatureAveragedWeights;
+    /**
+     * Binary model files start with this number ("YPMF" in little-endian bytes) and then the format version
+     * (version 2 added the quantized weights)
+     */
+    public static final int BINARY_MAGIC = 0x464D5059;
+    public static final int BINARY_VERSION = 2;
+
+    public LongFloatMap[] shiftFeatureAveragedWeights;
+    public LongFloatMap[] reduceFeatureAveragedWeights;
+    public LongCompactArrayMap[] leftArcFeatureAveragedWeights;
+    public LongCompactArrayMap[] rightArcFeatureAveragedWeights;
     public int dependencySize;
 
     public IndexMaps maps;
     public ArrayList<Integer> dependencyLabels;
     public Options options;
 
-    public InfStruct(HashMap<Object, Float>[] shiftFeatureAveragedWeights, HashMap<Object, Float>[] reduceFeatureAveragedWeights, HashMap<Object, CompactArray>[] leftArcFeatureAveragedWeights, HashMap<Object, CompactArray>[] rightArcFeatureAveragedWeights,
+    public InfStruct(LongFloatMap[] shiftFeatureAveragedWeights, LongFloatMap[] reduceFeatureAveragedWeights, LongCompactArrayMap[] leftArcFeatureAveragedWeights, LongCompactArrayMap[] rightArcFeatureAveragedWeights,
                      IndexMaps maps, ArrayList<Integer> dependencyLabels, Options options, int dependencySize) {
         this.shiftFeatureAveragedWeights = shiftFeatureAveragedWeights;
         this.reduceFeatureAveragedWeights = reduceFeatureAveragedWeights;
@@ -41,69 +54,96 @@ public class InfStruct {
     }
 
     public InfStruct(AveragedPerceptron perceptron, IndexMaps maps, ArrayList<Integer> dependencyLabels, Options options) {
-        shiftFeatureAveragedWeights = new HashMap[perceptron.shiftFeatureAveragedWeights.length];
-        reduceFeatureAveragedWeights = new HashMap[perceptron.reduceFeatureAveragedWeights.length];
-
-        HashMap<Object, Float>[] map = perceptron.shiftFeatureWeights;
-        HashMap<Object, Float>[] avgMap = perceptron.shiftFeatureAveragedWeights;
         this.dependencySize = perceptron.dependencySize;
+        shiftFeatureAveragedWeights = getAveragedWeights(perceptron.shiftFeatureWeights, perceptron.shiftFeatureAveragedWeights, perceptron.iteration);
+        reduceFeatureAveragedWeights = getAveragedWeights(perceptron.reduceFeatureWeights, perceptron.reduceFeatureAveragedWeights, perceptron.iteration);
+        leftArcFeatureAveragedWeights = getAveragedWeights(perceptron.leftArcFeatureWeights, perceptron.leftArcFeatureAveragedWeights, perceptron.iteration);
+        rightArcFeatureAveragedWeights = getAveragedWeights(perceptron.rightArcFeatureWeights, perceptron.rightArcFeatureAveragedWeights, perceptron.iteration);
 
-        for (int i = 0; i < shiftFeatureAveragedWeights.length; i++) {
-            shiftFeatureAveragedWeights[i] = new HashMap<Object, Float>();
-            for (Object feat : map[i].keySet()) {
-                float vals = map[i].get(feat);
-                float avgVals = avgMap[i].get(feat);
-                float newVals = vals - (avgVals / perceptron.iteration);
-                shiftFeatureAveragedWeights[i].put(feat, newVals);
-            }
-        }
+        this.maps = maps;
+        this.dependencyLabels = dependencyLabels;
+        this.options = options;
+    }
 
-        HashMap<Object, Float>[] map4 = perceptron.reduceFeatureWeights;
-        HashMap<Object, Float>[] avgMap4 = perceptron.reduceFeatureAveragedWeights;
-        this.dependencySize = perceptron.dependencySize;
+    /**
+     * Reads a model file; both the GZIP'd serialized format of {@link #saveModel(String)} and the binary format of
+     * {@link #saveBinaryModel(String)}
+     * are accepted.
+     */
+    public InfStruct(String modelPath) throws Exception {
+        if (isBinaryModel(modelPath))
+            loadBinaryModel(modelPath);
+        else
+            loadSerializedModel(modelPath);
+    }
 
-        for (int i = 0; i < reduceFeatureAveragedWeights.length; i++) {
-            reduceFeatureAveragedWeights[i] = new HashMap<Object, Float>();
-            for (Object feat : map4[i].keySet()) {
-                float vals = map4[i].get(feat);
-                float avgVals = avgMap4[i].get(feat);
-                float newVals = vals - (avgVals / perceptron.iteration);
-                reduceFeatureAveragedWeights[i].put(feat, newVals);
-            }
+    public static boolean isBinaryModel(String modelPath) throws IOException {
+        DataInputStream reader = new DataInputStream(new FileInputStream(modelPath));
+        try {
+            return Integer.reverseBytes(reader.readInt()) == BINARY_MAGIC;
+        } catch (EOFException e) {
+            return false;
+        } finally {
+            reader.close();
         }
+    }
 
-        leftArcFeatureAveragedWeights = new HashMap[perceptron.leftArcFeatureAveragedWeights.length];
-        HashMap<Object, CompactArray>[] map2 = perceptron.leftArcFeatureWeights;
-        HashMap<Object, CompactArray>[] avgMap2 = perceptron.leftArcFeatureAveragedWeights;
+    /**
+     * The weight tables are memory-mapped, so that only the index maps and the options are read into the heap.
+     * The file is laid out as: magic number, format version, length of the header, number of feature slots (four ints),
+     * the Java-serialized header (dependency labels, index maps, options and the number of labels), padded to 8 bytes,
+     * and then one section for every slot of the shift, reduce, left-arc and right-arc tables (in this order).
+     */
+    private void loadBinaryModel(String modelPath) throws Exception {
+        RandomAccessFile file = new RandomAccessFile(modelPath, "r");
+        FileChannel channel = file.getChannel();
+        try {
+            ByteBuffer header = MappedLongFloatMap.readHeader(channel, 0, 16);
+            int version = header.getInt(4);
+            if (version < 1 || version > BINARY_VERSION)
+                throw new IOException("unsupported model format version " + version + " in " + modelPath);
+            int headerLength = header.getInt(8);
+            int featureSize = header.getInt(12);
 
-        for (int i = 0; i < leftArcFeatureAveragedWeights.length; i++) {
-            leftArcFeatureAveragedWeights[i] = new HashMap<Object, CompactArray>();
-            for (Object feat : map2[i].keySet()) {
-                CompactArray vals = map2[i].get(feat);
-                CompactArray avgVals = avgMap2[i].get(feat);
-                leftArcFeatureAveragedWeights[i].put(feat, getAveragedCompactArray(vals, avgVals, perceptron.iteration));
+            byte[] meta = new byte[headerLength];
+            ByteBuffer metaBuffer = ByteBuffer.wrap(meta);
+            while (metaBuffer.hasRemaining()) {
+                if (channel.read(metaBuffer, 16 + metaBuffer.position()) < 0)
+                    throw new IOException("unexpected end of the model file");
             }
-        }
+            ObjectInputStream reader = new ObjectInputStream(new ByteArrayInputStream(meta));
+            dependencyLabels = (ArrayList<Integer>) reader.readObject();
+            maps = (IndexMaps) reader.readObject();
+            options = (Options) reader.readObject();
+            dependencySize = reader.readInt();
+            reader.close();
 
-        rightArcFeatureAveragedWeights = new HashMap[perceptron.rightArcFeatureAveragedWeights.length];
-        HashMap<Object, CompactArray>[] map3 = perceptron.rightArcFeatureWeights;
-        HashMap<Object, CompactArray>[] avgMap3 = perceptron.rightArcFeatureAveragedWeights;
-
-        for (int i = 0; i < rightArcFeatureAveragedWeights.length; i++) {
-            rightArcFeatureAveragedWeights[i] = new HashMap<Object, CompactArray>();
-            for (Object feat : map3[i].keySet()) {
-                CompactArray vals = map3[i].get(feat);
-                CompactArray avgVals = avgMap3[i].get(feat);
-                rightArcFeatureAveragedWeights[i].put(feat, getAveragedCompactArray(vals, avgVals, perceptron.iteration));
+            long position = MappedLongFloatMap.pad(16 + headerLength);
+            shiftFeatureAveragedWeights = new LongFloatMap[featureSize];
+            reduceFeatureAveragedWeights = new LongFloatMap[featureSize];
+            leftArcFeatureAveragedWeights = new LongCompactArrayMap[featureSize];
+            rightArcFeatureAveragedWeights = new LongCompactArrayMap[featureSize];
+            for (LongFloatMap[] weights : new LongFloatMap[][]{shiftFeatureAveragedWeights, reduceFeatureAveragedWeights}) {
+                for (int i = 0; i < featureSize; i++) {
+                    MappedLongFloatMap map = MappedLongFloatMap.map(channel, position);
+                    weights[i] = map;
+                    position += map.sectionSize();
+                }
+            }
+            for (LongCompactArrayMap[] weights : new LongCompactArrayMap[][]{leftArcFeatureAveragedWeights, rightArcFeatureAveragedWeights}) {
+                for (int i = 0; i < featureSize; i++) {
+                    MappedLongCompactArrayMap map = MappedLongCompactArrayMap.map(channel, position);
+                    weights[i] = map;
+                    position += map.sectionSize();
+                }
             }
+        } finally {
+            channel.close();
+            file.close();
         }
-
-        this.maps = maps;
-        this.dependencyLabels = dependencyLabels;
-        this.options = options;
     }
 
-    public InfStruct(String modelPath) throws Exception {
+    private void loadSerializedModel(String modelPath) throws Exception {
         FileInputStream fos = new FileInputStream(modelPath);
         GZIPInputStream gz = new GZIPInputStream(fos);
 
@@ -111,13 +151,26 @@ public class InfStruct {
         dependencyLabels = (ArrayList<Integer>) reader.readObject();
         maps = (IndexMaps) reader.readObject();
         options = (Options) reader.readObject();
-        shiftFeatureAveragedWeights = (HashMap<Object, Float>[]) reader.readObject();
-        reduceFeatureAveragedWeights = (HashMap<Object, Float>[]) reader.readObject();
-        leftArcFeatureAveragedWeights = (HashMap<Object, CompactArray>[]) reader.readObject();
-        rightArcFeatureAveragedWeights = (HashMap<Object, CompactArray>[]) reader.readObject();
+        Object shiftWeights = reader.readObject();
+        if (shiftWeights instanceof HashMap[]) {
+            // models saved before the primitive weight tables
+            shiftFeatureAveragedWeights = convertLegacyWeights((HashMap<Object, Float>[]) shiftWeights);
+            reduceFeatureAveragedWeights = convertLegacyWeights((HashMap<Object, Float>[]) reader.readObject());
+            leftArcFeatureAveragedWeights = convertLegacyArrayWeights((HashMap<Object, CompactArray>[]) reader.readObject());
+            rightArcFeatureAveragedWeights = convertLegacyArrayWeights((HashMap<Object, CompactArray>[]) reader.readObject());
+        } else {
+            shiftFeatureAveragedWeights = (LongFloatMap[]) shiftWeights;
+            reduceFeatureAveragedWeights = (LongFloatMap[]) reader.readObject();
+            leftArcFeatureAveragedWeights = (LongCompactArrayMap[]) reader.readObject();
+            rightArcFeatureAveragedWeights = (LongCompactArrayMap[]) reader.readObject();
+        }
         dependencySize = reader.readInt();
+        reader.close();
     }
 
+    /**
+     * Writes the model as a GZIP'd Java-serialized object graph, which every version of the parser can read
+     */
     public void saveModel(String modelPath) throws Exception {
         FileOutputStream fos = new FileOutputStream(modelPath);
         GZIPOutputStream gz = new GZIPOutputStream(fos);
@@ -134,14 +187,226 @@ public class InfStruct {
         writer.close();
     }
 
-    private CompactArray getAveragedCompactArray(CompactArray ca, CompactArray aca, int iteration) {
-        int offset = ca.getOffset();
-        float[] a = ca.getArray();
-        float[] aa = aca.getArray();
-        float[] aNew = new float[a.length];
-        for (int i = 0; i < a.length; i++) {
-            aNew[i] = a[i] - (aa[i] / iteration);
+    /**
+     * Writes the model in the binary format that is memory-mapped by {@link #InfStruct(String)}. The file is not
+     * compressed, so it is a few times larger than the one of {@link #saveModel(String)}, and parsers older than this
+     * format cannot read it.
+     */
+    public void saveBinaryModel(String modelPath) throws Exception {
+        saveBinaryModel(modelPath, 32);
+    }
+
+    /**
+     * Writes the model in the binary format with quantized weights: each weight table of each feature slot
+     * keeps its values as 8-bit or 16-bit integers with one scale for the table (32 keeps the floats).
+     * Older parsers cannot read a file that is saved with quantized weights.
+     */
+    public void saveBinaryModel(String modelPath, int quantizationBits) throws Exception {
+        if (quantizationBits != 8 && quantizationBits != 16 && quantizationBits != 32)
+            throw new IllegalArgumentException("weights can be saved with 8, 16 or 32 bits, not " + quantizationBits);
+
+        ByteArrayOutputStream meta = new ByteArrayOutputStream();
+        ObjectOutputStream metaWriter = new ObjectOutputStream(meta);
+        metaWriter.writeObject(dependencyLabels);
+        metaWriter.writeObject(maps);
+        metaWriter.writeObject(options);
+        metaWriter.writeInt(dependencySize);
+        metaWriter.close();
+
+        FileOutputStream fos = new FileOutputStream(modelPath);
+        FileChannel channel = fos.getChannel();
+        try {
+            int featureSize = shiftFeatureAveragedWeights.length;
+            ByteBuffer header = ByteBuffer.allocate((int) MappedLongFloatMap.pad(16 + meta.size())).order(ByteOrder.LITTLE_ENDIAN);
+            // the float layout did not change in version 2, so it stays readable by the older parsers
+            int version = quantizationBits == 32 ? 1 : BINARY_VERSION;
+            header.putInt(BINARY_MAGIC).putInt(version).putInt(meta.size()).putInt(featureSize);
+            header.put(meta.toByteArray());
+            header.clear();
+            while (header.hasRemaining())
+                channel.write(header);
+
+            for (LongFloatMap[] weights : new LongFloatMap[][]{shiftFeatureAveragedWeights, reduceFeatureAveragedWeights})
+                for (int i = 0; i < featureSize; i++)
+                    MappedLongFloatMap.write(weights[i], channel, quantizationBits);
+            for (LongCompactArrayMap[] weights : new LongCompactArrayMap[][]{leftArcFeatureAveragedWeights, rightArcFeatureAveragedWeights})
+                for (int i = 0; i < featureSize; i++)
+                    MappedLongCompactArrayMap.write(weights[i], channel, quantizationBits);
+        } finally {
+            channel.close();
+            fos.close();
         }
-        return new CompactArray(offset, aNew);
+    }
+
+    /**
+     * Makes a smaller copy of the model: a feature is kept (in the tables of all actions) only if its largest absolute
+     * weight is more than the threshold, it is updated at least minCount times in training and it is one of the topK
+     * features of its slot with the largest absolute weights. Features with only zero weights are always removed,
+     * which does not change any score.
+     *
+     * @param featureCounts the number of updates of each feature ({@link AveragedPerceptron#featureCounts});
+     *                      only needed if minCount is more than zero
+     * @param topK          zero keeps all of the features of a slot
+     */
+    public InfStruct prune(int minCount, float weightThreshold, int topK, LongFloatMap[] featureCounts) {
+        if (minCount > 0 && featureCounts == null)
+            throw new IllegalArgumentException("the feature counts are only kept while training");
+
+        int featureSize = shiftFeatureAveragedWeights.length;
+        LongFloatMap[] shiftWeights = new LongFloatMap[featureSize];
+        LongFloatMap[] reduceWeights = new LongFloatMap[featureSize];
+        LongCompactArrayMap[] leftArcWeights = new LongCompactArrayMap[featureSize];
+        LongCompactArrayMap[] rightArcWeights = new LongCompactArrayMap[featureSize];
+
+        for (int i = 0; i < featureSize; i++) {
+            LongFloatMap magnitudes = maxAbsoluteWeights(i);
+            long[] features = magnitudes.keys();
+            int kept = 0;
+            for (long feat : features) {
+                if (magnitudes.get(feat) > weightThreshold && (minCount <= 0 || featureCounts[i].get(feat) >= minCount))
+                    features[kept++] = feat;
+            }
+            if (topK > 0 && kept > topK)
+                kept = selectLargest(features, kept, topK, magnitudes);
+
+            // the tables grow to their own sizes: most features have weights for only some of the actions
+            shiftWeights[i] = new LongFloatMap();
+            reduceWeights[i] = new LongFloatMap();
+            leftArcWeights[i] = new LongCompactArrayMap();
+            rightArcWeights[i] = new LongCompactArrayMap();
+            for (int f = 0; f < kept; f++) {
+                long feat = features[f];
+                if (shiftFeatureAveragedWeights[i].containsKey(feat))
+                    shiftWeights[i].put(feat, shiftFeatureAveragedWeights[i].get(feat));
+                if (reduceFeatureAveragedWeights[i].containsKey(feat))
+                    reduceWeights[i].put(feat, reduceFeatureAveragedWeights[i].get(feat));
+                copyArray(leftArcFeatureAveragedWeights[i], leftArcWeights[i], feat);
+                copyArray(rightArcFeatureAveragedWeights[i], rightArcWeights[i], feat);
+            }
+        }
+        return new InfStruct(shiftWeights, reduceWeights, leftArcWeights, rightArcWeights, maps, dependencyLabels, options, dependencySize);
+    }
+
+    /**
+     * @return the number of distinct features in all of the slots
+     */
+    public int featureCount() {
+        int count = 0;
+        for (int i = 0; i < shiftFeatureAveragedWeights.length; i++)
+            count += maxAbsoluteWeights(i).size();
+        return count;
+    }
+
+    /**
+     * @return the largest absolute weight of each feature of the slot over all of the actions
+     */
+    private LongFloatMap maxAbsoluteWeights(int slot) {
+        LongFloatMap magnitudes = new LongFloatMap(shiftFeatureAveragedWeights[slot].size());
+        for (LongFloatMap weights : new LongFloatMap[]{shiftFeatureAveragedWeights[slot], reduceFeatureAveragedWeights[slot]}) {
+            for (long feat : weights.keys())
+                magnitudes.put(feat, Math.max(magnitudes.get(feat), Math.abs(weights.get(feat))));
+        }
+        for (LongCompactArrayMap weights : new LongCompactArrayMap[]{leftArcFeatureAveragedWeights[slot], rightArcFeatureAveragedWeights[slot]}) {
+            for (long feat : weights.keys()) {
+                float max = magnitudes.get(feat);
+                for (float value : weights.array(weights.slot(feat)))
+                    max = Math.max(max, Math.abs(value));
+                magnitudes.put(feat, max);
+            }
+        }
+        return magnitudes;
+    }
+
+    /**
+     * Moves the topK features with the largest magnitudes to the start of the array (ties are broken by the smaller key,
+     * so the same model is always pruned the same way)
+     *
+     * @return topK
+     */
+    private static int selectLargest(long[] features, int length, int topK, final LongFloatMap magnitudes) {
+        Long[] sorted = new Long[length];
+        for (int f = 0; f < length; f++)
+            sorted[f] = features[f];
+        Arrays.sort(sorted, new Comparator<Long>() {
+            @Override
+            public int compare(Long first, Long second) {
+                int diff = Float.compare(magnitudes.get(second), magnitudes.get(first));
+                return diff != 0 ? diff : first.compareTo(second);
+            }
+        });
+        for (int f = 0; f < topK; f++)
+            features[f] = sorted[f];
+        return topK;
+    }
+
+    private static void copyArray(LongCompactArrayMap source, LongCompactArrayMap target, long feat) {
+        int slot = source.slot(feat);
+        if (slot >= 0)
+            target.put(feat, source.offset(slot), source.array(slot));
+    }
+
+    private LongFloatMap[] getAveragedWeights(LongFloatMap[] map, LongFloatMap[] avgMap, int iteration) {
+        LongFloatMap[] averagedWeights = new LongFloatMap[map.length];
+        for (int i = 0; i < map.length; i++) {
+            averagedWeights[i] = new LongFloatMap(map[i].size());
+            for (long feat : map[i].keys()) {
+                float vals = map[i].get(feat);
+                float avgVals = avgMap[i].get(feat);
+                float newVals = vals - (avgVals / iteration);
+                averagedWeights[i].put(feat, newVals);
+            }
+        }
+        return averagedWeights;
+    }
+
+    private LongCompactArrayMap[] getAveragedWeights(LongCompactArrayMap[] map, LongCompactArrayMap[] avgMap, int iteration) {
+        LongCompactArrayMap[] averagedWeights = new LongCompactArrayMap[map.length];
+        for (int i = 0; i < map.length; i++) {
+            averagedWeights[i] = new LongCompactArrayMap(map[i].size());
+            for (long feat : map[i].keys()) {
+                int slot = map[i].slot(feat);
+                float[] a = map[i].array(slot);
+                float[] aa = avgMap[i].array(avgMap[i].slot(feat));
+                float[] aNew = new float[a.length];
+                for (int j = 0; j < a.length; j++) {
+                    aNew[j] = a[j] - (aa[j] / iteration);
+                }
+                averagedWeights[i].put(feat, map[i].offset(slot), aNew);
+            }
+        }
+        return averagedWeights;
+    }
+
+    private static LongFloatMap[] convertLegacyWeights(HashMap<Object, Float>[] legacyWeights) {
+        LongFloatMap[] weights = new LongFloatMap[legacyWeights.length];
+        for (int i = 0; i < legacyWeights.length; i++) {
+            weights[i] = new LongFloatMap(legacyWeights[i].size());
+            for (Object feat : legacyWeights[i].keySet())
+                weights[i].put(legacyFeatureKey(feat), legacyWeights[i].get(feat));
+        }
+        return weights;
+    }
+
+    private static LongCompactArrayMap[] convertLegacyArrayWeights(HashMap<Object, CompactArray>[] legacyWeights) {
+        LongCompactArrayMap[] weights = new LongCompactArrayMap[legacyWeights.length];
+        for (int i = 0; i < legacyWeights.length; i++) {
+            weights[i] = new LongCompactArrayMap(legacyWeights[i].size());
+            for (Object feat : legacyWeights[i].keySet()) {
+                CompactArray values = legacyWeights[i].get(feat);
+                weights[i].put(legacyFeatureKey(feat), values.getOffset(), values.getArray());
+            }
+        }
+        return weights;
+    }
+
+    /**
+     * Older models keep the features as Long values or, for the label set templates, as "value|labels" strings
+     */
+    private static long legacyFeatureKey(Object feature) {
+        if (feature instanceof Long)
+            return (Long) feature;
+        String value = feature.toString();
+        int separator = value.indexOf('|');
+        return FeatureExtractor.labelSetFeature(Long.parseLong(value.substring(0, separator)), Long.parseLong(value.substring(separator + 1)));
     }
 }
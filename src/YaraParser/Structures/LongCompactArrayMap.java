@@ -0,0 +1,211 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package YaraParser.Structures;
+
+import java.io.Serializable;
+
+/**
+ * An open-addressing hash table from primitive long keys to label weight vectors.
+ * Each vector is kept the same way as {@link CompactArray}: an offset and the float values from that offset on,
+ * but the offsets and the vectors are held in parallel arrays instead of one object per feature.
+ * <p/>
+ * The key 0 is kept in the extra slot at the end of the arrays, so that 0 can be used as the empty marker.
+ */
+
+public class LongCompactArrayMap implements Serializable {
+    private static final long serialVersionUID = 822064107949365020L;
+    private static final float LOAD_FACTOR = 0.75f;
+
+    long[] keys;
+    int[] offsets;
+    float[][] arrays;
+    boolean containsZeroKey;
+    int mask;
+    int size;
+    int maxFill;
+
+    public LongCompactArrayMap() {
+        this(16);
+    }
+
+    public LongCompactArrayMap(int expectedSize) {
+        int capacity = LongFloatMap.tableSize(expectedSize);
+        keys = new long[capacity + 1];
+        offsets = new int[capacity + 1];
+        arrays = new float[capacity + 1][];
+        mask = capacity - 1;
+        maxFill = (int) (capacity * LOAD_FACTOR);
+    }
+
+    /**
+     * @return the slot of the key or -1 if the key is not in the table
+     */
+    public int slot(long key) {
+        if (key == 0)
+            return containsZeroKey ? mask + 1 : -1;
+        int pos = LongFloatMap.mix(key) & mask;
+        long k;
+        while ((k = keys[pos]) != 0) {
+            if (k == key)
+                return pos;
+            pos = (pos + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * @param slot a slot given by {@link #slot(long)}
+     * @return the label index of the first value in the vector
+     */
+    public int offset(int slot) {
+        return offsets[slot];
+    }
+
+    /**
+     * @param slot a slot given by {@link #slot(long)}
+     * @return the vector values starting from {@link #offset(int)}; null or empty for an empty slot
+     */
+    public float[] array(int slot) {
+        return arrays[slot];
+    }
+
+    /**
+     * Adds the vector of the key to the label scores; nothing is added if the key is not in the table
+     */
+    public void addTo(long key, float[] scores) {
+        int pos = slot(key);
+        if (pos < 0)
+            return;
+        int offset = offsets[pos];
+        float[] array = arrays[pos];
+        for (int j = 0; j < array.length; j++)
+            scores[offset + j] += array[j];
+    }
+
+    public void put(long key, int offset, float[] array) {
+        int pos = insert(key);
+        offsets[pos] = offset;
+        arrays[pos] = array;
+    }
+
+    /**
+     * Adds the value to the label index of the key's vector; the vector is grown to the left or right if needed.
+     */
+    public void expandArray(long key, int index, float value) {
+        int pos = slot(key);
+        if (pos < 0) {
+            put(key, index, new float[]{value});
+            return;
+        }
+
+        float[] array = arrays[pos];
+        int offset = offsets[pos];
+        if (index < offset + array.length && index >= offset) {
+            array[index - offset] += value;
+        } else if (index < offset) {  //expand from left
+            int gap = offset - index;
+            float[] newArray = new float[gap + array.length];
+            newArray[0] = value;
+            System.arraycopy(array, 0, newArray, gap, array.length);
+            offsets[pos] = index;
+            arrays[pos] = newArray;
+        } else {
+            int gap = index - (array.length + offset - 1);
+            int newSize = array.length + gap;
+            float[] newArray = new float[newSize];
+            newArray[newSize - 1] = value;
+            System.arraycopy(array, 0, newArray, 0, array.length);
+            arrays[pos] = newArray;
+        }
+    }
+
+    private int insert(long key) {
+        if (key == 0) {
+            if (!containsZeroKey) {
+                containsZeroKey = true;
+                size++;
+            }
+            return mask + 1;
+        }
+        int pos = LongFloatMap.mix(key) & mask;
+        long k;
+        while ((k = keys[pos]) != 0) {
+            if (k == key)
+                return pos;
+            pos = (pos + 1) & mask;
+        }
+        keys[pos] = key;
+        if (++size >= maxFill) {
+            rehash(2 * (mask + 1));
+            return slot(key);
+        }
+        return pos;
+    }
+
+    /**
+     * Fills new arrays of the given capacity and then replaces the old ones; the fields are not published together,
+     * so {@link ConcurrentLongCompactArrayMap} only rehashes under its write lock
+     */
+    private void rehash(int capacity) {
+        int oldCapacity = mask + 1;
+        long[] newKeys = new long[capacity + 1];
+        int[] newOffsets = new int[capacity + 1];
+        float[][] newArrays = new float[capacity + 1][];
+        int newMask = capacity - 1;
+
+        for (int i = 0; i < oldCapacity; i++) {
+            long k = keys[i];
+            if (k != 0) {
+                int pos = LongFloatMap.mix(k) & newMask;
+                while (newKeys[pos] != 0)
+                    pos = (pos + 1) & newMask;
+                newKeys[pos] = k;
+                newOffsets[pos] = offsets[i];
+                newArrays[pos] = arrays[i];
+            }
+        }
+        newOffsets[capacity] = offsets[oldCapacity];
+        newArrays[capacity] = arrays[oldCapacity];
+
+        keys = newKeys;
+        offsets = newOffsets;
+        arrays = newArrays;
+        mask = newMask;
+        maxFill = (int) (capacity * LOAD_FACTOR);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of slots of the table, without the one of the zero key
+     */
+    int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * @return the key in the slot (0 for an empty slot); the slots of the subclasses may not be in {@link #keys}
+     */
+    long keyAt(int slot) {
+        return keys[slot];
+    }
+
+    /**
+     * @return a fresh array with all of the keys in the table
+     */
+    public long[] keys() {
+        long[] result = new long[size];
+        int index = 0;
+        if (containsZeroKey)
+            result[index++] = 0;
+        for (int i = 0; i <= mask; i++)
+            if (keys[i] != 0)
+                result[index++] = keys[i];
+        return result;
+    }
+}
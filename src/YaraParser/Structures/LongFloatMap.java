@@ -0,0 +1,204 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package YaraParser.Structures;
+
+import java.io.Serializable;
+
+/**
+ * An open-addressing hash table from primitive long keys to primitive float values.
+ * It is used for keeping the shift/reduce feature weights without boxing the keys or the values.
+ * <p/>
+ * The key 0 is kept in the extra slot at the end of the arrays, so that 0 can be used as the empty marker.
+ */
+
+public class LongFloatMap implements Serializable {
+    private static final long serialVersionUID = -4152898404585532809L;
+    private static final float LOAD_FACTOR = 0.75f;
+
+    long[] keys;
+    float[] values;
+    boolean containsZeroKey;
+    int mask;
+    int size;
+    int maxFill;
+
+    public LongFloatMap() {
+        this(16);
+    }
+
+    public LongFloatMap(int expectedSize) {
+        int capacity = tableSize(expectedSize);
+        keys = new long[capacity + 1];
+        values = new float[capacity + 1];
+        mask = capacity - 1;
+        maxFill = (int) (capacity * LOAD_FACTOR);
+    }
+
+    /**
+     * @return the smallest power of two that can keep the given number of keys under the load factor
+     */
+    static int tableSize(int expectedSize) {
+        int capacity = 2;
+        while (capacity * LOAD_FACTOR <= expectedSize)
+            capacity <<= 1;
+        return capacity;
+    }
+
+    /**
+     * Mixes the key bits for the table index: a multiplication by the 64-bit golden ratio (Fibonacci hashing)
+     * and then an xor of the higher bits into the lower ones
+     */
+    public static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 32;
+        h ^= h >>> 16;
+        return (int) h;
+    }
+
+    /**
+     * @return the slot of the key or -1 if the key is not in the table
+     */
+    int slot(long key) {
+        if (key == 0)
+            return containsZeroKey ? mask + 1 : -1;
+        int pos = mix(key) & mask;
+        long k;
+        while ((k = keys[pos]) != 0) {
+            if (k == key)
+                return pos;
+            pos = (pos + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the value of the key; zero if the key is not in the table
+     */
+    public float get(long key) {
+        if (key == 0)
+            return containsZeroKey ? values[mask + 1] : 0f;
+        int pos = mix(key) & mask;
+        long k;
+        while ((k = keys[pos]) != 0) {
+            if (k == key)
+                return values[pos];
+            pos = (pos + 1) & mask;
+        }
+        return 0f;
+    }
+
+    public boolean containsKey(long key) {
+        return slot(key) >= 0;
+    }
+
+    public void put(long key, float value) {
+        int pos = insert(key);
+        values[pos] = value;
+    }
+
+    /**
+     * Adds the change to the current value of the key (a missing key starts from zero)
+     */
+    public void add(long key, float change) {
+        int pos = insert(key);
+        values[pos] += change;
+    }
+
+    /**
+     * @return the slot of the key; a new zero-valued slot is made if the key is not in the table
+     */
+    private int insert(long key) {
+        if (key == 0) {
+            if (!containsZeroKey) {
+                containsZeroKey = true;
+                values[mask + 1] = 0f;
+                size++;
+            }
+            return mask + 1;
+        }
+        int pos = mix(key) & mask;
+        long k;
+        while ((k = keys[pos]) != 0) {
+            if (k == key)
+                return pos;
+            pos = (pos + 1) & mask;
+        }
+        keys[pos] = key;
+        values[pos] = 0f;
+        if (++size >= maxFill) {
+            rehash(2 * (mask + 1));
+            return slot(key);
+        }
+        return pos;
+    }
+
+    /**
+     * Fills new arrays of the given capacity and then replaces the old ones; the fields are not published together,
+     * so {@link ConcurrentLongFloatMap} only rehashes under its write lock
+     */
+    private void rehash(int capacity) {
+        int oldCapacity = mask + 1;
+        long[] newKeys = new long[capacity + 1];
+        float[] newValues = new float[capacity + 1];
+        int newMask = capacity - 1;
+
+        for (int i = 0; i < oldCapacity; i++) {
+            long k = keys[i];
+            if (k != 0) {
+                int pos = mix(k) & newMask;
+                while (newKeys[pos] != 0)
+                    pos = (pos + 1) & newMask;
+                newKeys[pos] = k;
+                newValues[pos] = values[i];
+            }
+        }
+        newValues[capacity] = values[oldCapacity];
+
+        keys = newKeys;
+        values = newValues;
+        mask = newMask;
+        maxFill = (int) (capacity * LOAD_FACTOR);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of slots of the table, without the one of the zero key
+     */
+    int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * @return the key in the slot (0 for an empty slot); the slots of the subclasses may not be in {@link #keys}
+     */
+    long keyAt(int slot) {
+        return keys[slot];
+    }
+
+    /**
+     * @return the value in the slot (0 for an empty slot)
+     */
+    float valueAt(int slot) {
+        return values[slot];
+    }
+
+    /**
+     * @return a fresh array with all of the keys in the table
+     */
+    public long[] keys() {
+        long[] result = new long[size];
+        int index = 0;
+        if (containsZeroKey)
+            result[index++] = 0;
+        for (int i = 0; i <= mask; i++)
+            if (keys[i] != 0)
+                result[index++] = keys[i];
+        return result;
+    }
+}
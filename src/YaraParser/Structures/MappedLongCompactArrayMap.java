@@ -0,0 +1,219 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package YaraParser.Structures;
+
+import java.io.IOException;
+import java.io.ObjectStreamException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A read-only {@link LongCompactArrayMap} whose tables are memory-mapped from a binary model file.
+ * All of the label vectors are kept one after another in one pool.
+ * <p/>
+ * Section layout (little-endian): capacity, size, flags, pool length (four ints); the scale and 0 (a float and an int)
+ * if the values are quantized; the keys (capacity+1 longs), the label offsets (capacity+1 ints), the pool start of each
+ * slot (capacity+2 ints; the last one is the pool length) and the pool (floats, shorts or bytes), padded to 8 bytes.
+ * The flags are the same as in {@link MappedLongFloatMap}.
+ */
+
+public class MappedLongCompactArrayMap extends LongCompactArrayMap {
+    private static final long serialVersionUID = 157121810348434325L;
+
+    private final LongBuffer mappedKeys;
+    private final IntBuffer mappedOffsets;
+    private final IntBuffer starts;
+    private final ByteBuffer pool;
+    private final int width;
+    private final float scale;
+
+    private MappedLongCompactArrayMap(ByteBuffer section, int capacity, int size, int flags, float scale) {
+        super(0);
+        this.mask = capacity - 1;
+        this.size = size;
+        this.containsZeroKey = (flags & 1) != 0;
+        this.width = MappedLongFloatMap.valueWidth(flags);
+        this.scale = scale;
+        int position = MappedLongFloatMap.headerSize(width);
+        mappedKeys = MappedLongFloatMap.slice(section, position).asLongBuffer();
+        position += 8 * (capacity + 1);
+        mappedOffsets = MappedLongFloatMap.slice(section, position).asIntBuffer();
+        position += 4 * (capacity + 1);
+        starts = MappedLongFloatMap.slice(section, position).asIntBuffer();
+        position += 4 * (capacity + 2);
+        pool = MappedLongFloatMap.slice(section, position);
+    }
+
+    /**
+     * Maps the section that starts at the given position of the file
+     *
+     * @return the map; its section length is given by {@link #sectionSize()}
+     */
+    public static MappedLongCompactArrayMap map(FileChannel channel, long position) throws IOException {
+        ByteBuffer header = MappedLongFloatMap.readHeader(channel, position, MappedLongFloatMap.HEADER_SIZE + MappedLongFloatMap.SCALE_SIZE);
+        int capacity = header.getInt(0);
+        int flags = header.getInt(8);
+        long length = sectionSize(capacity, header.getInt(12), MappedLongFloatMap.valueWidth(flags));
+        ByteBuffer section = channel.map(FileChannel.MapMode.READ_ONLY, position, length).order(ByteOrder.LITTLE_ENDIAN);
+        return new MappedLongCompactArrayMap(section, capacity, header.getInt(4), flags, header.getFloat(MappedLongFloatMap.HEADER_SIZE));
+    }
+
+    /**
+     * Writes the table as a section at the current position of the channel; the slots are read through
+     * {@link #keyAt(int)}, {@link #offset(int)} and {@link #array(int)}, so a mapped table can be written again
+     *
+     * @param bits 8 or 16 for quantized values with one scale for the table; 32 for floats
+     * @return the number of written bytes
+     */
+    public static long write(LongCompactArrayMap map, FileChannel channel, int bits) throws IOException {
+        int capacity = map.capacity();
+        int width = bits / 8;
+        float[][] arrays = new float[capacity + 1][];
+        int poolLength = 0;
+        float maxAbs = 0;
+        for (int i = 0; i <= capacity; i++) {
+            arrays[i] = map.array(i);
+            if (arrays[i] != null) {
+                poolLength += arrays[i].length;
+                for (float value : arrays[i])
+                    maxAbs = Math.max(maxAbs, Math.abs(value));
+            }
+        }
+        float scale = MappedLongFloatMap.scale(maxAbs, width);
+
+        ByteBuffer section = ByteBuffer.allocate((int) sectionSize(capacity, poolLength, width)).order(ByteOrder.LITTLE_ENDIAN);
+        section.putInt(capacity).putInt(map.size()).putInt(MappedLongFloatMap.flags(map.containsZeroKey, width)).putInt(poolLength);
+        if (width != 4)
+            section.putFloat(scale).putInt(0);
+        for (int i = 0; i <= capacity; i++)
+            section.putLong(map.keyAt(i));
+        for (int i = 0; i <= capacity; i++)
+            section.putInt(map.offset(i));
+        int start = 0;
+        for (int i = 0; i <= capacity; i++) {
+            section.putInt(start);
+            if (arrays[i] != null)
+                start += arrays[i].length;
+        }
+        section.putInt(start);
+        for (int i = 0; i <= capacity; i++)
+            if (arrays[i] != null)
+                for (float value : arrays[i])
+                    MappedLongFloatMap.putValue(section, width, scale, value);
+        section.clear();
+        while (section.hasRemaining())
+            channel.write(section);
+        return section.capacity();
+    }
+
+    static long sectionSize(int capacity, int poolLength, int width) {
+        return MappedLongFloatMap.pad(MappedLongFloatMap.headerSize(width) + 16L * (capacity + 1) + 4 + (long) width * poolLength);
+    }
+
+    /**
+     * @return the length of the section of this table in the model file
+     */
+    public long sectionSize() {
+        return sectionSize(mask + 1, starts.get(mask + 2), width);
+    }
+
+    @Override
+    public int slot(long key) {
+        if (key == 0)
+            return containsZeroKey ? mask + 1 : -1;
+        int pos = LongFloatMap.mix(key) & mask;
+        long k;
+        while ((k = mappedKeys.get(pos)) != 0) {
+            if (k == key)
+                return pos;
+            pos = (pos + 1) & mask;
+        }
+        return -1;
+    }
+
+    @Override
+    long keyAt(int slot) {
+        return mappedKeys.get(slot);
+    }
+
+    @Override
+    public int offset(int slot) {
+        return mappedOffsets.get(slot);
+    }
+
+    /**
+     * @return a heap copy of the vector of the slot (dequantized if the table is quantized)
+     */
+    @Override
+    public float[] array(int slot) {
+        int start = starts.get(slot);
+        float[] array = new float[starts.get(slot + 1) - start];
+        for (int j = 0; j < array.length; j++)
+            array[j] = MappedLongFloatMap.value(pool, width, scale, start + j);
+        return array;
+    }
+
+    @Override
+    public void addTo(long key, float[] scores) {
+        int pos = slot(key);
+        if (pos < 0)
+            return;
+        int offset = mappedOffsets.get(pos);
+        int start = starts.get(pos);
+        int length = starts.get(pos + 1) - start;
+        if (width == 4) {
+            for (int j = 0; j < length; j++)
+                scores[offset + j] += pool.getFloat((start + j) << 2);
+        } else {
+            for (int j = 0; j < length; j++)
+                scores[offset + j] += MappedLongFloatMap.value(pool, width, scale, start + j);
+        }
+    }
+
+    @Override
+    public void put(long key, int offset, float[] array) {
+        throw new UnsupportedOperationException("memory-mapped weights are read-only");
+    }
+
+    @Override
+    public void expandArray(long key, int index, float value) {
+        throw new UnsupportedOperationException("memory-mapped weights are read-only");
+    }
+
+    @Override
+    public long[] keys() {
+        long[] result = new long[size];
+        int index = 0;
+        if (containsZeroKey)
+            result[index++] = 0;
+        for (int i = 0; i <= mask; i++)
+            if (mappedKeys.get(i) != 0)
+                result[index++] = mappedKeys.get(i);
+        return result;
+    }
+
+    /**
+     * @return a heap copy of the table
+     */
+    public LongCompactArrayMap toHeap() {
+        LongCompactArrayMap map = new LongCompactArrayMap(size);
+        for (long key : keys()) {
+            int slot = slot(key);
+            map.put(key, offset(slot), array(slot));
+        }
+        return map;
+    }
+
+    /**
+     * The mapped buffers cannot be serialized; a heap copy is written instead
+     */
+    private Object writeReplace() throws ObjectStreamException {
+        return toHeap();
+    }
+}
@@ -0,0 +1,236 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package YaraParser.Structures;
+
+import java.io.IOException;
+import java.io.ObjectStreamException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A read-only {@link LongFloatMap} whose tables are memory-mapped from a binary model file.
+ * The keys are kept in the same slots as in the heap table, so the lookup probes the same way;
+ * the pages are shared by all of the processes that map the same file.
+ * <p/>
+ * Section layout (little-endian): capacity, size, flags, 0 (four ints); the scale and 0 (a float and an int) if the
+ * values are quantized; the keys (capacity+1 longs) and the values (capacity+1 floats, shorts or bytes),
+ * padded to 8 bytes. Bit 0 of the flags is set if the table contains the zero key and bits 8 to 15 keep the number of
+ * bits of a quantized value (0 for floats).
+ */
+
+public class MappedLongFloatMap extends LongFloatMap {
+    private static final long serialVersionUID = -3904430053432094211L;
+    static final int HEADER_SIZE = 16;
+    static final int SCALE_SIZE = 8;
+
+    private final LongBuffer mappedKeys;
+    private final ByteBuffer mappedValues;
+    private final int width;
+    private final float scale;
+
+    private MappedLongFloatMap(ByteBuffer section, int capacity, int size, int flags, float scale) {
+        super(0);
+        this.mask = capacity - 1;
+        this.size = size;
+        this.containsZeroKey = (flags & 1) != 0;
+        this.width = valueWidth(flags);
+        this.scale = scale;
+        int position = headerSize(width);
+        mappedKeys = slice(section, position).asLongBuffer();
+        mappedValues = slice(section, position + 8 * (capacity + 1));
+    }
+
+    /**
+     * Maps the section that starts at the given position of the file
+     *
+     * @return the map; its section length is given by {@link #sectionSize()}
+     */
+    public static MappedLongFloatMap map(FileChannel channel, long position) throws IOException {
+        ByteBuffer header = readHeader(channel, position, HEADER_SIZE + SCALE_SIZE);
+        int capacity = header.getInt(0);
+        int flags = header.getInt(8);
+        long length = sectionSize(capacity, valueWidth(flags));
+        ByteBuffer section = channel.map(FileChannel.MapMode.READ_ONLY, position, length).order(ByteOrder.LITTLE_ENDIAN);
+        return new MappedLongFloatMap(section, capacity, header.getInt(4), flags, header.getFloat(HEADER_SIZE));
+    }
+
+    /**
+     * Writes the table as a section at the current position of the channel; the slots are read through
+     * {@link #keyAt(int)} and {@link #valueAt(int)}, so a mapped table can be written again (e.g. quantized)
+     *
+     * @param bits 8 or 16 for quantized values with one scale for the table; 32 for floats
+     * @return the number of written bytes
+     */
+    public static long write(LongFloatMap map, FileChannel channel, int bits) throws IOException {
+        int capacity = map.capacity();
+        int width = bits / 8;
+        float maxAbs = 0;
+        for (int i = 0; i <= capacity; i++)
+            maxAbs = Math.max(maxAbs, Math.abs(map.valueAt(i)));
+        float scale = scale(maxAbs, width);
+
+        ByteBuffer section = ByteBuffer.allocate((int) sectionSize(capacity, width)).order(ByteOrder.LITTLE_ENDIAN);
+        section.putInt(capacity).putInt(map.size()).putInt(flags(map.containsZeroKey, width)).putInt(0);
+        if (width != 4)
+            section.putFloat(scale).putInt(0);
+        for (int i = 0; i <= capacity; i++)
+            section.putLong(map.keyAt(i));
+        for (int i = 0; i <= capacity; i++)
+            putValue(section, width, scale, map.valueAt(i));
+        section.clear();
+        while (section.hasRemaining())
+            channel.write(section);
+        return section.capacity();
+    }
+
+    /**
+     * @return the length of the section of this table in the model file
+     */
+    public long sectionSize() {
+        return sectionSize(mask + 1, width);
+    }
+
+    static long sectionSize(int capacity, int width) {
+        return pad(headerSize(width) + (8L + width) * (capacity + 1));
+    }
+
+    static int headerSize(int width) {
+        return width == 4 ? HEADER_SIZE : HEADER_SIZE + SCALE_SIZE;
+    }
+
+    static int flags(boolean containsZeroKey, int width) {
+        return (containsZeroKey ? 1 : 0) | (width == 4 ? 0 : (8 * width) << 8);
+    }
+
+    /**
+     * @return the number of bytes of each value: 1 or 2 for quantized values, otherwise 4
+     */
+    static int valueWidth(int flags) {
+        int bits = (flags >>> 8) & 0xFF;
+        return bits == 0 ? 4 : bits / 8;
+    }
+
+    /**
+     * @return the scale that maps the largest absolute weight to the largest quantized value
+     */
+    static float scale(float maxAbs, int width) {
+        if (width == 1)
+            return maxAbs / Byte.MAX_VALUE;
+        if (width == 2)
+            return maxAbs / Short.MAX_VALUE;
+        return 1f;
+    }
+
+    static void putValue(ByteBuffer buffer, int width, float scale, float value) {
+        if (width == 4) {
+            buffer.putFloat(value);
+            return;
+        }
+        int quantized = scale == 0 ? 0 : Math.round(value / scale);
+        if (width == 1)
+            buffer.put((byte) Math.max(-Byte.MAX_VALUE, Math.min(Byte.MAX_VALUE, quantized)));
+        else
+            buffer.putShort((short) Math.max(-Short.MAX_VALUE, Math.min(Short.MAX_VALUE, quantized)));
+    }
+
+    static float value(ByteBuffer values, int width, float scale, int index) {
+        if (width == 4)
+            return values.getFloat(index << 2);
+        if (width == 2)
+            return values.getShort(index << 1) * scale;
+        return values.get(index) * scale;
+    }
+
+    static long pad(long length) {
+        return (length + 7) & ~7L;
+    }
+
+    static ByteBuffer readHeader(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (header.hasRemaining()) {
+            if (channel.read(header, position + header.position()) < 0)
+                throw new IOException("unexpected end of the model file");
+        }
+        return header;
+    }
+
+    static ByteBuffer slice(ByteBuffer buffer, int position) {
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position(position);
+        return duplicate.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Override
+    int slot(long key) {
+        if (key == 0)
+            return containsZeroKey ? mask + 1 : -1;
+        int pos = mix(key) & mask;
+        long k;
+        while ((k = mappedKeys.get(pos)) != 0) {
+            if (k == key)
+                return pos;
+            pos = (pos + 1) & mask;
+        }
+        return -1;
+    }
+
+    @Override
+    long keyAt(int slot) {
+        return mappedKeys.get(slot);
+    }
+
+    @Override
+    float valueAt(int slot) {
+        return value(mappedValues, width, scale, slot);
+    }
+
+    @Override
+    public float get(long key) {
+        int pos = slot(key);
+        return pos < 0 ? 0f : value(mappedValues, width, scale, pos);
+    }
+
+    @Override
+    public void put(long key, float value) {
+        throw new UnsupportedOperationException("memory-mapped weights are read-only");
+    }
+
+    @Override
+    public void add(long key, float change) {
+        throw new UnsupportedOperationException("memory-mapped weights are read-only");
+    }
+
+    @Override
+    public long[] keys() {
+        long[] result = new long[size];
+        int index = 0;
+        if (containsZeroKey)
+            result[index++] = 0;
+        for (int i = 0; i <= mask; i++)
+            if (mappedKeys.get(i) != 0)
+                result[index++] = mappedKeys.get(i);
+        return result;
+    }
+
+    /**
+     * @return a heap copy of the table (with the dequantized values of a quantized table)
+     */
+    public LongFloatMap toHeap() {
+        LongFloatMap map = new LongFloatMap(size);
+        for (long key : keys())
+            map.put(key, get(key));
+        return map;
+    }
+
+    /**
+     * The mapped buffers cannot be serialized; a heap copy is written instead
+     */
+    private Object writeReplace() throws ObjectStreamException {
+        return toHeap();
+    }
+}
@@ -0,0 +1,190 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package YaraParser.TransitionBasedSystem.Configuration;
+
+/**
+ * Keeps the best beamWidth candidates of one beam step in parallel primitive arrays, so that nothing is allocated
+ * for a candidate. It keeps the same candidates, in the same order, as a bounded TreeSet of {@link BeamElement}:
+ * the candidates are ordered by score, then by the smaller beam index and then by the smaller action, and a candidate
+ * that ties with a kept one in all three (the same action of the same item with another label) is dropped.
+ * <p/>
+ * The candidates are kept sorted (the worst first) instead of in a heap, so that the same binary search both finds
+ * the place of a new candidate and drops such ties; most candidates are rejected by one comparison with the worst one.
+ * <p/>
+ * The labels of an arc can be added together with {@link #addArcs}, which skips the labels that cannot enter the beam
+ * and can keep only the best labels of each arc.
+ */
+
+public class BeamSelector {
+    private float[] scores;
+    private int[] numbers;
+    private int[] actions;
+    private int[] labels;
+    private int beamWidth;
+    private int size;
+    private int[] bestLabels;
+
+    public BeamSelector(int beamWidth) {
+        scores = new float[beamWidth];
+        numbers = new int[beamWidth];
+        actions = new int[beamWidth];
+        labels = new int[beamWidth];
+        this.beamWidth = beamWidth;
+    }
+
+    /**
+     * Removes all of the candidates, for the next beam step
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Adds the candidate if it is one of the best beamWidth candidates so far
+     *
+     * @param number the index of the configuration in the beam
+     * @param action 0=shift, 1=reduce, 2=right-arc, 3=left-arc, 4=unshift
+     * @param label  the dependency label of an arc; -1 otherwise
+     */
+    public void add(float score, int number, int action, int label) {
+        if (size == beamWidth && compare(score, number, action, 0) <= 0)
+            return;
+
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            int comparison = compare(score, number, action, middle);
+            if (comparison == 0)
+                return;
+            if (comparison < 0)
+                high = middle;
+            else
+                low = middle + 1;
+        }
+
+        int position;
+        if (size == beamWidth) {
+            // the worst candidate is dropped
+            position = low - 1;
+            System.arraycopy(scores, 1, scores, 0, position);
+            System.arraycopy(numbers, 1, numbers, 0, position);
+            System.arraycopy(actions, 1, actions, 0, position);
+            System.arraycopy(labels, 1, labels, 0, position);
+        } else {
+            position = low;
+            System.arraycopy(scores, position, scores, position + 1, size - position);
+            System.arraycopy(numbers, position, numbers, position + 1, size - position);
+            System.arraycopy(actions, position, actions, position + 1, size - position);
+            System.arraycopy(labels, position, labels, position + 1, size - position);
+            size++;
+        }
+        scores[position] = score;
+        numbers[position] = number;
+        actions[position] = action;
+        labels[position] = label;
+    }
+
+    /**
+     * Adds the arc candidates of one configuration: the score of each label plus the score of the configuration,
+     * in the order of the dependencies. A label whose score is below the worst kept candidate of a full beam is skipped,
+     * because it cannot enter the beam.
+     *
+     * @param topLabels if more than zero, only the best topLabels labels are candidates (an approximation);
+     *                  they are added from the best one, so the rest are skipped after the first one that cannot enter
+     */
+    public void addArcs(float prevScore, int number, int action, float[] labelScores, int[] dependencies, int topLabels) {
+        if (topLabels > 0 && topLabels < dependencies.length) {
+            if (bestLabels == null || bestLabels.length < topLabels)
+                bestLabels = new int[topLabels];
+            int count = bestLabels(labelScores, dependencies, topLabels, bestLabels);
+            for (int i = 0; i < count; i++) {
+                int dependency = bestLabels[i];
+                float addedScore = labelScores[dependency] + prevScore;
+                if (size == beamWidth && addedScore < scores[0])
+                    break;
+                add(addedScore, number, action, dependency);
+            }
+            return;
+        }
+        for (int dependency : dependencies) {
+            float addedScore = labelScores[dependency] + prevScore;
+            if (size < beamWidth || addedScore >= scores[0])
+                add(addedScore, number, action, dependency);
+        }
+    }
+
+    /**
+     * Writes the topLabels labels with the highest scores into best, from the best one
+     * (of the labels with the same score, the first one in dependencies comes first)
+     *
+     * @return the number of written labels
+     */
+    public static int bestLabels(float[] labelScores, int[] dependencies, int topLabels, int[] best) {
+        int count = 0;
+        for (int dependency : dependencies) {
+            float score = labelScores[dependency];
+            if (count == topLabels && score <= labelScores[best[count - 1]])
+                continue;
+            int position = count == topLabels ? count - 1 : count++;
+            while (position > 0 && labelScores[best[position - 1]] < score) {
+                best[position] = best[position - 1];
+                position--;
+            }
+            best[position] = dependency;
+        }
+        return count;
+    }
+
+    /**
+     * Adds the candidates of another selector, e.g. of another slice of the same beam
+     */
+    public void addAll(BeamSelector other) {
+        for (int i = other.size - 1; i >= 0; i--)
+            add(other.scores[i], other.numbers[i], other.actions[i], other.labels[i]);
+    }
+
+    public void add(BeamElement element) {
+        add(element.score, element.number, element.action, element.label);
+    }
+
+    /**
+     * The same order as {@link BeamElement#compareTo(BeamElement)} of the candidate against the kept candidate i
+     */
+    private int compare(float score, int number, int action, int i) {
+        float diff = score - scores[i];
+        if (diff > 0)
+            return 2;
+        if (diff < 0)
+            return -2;
+        if (number != numbers[i])
+            return numbers[i] - number;
+        return actions[i] - action;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * The candidates are numbered from the best (0) to the worst (size - 1)
+     */
+    public float score(int rank) {
+        return scores[size - 1 - rank];
+    }
+
+    public int number(int rank) {
+        return numbers[size - 1 - rank];
+    }
+
+    public int action(int rank) {
+        return actions[size - 1 - rank];
+    }
+
+    public int label(int rank) {
+        return labels[size - 1 - rank];
+    }
+}
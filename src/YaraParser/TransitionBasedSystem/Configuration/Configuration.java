@@ -8,29 +8,59 @@ package YaraParser.TransitionBasedSystem.Configuration;
 import YaraParser.Structures.Sentence;
 
 import java.io.Serializable;
-import java.util.ArrayList;
 
+/**
+ * A parser configuration; {@link #clone()} takes constant time, because the state is persistent and the action history
+ * is a list of back-pointers that is shared with the earlier configurations.
+ */
 public class Configuration implements Comparable, Cloneable, Serializable {
     public Sentence sentence;
 
     public State state;
 
-    public ArrayList<Integer> actionHistory;
+    /**
+     * The last action; it points back to the earlier ones
+     */
+    private Action lastAction;
 
     public float score;
 
+    /**
+     * The nodes are not changed once they are set; they are only set again when a {@link StateArena} reuses them.
+     * They are not serializable, as {@link State} is not.
+     */
+    static final class Action {
+        int action;
+        Action previous;
+        int size;
+        /**
+         * The sum of (action << index) over the history, for {@link #hashCode()}
+         */
+        int hash;
+
+        Action set(int action, Action previous) {
+            this.action = action;
+            this.previous = previous;
+            int index = previous == null ? 0 : previous.size;
+            this.size = index + 1;
+            this.hash = (previous == null ? 0 : previous.hash) + (action << index);
+            return this;
+        }
+    }
+
     public Configuration(Sentence sentence, boolean rootFirst) {
         this.sentence = sentence;
         state = new State(sentence.size(), rootFirst);
         score = (float) 0.0;
-        actionHistory = new ArrayList<Integer>(2 * (sentence.size() + 1));
     }
 
     public Configuration(Sentence sentence) {
         this.sentence = sentence;
         state = new State(sentence.size());
         score = (float) 0.0;
-        actionHistory = new ArrayList<Integer>(2 * (sentence.size() + 1));
+    }
+
+    Configuration() {
     }
 
     /**
@@ -54,7 +84,24 @@ public class Configuration implements Comparable, Cloneable, Serializable {
     }
 
     public void addAction(int action) {
-        actionHistory.add(action);
+        lastAction = (state.arena == null ? new Action() : state.arena.action()).set(action, lastAction);
+    }
+
+    /**
+     * @return the number of done actions
+     */
+    public int historySize() {
+        return lastAction == null ? 0 : lastAction.size;
+    }
+
+    /**
+     * @return the done actions, from the first one
+     */
+    public int[] actionHistory() {
+        int[] history = new int[historySize()];
+        for (Action action = lastAction; action != null; action = action.previous)
+            history[action.size - 1] = action.action;
+        return history;
     }
 
     @Override
@@ -80,10 +127,11 @@ public class Configuration implements Comparable, Cloneable, Serializable {
             Configuration configuration = (Configuration) o;
             if (configuration.score != score)
                 return false;
-            if (configuration.actionHistory.size() != actionHistory.size())
+            if (configuration.historySize() != historySize())
                 return false;
-            for (int i = 0; i < actionHistory.size(); i++)
-                if (!actionHistory.get(i).equals(configuration.actionHistory.get(i)))
+            Action other = configuration.lastAction;
+            for (Action action = lastAction; action != other; action = action.previous, other = other.previous)
+                if (action.action != other.action)
                     return false;
             return true;
         }
@@ -92,26 +140,52 @@ public class Configuration implements Comparable, Cloneable, Serializable {
 
     @Override
     public Configuration clone() {
-        Configuration configuration = new Configuration(sentence);
+        Configuration configuration = new Configuration();
+        configuration.sentence = sentence;
+        configuration.lastAction = lastAction;
+        configuration.score = score;
+        configuration.state = state.clone();
 
-        ArrayList<Integer> history = new ArrayList<Integer>(actionHistory.size());
-        for (int i = 0; i < actionHistory.size(); i++)
-            history.add(actionHistory.get(i));
+        return configuration;
+    }
+
+    /**
+     * Makes this configuration the initial configuration of the sentence
+     */
+    void reset(Sentence sentence, boolean rootFirst) {
+        this.sentence = sentence;
+        lastAction = null;
+        score = (float) 0.0;
+        state.reset(sentence.size(), rootFirst);
+    }
 
-        configuration.actionHistory = history;
+    /**
+     * Makes this configuration the same as the other one, with its own state object
+     */
+    void copy(Configuration other) {
+        sentence = other.sentence;
+        lastAction = other.lastAction;
+        score = other.score;
+        state.copy(other.state);
+    }
 
+    /**
+     * @return a copy whose history and state are all on the heap, so that it does not depend on an arena
+     */
+    Configuration detach() {
+        Configuration configuration = new Configuration();
+        configuration.sentence = sentence;
         configuration.score = score;
-        configuration.state = state.clone();
-
+        configuration.state = state.detach();
+        int[] history = actionHistory();
+        for (int action : history)
+            configuration.lastAction = new Action().set(action, configuration.lastAction);
         return configuration;
     }
 
     @Override
     public int hashCode() {
-        int hashCode = 0;
-        int i = 0;
-        for (int action : actionHistory)
-            hashCode += action << i++;
+        int hashCode = lastAction == null ? 0 : lastAction.hash;
         hashCode += score;
         return hashCode;
     }
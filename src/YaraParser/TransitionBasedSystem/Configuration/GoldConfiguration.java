@@ -18,6 +18,13 @@ public class GoldConfiguration {
     protected HashMap<Integer, Pair<Integer, Integer>> goldDependencies;
     protected HashMap<Integer, HashSet<Integer>> reversedDependencies;
     protected Sentence sentence;
+    /**
+     * The gold head and label of each position (-1 if it has none) and its number of gold dependents,
+     * for the oracles without boxing
+     */
+    protected int[] goldHeads;
+    protected int[] goldLabels;
+    protected int[] goldDependentCounts;
 
     public GoldConfiguration(Sentence sentence, HashMap<Integer, Pair<Integer, Integer>> goldDependencies) {
         this.goldDependencies = new HashMap<Integer, Pair<Integer, Integer>>();
@@ -31,6 +38,23 @@ public class GoldConfiguration {
             reversedDependencies.get(head).add(dependent);
         }
         this.sentence = sentence;
+
+        int length = sentence.size() + 2;
+        for (int dependent : goldDependencies.keySet())
+            length = Math.max(length, Math.max(dependent, goldDependencies.get(dependent).first) + 1);
+        goldHeads = new int[length];
+        goldLabels = new int[length];
+        goldDependentCounts = new int[length];
+        for (int i = 0; i < length; i++) {
+            goldHeads[i] = -1;
+            goldLabels[i] = -1;
+        }
+        for (int dependent : goldDependencies.keySet()) {
+            Pair<Integer, Integer> headLabel = goldDependencies.get(dependent);
+            goldHeads[dependent] = headLabel.first;
+            goldLabels[dependent] = headLabel.second;
+            goldDependentCounts[headLabel.first]++;
+        }
     }
 
 
@@ -39,9 +63,34 @@ public class GoldConfiguration {
     }
 
     public int head(int dependent) {
-        if (!goldDependencies.containsKey(dependent))
+        if (dependent < 0 || dependent >= goldHeads.length)
+            return -1;
+        return goldHeads[dependent];
+    }
+
+    /**
+     * @return true if head->dependent is a gold arc
+     */
+    public boolean isGoldArc(int head, int dependent) {
+        return head >= 0 && dependent >= 0 && dependent < goldHeads.length && goldHeads[dependent] == head;
+    }
+
+    /**
+     * @return the gold label of the dependent, or -1 if it has no gold head
+     */
+    public int goldLabel(int dependent) {
+        if (dependent < 0 || dependent >= goldLabels.length)
             return -1;
-        return goldDependencies.get(dependent).first;
+        return goldLabels[dependent];
+    }
+
+    /**
+     * @return the number of gold dependents of the head
+     */
+    public int goldDependentCount(int head) {
+        if (head < 0 || head >= goldDependentCounts.length)
+            return 0;
+        return goldDependentCounts[head];
     }
 
     public String relation(int dependent) {
@@ -113,23 +162,21 @@ public class GoldConfiguration {
             int bufferHead = state.bufferHead();
             int stackHead = state.peek();
 
-            if (goldDependencies.containsKey(stackHead) && goldDependencies.get(stackHead).first == bufferHead
-                    && goldDependencies.get(stackHead).second != (dependency))
+            if (isGoldArc(bufferHead, stackHead) && goldLabels[stackHead] != dependency)
                 cost += 1;
         } else if (action == Actions.RightArc && cost == 0) { //right arc
             int bufferHead = state.bufferHead();
             int stackHead = state.peek();
-            if (goldDependencies.containsKey(bufferHead) && goldDependencies.get(bufferHead).first == stackHead
-                    && goldDependencies.get(bufferHead).second != (dependency))
+            if (isGoldArc(stackHead, bufferHead) && goldLabels[bufferHead] != dependency)
                 cost += 1;
         }
 
         if (action == Actions.Shift && cost == 0) { //shift
             int bufferHead = state.bufferHead();
             for (int stackItem : state.getStack()) {
-                if (goldDependencies.containsKey(stackItem) && goldDependencies.get(stackItem).first == (bufferHead))
+                if (isGoldArc(bufferHead, stackItem))
                     cost += 1;
-                if (goldDependencies.containsKey(bufferHead) && goldDependencies.get(bufferHead).first == (stackItem))
+                if (isGoldArc(stackItem, bufferHead))
                     cost += 1;
             }
 
@@ -137,16 +184,16 @@ public class GoldConfiguration {
             int stackHead = state.peek();
             if (!state.bufferEmpty())
                 for (int bufferItem = state.bufferHead(); bufferItem <= state.maxSentenceSize; bufferItem++) {
-                    if (goldDependencies.containsKey(bufferItem) && goldDependencies.get(bufferItem).first == (stackHead))
+                    if (isGoldArc(stackHead, bufferItem))
                         cost += 1;
                 }
         } else if (action == Actions.LeftArc && cost == 0) { //left arc
             int stackHead = state.peek();
             if (!state.bufferEmpty())
                 for (int bufferItem = state.bufferHead(); bufferItem <= state.maxSentenceSize; bufferItem++) {
-                    if (goldDependencies.containsKey(bufferItem) && goldDependencies.get(bufferItem).first == (stackHead))
+                    if (isGoldArc(stackHead, bufferItem))
                         cost += 1;
-                    if (goldDependencies.containsKey(stackHead) && goldDependencies.get(stackHead).first == (bufferItem))
+                    if (isGoldArc(bufferItem, stackHead))
                         if (bufferItem != state.bufferHead())
                             cost += 1;
                 }
@@ -154,16 +201,16 @@ public class GoldConfiguration {
             int stackHead = state.peek();
             int bufferHead = state.bufferHead();
             for (int stackItem : state.getStack()) {
-                if (goldDependencies.containsKey(bufferHead) && goldDependencies.get(bufferHead).first == (stackItem))
+                if (isGoldArc(stackItem, bufferHead))
                     if (stackItem != stackHead)
                         cost += 1;
 
-                if (goldDependencies.containsKey(stackItem) && goldDependencies.get(stackItem).first == (bufferHead))
+                if (isGoldArc(bufferHead, stackItem))
                     cost += 1;
             }
             if (!state.bufferEmpty())
                 for (int bufferItem = state.bufferHead(); bufferItem <= state.maxSentenceSize; bufferItem++) {
-                    if (goldDependencies.containsKey(bufferHead) && goldDependencies.get(bufferHead).first == (bufferItem))
+                    if (isGoldArc(bufferItem, bufferHead))
                         cost += 1;
                 }
         }
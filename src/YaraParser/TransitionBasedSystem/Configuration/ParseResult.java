@@ -0,0 +1,86 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package YaraParser.TransitionBasedSystem.Configuration;
+
+import YaraParser.Structures.IndexMaps;
+
+import java.io.Serializable;
+
+/**
+ * The arcs and the score of a parse, without its state, history and sentence: two arrays of the sentence length.
+ * The words are numbered from 1 and the root is 0, as in the CoNLL files, whether the model puts the root first or
+ * last. It is not changed once it is made.
+ */
+
+public final class ParseResult implements Serializable {
+    private static final long serialVersionUID = 6288213924472363013L;
+
+    private final int[] heads;
+    private final int[] labels;
+    private final float score;
+
+    /**
+     * Takes the arcs of the configuration (e.g. the best one of a beam, which may be reused afterwards)
+     */
+    public ParseResult(Configuration configuration) {
+        State state = configuration.state;
+        int size = configuration.sentence.size() - (state.rootIndex == 0 ? 0 : 1);
+        heads = new int[size];
+        labels = new int[size];
+        for (int word = 1; word <= size; word++) {
+            int head = state.getHead(word);
+            heads[word - 1] = head == state.rootIndex ? 0 : head;
+            labels[word - 1] = state.getDependency(word);
+        }
+        score = configuration.score;
+    }
+
+    /**
+     * @return the number of words
+     */
+    public int size() {
+        return heads.length;
+    }
+
+    /**
+     * @return the head of the word (from 1), 0 for the root or -1 if it has none
+     */
+    public int head(int word) {
+        return heads[word - 1];
+    }
+
+    /**
+     * @return the label id of the arc of the word (from 1), or -1 if it has none
+     */
+    public int label(int word) {
+        return labels[word - 1];
+    }
+
+    /**
+     * @return the label of the arc of the word as parse_conll writes it
+     */
+    public String labelName(int word, IndexMaps maps) {
+        return head(word) == 0 ? maps.rootString : maps.revWords[label(word)];
+    }
+
+    /**
+     * @return a copy of the heads of the words
+     */
+    public int[] heads() {
+        return heads.clone();
+    }
+
+    /**
+     * @return a copy of the label ids of the words
+     */
+    public int[] labels() {
+        return labels.clone();
+    }
+
+    public float score() {
+        return score;
+    }
+}
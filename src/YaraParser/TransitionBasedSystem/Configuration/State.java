@@ -5,10 +5,23 @@
 
 package YaraParser.TransitionBasedSystem.Configuration;
 
-import YaraParser.Accessories.Pair;
-
-import java.util.ArrayDeque;
+import java.util.NoSuchElementException;
 
+/**
+ * A persistent parser state: {@link #clone()} copies a few fields and the copies share the rest, so that expanding a
+ * beam item does not copy anything of the length of the sentence.
+ * <p/>
+ * The stack is a linked list of immutable nodes; each node keeps the {@link TokenArcs} (head, label and dependents) of
+ * its token and so does the state for the head of the buffer. Adding an arc replaces these records of the two tokens and
+ * puts the arc in front of a linked list of all of the arcs, which is shared with the earlier states. The dependents of a
+ * token are thus known while it is on the stack or at the head of the buffer, where the transitions and the features
+ * use them. The features only ask for s0 (the top node), b0, the head of s0 (the node below s0) and the labels of the
+ * outer modifiers of s0 and b0 (kept in their records), so they never walk the stack or the arc list. The head and
+ * label of any other token are found in the arc list (in a terminal state, the whole tree is put into arrays on the
+ * first such lookup).
+ * <p/>
+ * The nodes of the states of the decoder come from a {@link StateArena} and are reused by the next sentence.
+ */
 public class State implements Cloneable {
     public int rootIndex;
     public int maxSentenceSize;
@@ -22,39 +35,77 @@ public class State implements Cloneable {
     protected boolean emptyFlag;
 
     /**
-     * Keeps dependent->head information
+     * The nodes are not changed once they are set; they are only set again when a {@link StateArena} reuses them
+     */
+    static final class StackNode {
+        int token;
+        TokenArcs arcs;
+        StackNode next;
+        int size;
+
+        StackNode set(int token, TokenArcs arcs, StackNode next) {
+            this.token = token;
+            this.arcs = arcs;
+            this.next = next;
+            this.size = next == null ? 1 : next.size + 1;
+            return this;
+        }
+    }
+
+    static final class Arc {
+        int dependent;
+        int head;
+        int dependency;
+        Arc next;
+
+        Arc set(int dependent, int head, int dependency, Arc next) {
+            this.dependent = dependent;
+            this.head = head;
+            this.dependency = dependency;
+            this.next = next;
+            return this;
+        }
+    }
+
+    /**
+     * The arena of the nodes of this state, or null if they are allocated on the heap
+     */
+    StateArena arena;
+
+    /**
+     * The number of tokens (with ROOT)
+     */
+    private int size;
+    private StackNode stack;
+    private TokenArcs bufferArcs;
+    /**
+     * Keeps the dependent->head arcs, the last one first
      */
-    protected Pair<Integer, Integer>[] arcs;
-    protected int[] leftMostArcs;
-    protected int[] rightMostArcs;
-    protected int[] secondLeftMostArcs;
-    protected int[] secondRightMostArcs;
-    protected int[] leftValency;
-    protected int[] rightValency;
-    protected long[] rightDepLabels;
-    protected long[] leftDepLabels;
-    protected ArrayDeque<Integer> stack;
+    private Arc arcs;
+    /**
+     * The last popped node, for moving its token back to the buffer in unshift
+     */
+    private StackNode popped;
+    /**
+     * The tree of a terminal state in arrays (null until it is needed)
+     */
+    private int[] heads;
+    private int[] labels;
     int bufferH;
 
     public State(int size) {
         emptyFlag = false;
-        stack = new ArrayDeque<Integer>();
-        arcs = new Pair[size + 1];
-
-        leftMostArcs = new int[size + 1];
-        secondLeftMostArcs = new int[size + 1];
-        rightMostArcs = new int[size + 1];
-        secondRightMostArcs = new int[size + 1];
-        leftValency = new int[size + 1];
-        rightValency = new int[size + 1];
-        rightDepLabels = new long[size + 1];
-        leftDepLabels = new long[size + 1];
+        this.size = size + 1;
+        bufferArcs = TokenArcs.EMPTY;
 
         rootIndex = 0;
         bufferH = 1;
         maxSentenceSize = 0;
     }
 
+    State() {
+    }
+
     /**
      * @param sentenceSize
      * @param rootFirst    if true, the ROOT token will be the first token, otherwise it will be the last one!
@@ -62,7 +113,7 @@ public class State implements Cloneable {
     public State(int sentenceSize, boolean rootFirst) {
         this(sentenceSize);
         if (rootFirst) {
-            stack.push(0);
+            push(0);
             rootIndex = 0;
             maxSentenceSize = sentenceSize;
         } else {
@@ -71,53 +122,107 @@ public class State implements Cloneable {
         }
     }
 
-    public ArrayDeque<Integer> getStack() {
-        return stack;
+    /**
+     * Makes this state the initial state of a sentence, like {@link #State(int, boolean)}
+     */
+    void reset(int sentenceSize, boolean rootFirst) {
+        emptyFlag = false;
+        size = sentenceSize + 1;
+        stack = null;
+        bufferArcs = TokenArcs.EMPTY;
+        arcs = null;
+        popped = null;
+        heads = null;
+        labels = null;
+        bufferH = 1;
+        rootIndex = rootFirst ? 0 : sentenceSize;
+        maxSentenceSize = sentenceSize;
+        if (rootFirst)
+            push(0);
+    }
+
+    /**
+     * @return the stack items from the top one
+     */
+    public int[] getStack() {
+        int[] items = new int[stackSize()];
+        int i = 0;
+        for (StackNode node = stack; node != null; node = node.next)
+            items[i++] = node.token;
+        return items;
     }
 
     public int pop() throws Exception {
-        return stack.pop();
+        if (stack == null)
+            throw new NoSuchElementException();
+        popped = stack;
+        stack = stack.next;
+        return popped.token;
     }
 
     public void push(int index) {
-        stack.push(index);
+        stack = stackNode().set(index, index == bufferH ? bufferArcs : TokenArcs.EMPTY, stack);
     }
 
     public void addArc(int dependent, int head, int dependency) {
-        arcs[dependent] = new Pair<Integer, Integer>(head, dependency);
-        long value = 1L << (dependency);
-        
         assert dependency<64;
 
-        if (dependent > head) { //right dep
-            if (rightMostArcs[head] == 0 )
-                rightMostArcs[head] = dependent;
-            else if(dependent > rightMostArcs[head]){
-                secondRightMostArcs[head] = rightMostArcs[head];
-                rightMostArcs[head] = dependent;
-            } else if(dependent > secondRightMostArcs[head])
-                secondRightMostArcs[head] = dependent;
-            rightValency[head] += 1;
-            rightDepLabels[head] = rightDepLabels[head] | value;
-        } else { //left dependency
-            if (leftMostArcs[head] == 0 )
-                leftMostArcs[head] = dependent;
-            else if(dependent < leftMostArcs[head]){
-                secondLeftMostArcs[head] = leftMostArcs[head];
-                leftMostArcs[head] = dependent;
-            } else if(dependent<secondLeftMostArcs[head])
-                secondLeftMostArcs[head] = dependent;
-            leftDepLabels[head] = leftDepLabels[head] | value;
-            leftValency[head] += 1;
-        }
+        arcs = (arena == null ? new Arc() : arena.arc()).set(dependent, head, dependency, arcs);
+        heads = null;
+        labels = null;
+
+        TokenArcs dependentArcs = tokenArcs(dependent);
+        if (dependentArcs != null)
+            setTokenArcs(dependent, tokenArcs().setHead(dependentArcs, head, dependency));
+        TokenArcs headArcs = tokenArcs(head);
+        if (headArcs != null)
+            setTokenArcs(head, tokenArcs().setDependent(headArcs, head, dependent, dependency));
+    }
+
+    /**
+     * @return the arcs of the token if it is at the head of the buffer or on the stack, otherwise null
+     */
+    private TokenArcs tokenArcs(int index) {
+        if (index == bufferH && bufferH >= 0)
+            return bufferArcs;
+        for (StackNode node = stack; node != null; node = node.next)
+            if (node.token == index)
+                return node.arcs;
+        return null;
+    }
+
+    private void setTokenArcs(int index, TokenArcs tokenArcs) {
+        if (index == bufferH && bufferH >= 0)
+            bufferArcs = tokenArcs;
+        else
+            stack = replace(stack, index, tokenArcs);
+    }
+
+    /**
+     * @return the stack with new nodes down to the node of the token
+     */
+    private StackNode replace(StackNode node, int index, TokenArcs tokenArcs) {
+        if (node.token == index)
+            return stackNode().set(index, tokenArcs, node.next);
+        return stackNode().set(node.token, node.arcs, replace(node.next, index, tokenArcs));
+    }
+
+    private StackNode stackNode() {
+        return arena == null ? new StackNode() : arena.stackNode();
+    }
+
+    private TokenArcs tokenArcs() {
+        return arena == null ? new TokenArcs() : arena.tokenArcs();
     }
 
     public long rightDependentLabels(int position) {
-        return rightDepLabels[position];
+        TokenArcs tokenArcs = tokenArcs(position);
+        return tokenArcs == null ? 0 : tokenArcs.rightLabels;
     }
 
     public long leftDependentLabels(int position) {
-        return leftDepLabels[position];
+        TokenArcs tokenArcs = tokenArcs(position);
+        return tokenArcs == null ? 0 : tokenArcs.leftLabels;
     }
 
     public boolean isEmptyFlag() {
@@ -133,8 +238,8 @@ public class State implements Cloneable {
     }
 
     public int peek() {
-        if (stack.size() > 0)
-            return stack.peek();
+        if (stack != null)
+            return stack.token;
         return -1;
     }
 
@@ -143,11 +248,11 @@ public class State implements Cloneable {
     }
 
     public boolean isTerminalState() {
-        return bufferEmpty() && stackEmpty() || stack.size() == 0 && bufferH == rootIndex;
+        return bufferEmpty() && stackEmpty() || stack == null && bufferH == rootIndex;
     }
 
     public boolean hasHead(int dependent) {
-        return arcs[dependent] != null;
+        return getHead(dependent) != -1;
     }
 
     public boolean bufferEmpty() {
@@ -155,7 +260,7 @@ public class State implements Cloneable {
     }
 
     public boolean stackEmpty() {
-        return stack.size() == 0;
+        return stack == null;
     }
 
     public int bufferSize() {
@@ -165,23 +270,59 @@ public class State implements Cloneable {
     }
 
     public int stackSize() {
-        return stack.size();
+        return stack == null ? 0 : stack.size;
     }
 
     public int rightMostModifier(int index) {
-        return (rightMostArcs[index] == 0 ? -1 : rightMostArcs[index]);
+        TokenArcs tokenArcs = tokenArcs(index);
+        return (tokenArcs == null || tokenArcs.rightMost == 0 ? -1 : tokenArcs.rightMost);
     }
 
     public int secondRightMostModifier(int index) {
-        return (secondRightMostArcs[index] == 0 ? -1 : secondRightMostArcs[index]);
+        TokenArcs tokenArcs = tokenArcs(index);
+        return (tokenArcs == null || tokenArcs.secondRightMost == 0 ? -1 : tokenArcs.secondRightMost);
     }
-    
+
     public int leftMostModifier(int index) {
-        return (leftMostArcs[index] == 0 ? -1 : leftMostArcs[index]);
+        TokenArcs tokenArcs = tokenArcs(index);
+        return (tokenArcs == null || tokenArcs.leftMost == 0 ? -1 : tokenArcs.leftMost);
     }
 
     public int secondLeftMostModifier(int index) {
-        return (secondLeftMostArcs[index] == 0 ? -1 : secondLeftMostArcs[index]);
+        TokenArcs tokenArcs = tokenArcs(index);
+        return (tokenArcs == null || tokenArcs.secondLeftMost == 0 ? -1 : tokenArcs.secondLeftMost);
+    }
+
+    /**
+     * @return the label of {@link #rightMostModifier(int)}, or -1 if there is no such modifier
+     */
+    public int rightMostModifierLabel(int index) {
+        TokenArcs tokenArcs = tokenArcs(index);
+        return (tokenArcs == null || tokenArcs.rightMost == 0 ? -1 : tokenArcs.rightMostLabel);
+    }
+
+    /**
+     * @return the label of {@link #secondRightMostModifier(int)}, or -1 if there is no such modifier
+     */
+    public int secondRightMostModifierLabel(int index) {
+        TokenArcs tokenArcs = tokenArcs(index);
+        return (tokenArcs == null || tokenArcs.secondRightMost == 0 ? -1 : tokenArcs.secondRightMostLabel);
+    }
+
+    /**
+     * @return the label of {@link #leftMostModifier(int)}, or -1 if there is no such modifier
+     */
+    public int leftMostModifierLabel(int index) {
+        TokenArcs tokenArcs = tokenArcs(index);
+        return (tokenArcs == null || tokenArcs.leftMost == 0 ? -1 : tokenArcs.leftMostLabel);
+    }
+
+    /**
+     * @return the label of {@link #secondLeftMostModifier(int)}, or -1 if there is no such modifier
+     */
+    public int secondLeftMostModifierLabel(int index) {
+        TokenArcs tokenArcs = tokenArcs(index);
+        return (tokenArcs == null || tokenArcs.secondLeftMost == 0 ? -1 : tokenArcs.secondLeftMostLabel);
     }
 
     /**
@@ -197,7 +338,8 @@ public class State implements Cloneable {
      * @return the current number of right modifiers
      */
     public int rightValency(int head) {
-        return rightValency[head];
+        TokenArcs tokenArcs = tokenArcs(head);
+        return tokenArcs == null ? 0 : tokenArcs.rightValency;
     }
 
     /**
@@ -205,21 +347,57 @@ public class State implements Cloneable {
      * @return the current number of left modifiers
      */
     public int leftValency(int head) {
-        return leftValency[head];
+        TokenArcs tokenArcs = tokenArcs(head);
+        return tokenArcs == null ? 0 : tokenArcs.leftValency;
     }
 
     public int getHead(int index) {
-        if (arcs[index] != null)
-            return arcs[index].first;
+        TokenArcs tokenArcs = tokenArcs(index);
+        if (tokenArcs != null)
+            return tokenArcs.head;
+        if (heads != null || isTerminalState() && materialize())
+            return index >= 0 && index < size ? heads[index] : -1;
+        for (Arc arc = arcs; arc != null; arc = arc.next)
+            if (arc.dependent == index)
+                return arc.head;
         return -1;
     }
 
     public int getDependency(int index) {
-        if (arcs[index] != null)
-            return arcs[index].second;
+        TokenArcs tokenArcs = tokenArcs(index);
+        if (tokenArcs != null)
+            return tokenArcs.label;
+        if (labels != null || isTerminalState() && materialize())
+            return index >= 0 && index < size ? labels[index] : -1;
+        for (Arc arc = arcs; arc != null; arc = arc.next)
+            if (arc.dependent == index)
+                return arc.dependency;
         return -1;
     }
 
+    /**
+     * Puts the tree into the head and label arrays
+     *
+     * @return true
+     */
+    private boolean materialize() {
+        int[] heads = new int[size];
+        int[] labels = new int[size];
+        for (int i = 0; i < size; i++) {
+            heads[i] = -1;
+            labels[i] = -1;
+        }
+        for (Arc arc = arcs; arc != null; arc = arc.next) {
+            if (heads[arc.dependent] == -1) {
+                heads[arc.dependent] = arc.head;
+                labels[arc.dependent] = arc.dependency;
+            }
+        }
+        this.heads = heads;
+        this.labels = labels;
+        return true;
+    }
+
     public void setMaxSentenceSize(int maxSentenceSize) {
         this.maxSentenceSize = maxSentenceSize;
     }
@@ -229,47 +407,72 @@ public class State implements Cloneable {
             bufferH = -1;
         else
             bufferH++;
+        bufferArcs = TokenArcs.EMPTY;
     }
 
+    /**
+     * If the token was just popped (as in unshift), its arcs are moved to the buffer
+     */
     public void setBufferH(int bufferH) {
         this.bufferH = bufferH;
+        bufferArcs = popped != null && popped.token == bufferH ? popped.arcs : TokenArcs.EMPTY;
     }
 
     @Override
     public State clone() {
-        State state = new State(arcs.length - 1);
-        state.stack = new ArrayDeque<Integer>(stack);
-
-        for (int dependent = 0; dependent < arcs.length; dependent++) {
-            if (arcs[dependent] != null) {
-                Pair<Integer, Integer> head = arcs[dependent];
-                state.arcs[dependent] = head;
-                int h = head.first;
-
-                if (rightMostArcs[h] != 0) {
-                    state.rightMostArcs[h] = rightMostArcs[h];
-                    state.rightValency[h] = rightValency[h];
-                    state.rightDepLabels[h] = rightDepLabels[h];
-                }
-                if (secondRightMostArcs[h] != 0) {
-                    state.secondRightMostArcs[h] = secondRightMostArcs[h];
-                }
-
-                if (leftMostArcs[h] != 0) {
-                    state.leftMostArcs[h] = leftMostArcs[h];
-                    state.leftValency[h] = leftValency[h];
-                    state.leftDepLabels[h] = leftDepLabels[h];
-                }
-
-                if (secondLeftMostArcs[h] != 0) {
-                    state.secondLeftMostArcs[h] = secondLeftMostArcs[h];
-                }
-            }
+        State state = new State();
+        state.copy(this);
+        return state;
+    }
+
+    /**
+     * Makes this state the same as the other one (it shares the nodes of the other state)
+     */
+    void copy(State other) {
+        size = other.size;
+        stack = other.stack;
+        bufferArcs = other.bufferArcs;
+        arcs = other.arcs;
+        popped = null;
+        heads = other.heads;
+        labels = other.labels;
+        rootIndex = other.rootIndex;
+        bufferH = other.bufferH;
+        maxSentenceSize = other.maxSentenceSize;
+        emptyFlag = other.emptyFlag;
+    }
+
+    /**
+     * @return a copy of this state whose nodes are all on the heap, so that it does not depend on an arena
+     */
+    State detach() {
+        State state = new State();
+        state.copy(this);
+        state.stack = detach(stack);
+        state.bufferArcs = detach(bufferArcs);
+        Arc last = null;
+        for (Arc arc = arcs; arc != null; arc = arc.next) {
+            Arc copy = new Arc().set(arc.dependent, arc.head, arc.dependency, null);
+            if (last == null)
+                state.arcs = copy;
+            else
+                last.next = copy;
+            last = copy;
         }
-        state.rootIndex = rootIndex;
-        state.bufferH = bufferH;
-        state.maxSentenceSize = maxSentenceSize;
-        state.emptyFlag = emptyFlag;
         return state;
     }
+
+    private static StackNode detach(StackNode node) {
+        if (node == null)
+            return null;
+        return new StackNode().set(node.token, detach(node.arcs), detach(node.next));
+    }
+
+    private static TokenArcs detach(TokenArcs tokenArcs) {
+        if (tokenArcs == TokenArcs.EMPTY)
+            return tokenArcs;
+        TokenArcs copy = new TokenArcs();
+        copy.copy(tokenArcs);
+        return copy;
+    }
 }
@@ -0,0 +1,223 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package YaraParser.TransitionBasedSystem.Configuration;
+
+import YaraParser.Structures.Sentence;
+
+import java.text.DecimalFormat;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reuses the configurations, states and state nodes of the decoder from one sentence to the next.
+ * Everything that the arena hands out is kept until {@link #reset()}, which starts the next sentence; so the arena
+ * grows to what the longest sentence needs with the beam width (about the beam width times the number of transitions)
+ * and then parsing does not allocate them anymore. The parse that is kept after the sentence has to be copied out with
+ * {@link #detach(Configuration)}, or only its arcs with {@link #result(Configuration)}.
+ * <p/>
+ * Each thread gets its own arena through {@link #forThread()}; the totals of all of the arenas are reported by
+ * {@link #statistics()}.
+ */
+
+public class StateArena {
+    private static final ThreadLocal<StateArena> arenas = new ThreadLocal<StateArena>();
+
+    private static final AtomicInteger arenaCount = new AtomicInteger();
+    private static final AtomicLong sentenceCount = new AtomicLong();
+    private static final AtomicLong handedOutCount = new AtomicLong();
+    private static final AtomicLong createdCount = new AtomicLong();
+    private static final AtomicLong largestSentence = new AtomicLong();
+
+    /**
+     * A growing list of reusable objects; the first count of them are in use
+     */
+    private static abstract class Slab<T> {
+        Object[] items = new Object[256];
+        int count;
+        int created;
+
+        abstract T create();
+
+        @SuppressWarnings("unchecked")
+        final T next() {
+            if (count == created) {
+                if (created == items.length) {
+                    Object[] newItems = new Object[items.length * 2];
+                    System.arraycopy(items, 0, newItems, 0, created);
+                    items = newItems;
+                }
+                items[created++] = create();
+            }
+            return (T) items[count++];
+        }
+    }
+
+    private final Slab<Configuration> configurations = new Slab<Configuration>() {
+        Configuration create() {
+            Configuration configuration = new Configuration();
+            configuration.state = new State();
+            configuration.state.arena = StateArena.this;
+            return configuration;
+        }
+    };
+    private final Slab<State.StackNode> stackNodes = new Slab<State.StackNode>() {
+        State.StackNode create() {
+            return new State.StackNode();
+        }
+    };
+    private final Slab<State.Arc> arcs = new Slab<State.Arc>() {
+        State.Arc create() {
+            return new State.Arc();
+        }
+    };
+    private final Slab<TokenArcs> tokenArcs = new Slab<TokenArcs>() {
+        TokenArcs create() {
+            return new TokenArcs();
+        }
+    };
+    private final Slab<Configuration.Action> actions = new Slab<Configuration.Action>() {
+        Configuration.Action create() {
+            return new Configuration.Action();
+        }
+    };
+    private final Slab<?>[] slabs = new Slab<?>[]{configurations, stackNodes, arcs, tokenArcs, actions};
+
+    /**
+     * The number of objects that were created when the last sentence was counted
+     */
+    private long countedCreated;
+
+    /**
+     * True from {@link #reset()} to {@link #detach(Configuration)}, {@link #result(Configuration)} or
+     * {@link #release()}, while a sentence uses the arena
+     */
+    private boolean inUse;
+
+    private StateArena() {
+        arenaCount.incrementAndGet();
+    }
+
+    /**
+     * @return the arena of the current thread, or a new one if a sentence of this thread is using it (when a worker
+     * that waits for other tasks runs a parse of another sentence)
+     */
+    public static StateArena forThread() {
+        StateArena arena = arenas.get();
+        if (arena == null) {
+            arena = new StateArena();
+            arenas.set(arena);
+        } else if (arena.inUse)
+            return new StateArena();
+        return arena;
+    }
+
+    /**
+     * Starts a new sentence: everything that the arena handed out before may be reused
+     */
+    public void reset() {
+        for (Slab<?> slab : slabs)
+            slab.count = 0;
+        inUse = true;
+    }
+
+    /**
+     * @return the initial configuration of the sentence
+     */
+    public Configuration initial(Sentence sentence, boolean rootFirst) {
+        Configuration configuration = configurations.next();
+        configuration.reset(sentence, rootFirst);
+        return configuration;
+    }
+
+    /**
+     * @return a copy of the configuration, like {@link Configuration#clone()}; the nodes that the transitions
+     * add to the copy also come from this arena
+     */
+    public Configuration copy(Configuration configuration) {
+        Configuration copy = configurations.next();
+        copy.copy(configuration);
+        return copy;
+    }
+
+    /**
+     * Copies the configuration (the parse of the sentence) to the heap, so that it can be kept after {@link #reset()},
+     * and counts the sentence in the statistics
+     */
+    public Configuration detach(Configuration configuration) {
+        finish();
+        return configuration.detach();
+    }
+
+    /**
+     * Takes the arcs of the configuration (the parse of the sentence) to keep after {@link #reset()}, and counts the
+     * sentence in the statistics
+     */
+    public ParseResult result(Configuration configuration) {
+        finish();
+        return new ParseResult(configuration);
+    }
+
+    private void finish() {
+        long handedOut = 0;
+        long created = 0;
+        for (Slab<?> slab : slabs) {
+            handedOut += slab.count;
+            created += slab.created;
+        }
+        sentenceCount.incrementAndGet();
+        handedOutCount.addAndGet(handedOut);
+        createdCount.addAndGet(created - countedCreated);
+        countedCreated = created;
+        long largest;
+        while (handedOut > (largest = largestSentence.get()) && !largestSentence.compareAndSet(largest, handedOut)) {
+        }
+        inUse = false;
+    }
+
+    /**
+     * Ends the sentence of the arena, so that the next parse of the thread uses it again; the parsers call it in a
+     * finally block, as a parse that throws does not get to {@link #detach(Configuration)}
+     */
+    public void release() {
+        inUse = false;
+    }
+
+    State.StackNode stackNode() {
+        return stackNodes.next();
+    }
+
+    State.Arc arc() {
+        return arcs.next();
+    }
+
+    TokenArcs tokenArcs() {
+        return tokenArcs.next();
+    }
+
+    Configuration.Action action() {
+        return actions.next();
+    }
+
+    /**
+     * @return the number of configurations, states and nodes that the arenas of all of the threads keep
+     */
+    public static long retainedObjects() {
+        return createdCount.get();
+    }
+
+    /**
+     * @return a one-line report of the arenas: the sentences, the objects that were handed out and how many of them
+     * were reused instead of being allocated
+     */
+    public static String statistics() {
+        long handedOut = handedOutCount.get();
+        long created = createdCount.get();
+        DecimalFormat format = new DecimalFormat("0.00");
+        return "state arenas: " + arenaCount.get() + ", " + sentenceCount.get() + " sentences, "
+                + handedOut + " objects handed out, " + (handedOut == 0 ? "0" : format.format(100.0 * (handedOut - created) / handedOut))
+                + "% reused; at most " + largestSentence.get() + " objects for one sentence, " + created + " kept";
+    }
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package YaraParser.TransitionBasedSystem.Configuration;
+
+/**
+ * The arcs of one token of a {@link State}: its head and label and a summary of its dependents.
+ * It is not changed once it is set (an arc gives a new one), so the states of a beam share it; the fields are only
+ * written when it is made, or reused from a {@link StateArena}.
+ * A modifier position of 0 means that there is no such modifier; the labels of the outer modifiers are kept next to
+ * their positions, so that the features do not look for the arcs of tokens that have left the stack.
+ */
+
+final class TokenArcs {
+    static final TokenArcs EMPTY = new TokenArcs();
+
+    int head;
+    int label;
+    int leftMost;
+    int secondLeftMost;
+    int rightMost;
+    int secondRightMost;
+    int leftMostLabel;
+    int secondLeftMostLabel;
+    int rightMostLabel;
+    int secondRightMostLabel;
+    int leftValency;
+    int rightValency;
+    long leftLabels;
+    long rightLabels;
+
+    TokenArcs() {
+        head = -1;
+        label = -1;
+    }
+
+    /**
+     * Sets this record to the arcs of token with the given head
+     *
+     * @return this record
+     */
+    TokenArcs setHead(TokenArcs token, int head, int label) {
+        copy(token);
+        this.head = head;
+        this.label = label;
+        return this;
+    }
+
+    /**
+     * Sets this record to the arcs of token with one more dependent
+     *
+     * @param position the position of the token
+     * @return this record
+     */
+    TokenArcs setDependent(TokenArcs token, int position, int dependent, int label) {
+        copy(token);
+        long value = 1L << label;
+        if (dependent > position) { //right dep
+            if (rightMost == 0) {
+                rightMost = dependent;
+                rightMostLabel = label;
+            } else if (dependent > rightMost) {
+                secondRightMost = rightMost;
+                secondRightMostLabel = rightMostLabel;
+                rightMost = dependent;
+                rightMostLabel = label;
+            } else if (dependent > secondRightMost) {
+                secondRightMost = dependent;
+                secondRightMostLabel = label;
+            }
+            rightValency += 1;
+            rightLabels = rightLabels | value;
+        } else { //left dependency
+            if (leftMost == 0) {
+                leftMost = dependent;
+                leftMostLabel = label;
+            } else if (dependent < leftMost) {
+                secondLeftMost = leftMost;
+                secondLeftMostLabel = leftMostLabel;
+                leftMost = dependent;
+                leftMostLabel = label;
+            } else if (dependent < secondLeftMost) {
+                secondLeftMost = dependent;
+                secondLeftMostLabel = label;
+            }
+            leftLabels = leftLabels | value;
+            leftValency += 1;
+        }
+        return this;
+    }
+
+    void copy(TokenArcs token) {
+        head = token.head;
+        label = token.label;
+        leftMost = token.leftMost;
+        secondLeftMost = token.secondLeftMost;
+        rightMost = token.rightMost;
+        secondRightMost = token.secondRightMost;
+        leftMostLabel = token.leftMostLabel;
+        secondLeftMostLabel = token.secondLeftMostLabel;
+        rightMostLabel = token.rightMostLabel;
+        secondRightMostLabel = token.secondRightMostLabel;
+        leftValency = token.leftValency;
+        rightValency = token.rightValency;
+        leftLabels = token.leftLabels;
+        rightLabels = token.rightLabels;
+    }
+}
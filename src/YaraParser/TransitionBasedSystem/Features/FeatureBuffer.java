@@ -0,0 +1,71 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package YaraParser.TransitionBasedSystem.Features;
+
+/**
+ * Scratch space for extracting and scoring the features of one state.
+ * It is reused for every state that a thread scores, so that the parse loop does not allocate feature or score arrays.
+ * Each thread gets its own buffer through {@link #forThread(int, int)}.
+ */
+
+public class FeatureBuffer {
+    private static final ThreadLocal<FeatureBuffer> buffers = new ThreadLocal<FeatureBuffer>();
+
+    /**
+     * Feature id of each template; only meaningful for the templates that are set in {@link #presence}
+     */
+    public final long[] features;
+
+    /**
+     * Bit i is set if template i fires in the current state
+     */
+    public final long[] presence;
+
+    /**
+     * Shift and reduce scores of the last call to the action scorer
+     */
+    public float shiftScore;
+    public float reduceScore;
+
+    /**
+     * Label scores of the last call to the left-arc and right-arc scorers
+     */
+    public final float[] leftArcScores;
+    public final float[] rightArcScores;
+
+    /**
+     * The left-arc and then the right-arc label scores, for summing dense weight rows in one loop
+     */
+    public final float[] arcScores;
+
+    public FeatureBuffer(int featureLength, int dependencySize) {
+        features = new long[featureLength];
+        presence = new long[(featureLength + 63) >>> 6];
+        leftArcScores = new float[dependencySize];
+        rightArcScores = new float[dependencySize];
+        arcScores = new float[2 * dependencySize];
+    }
+
+    /**
+     * @return the buffer of the current thread, made again only if the sizes are different from the last call
+     */
+    public static FeatureBuffer forThread(int featureLength, int dependencySize) {
+        FeatureBuffer buffer = buffers.get();
+        if (buffer == null || buffer.features.length != featureLength || buffer.leftArcScores.length != dependencySize) {
+            buffer = new FeatureBuffer(featureLength, dependencySize);
+            buffers.set(buffer);
+        }
+        return buffer;
+    }
+
+    public int length() {
+        return features.length;
+    }
+
+    public boolean has(int template) {
+        return (presence[template >>> 6] & (1L << template)) != 0;
+    }
+}
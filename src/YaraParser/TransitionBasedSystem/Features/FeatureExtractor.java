@@ -10,33 +10,76 @@ import YaraParser.TransitionBasedSystem.Configuration.Configuration;
 import YaraParser.TransitionBasedSystem.Configuration.State;
 
 public class FeatureExtractor {
+    /**
+     * The feature value for the templates that do not fire in the current state
+     */
+    public static final long NONE = Long.MIN_VALUE;
+
     /**
      * Given a list of templates, extracts all features for the given state
      *
      * @param configuration
-     * @return
-     * @throws Exception
+     * @param featureMap    the array for writing the features; its length decides the template set (26, 72 or 153)
      */
-    public static Object[] extractAllParseFeatures(Configuration configuration, int length) {
+    public static void extractAllParseFeatures(Configuration configuration, long[] featureMap) {
+        int length = featureMap.length;
         if (length == 26)
-            return extractBasicFeatures(configuration, length);
+            extractBasicFeatures(configuration, featureMap);
         else if (length == 72)
-            return extractExtendedFeatures(configuration, length);
+            extractExtendedFeatures(configuration, featureMap);
         else
-            return extractExtendedFeaturesWithBrownClusters(configuration, length);
+            extractExtendedFeaturesWithBrownClusters(configuration, featureMap);
     }
 
-
     /**
-     * Given a list of templates, extracts all features for the given state
+     * Extracts all features for the given state into the buffer and sets the presence bit of every template that fires;
+     * nothing is allocated.
      *
      * @param configuration
+     * @param buffer        the buffer of the calling thread
+     */
+    public static void extractAllParseFeatures(Configuration configuration, FeatureBuffer buffer) {
+        long[] features = buffer.features;
+        long[] presence = buffer.presence;
+        extractAllParseFeatures(configuration, features);
+
+        for (int w = 0; w < presence.length; w++) {
+            long bits = 0;
+            int end = Math.min(features.length, (w + 1) << 6);
+            for (int i = w << 6; i < end; i++)
+                if (features[i] != NONE)
+                    bits |= 1L << i;
+            presence[w] = bits;
+        }
+    }
+
+    /**
+     * Mixes a word or tag id with the set of dependency labels of the token into one 64-bit feature
+     * (it was the string "value|labels" in older models)
+     *
+     * @param value  word or tag id
+     * @param labels bit set of the dependency labels
      * @return
-     * @throws Exception
      */
-    private static Object[] extractExtendedFeatures(Configuration configuration, int length) {
-        Object[] featureMap = new Object[length];
+    public static long labelSetFeature(long value, long labels) {
+        long feature = mix(mix(value) + labels);
+        return feature == NONE ? 0 : feature;
+    }
+
+    /**
+     * The finalization step of MurmurHash3 (a bijective mix of the 64 bits)
+     */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
 
+    private static void extractExtendedFeatures(Configuration configuration, long[] featureMap) {
         State state = configuration.state;
         Sentence sentence = configuration.sentence;
 
@@ -114,7 +157,7 @@ public class FeatureExtractor {
                 b0l1p += 2;
                 b0l1w = leftMost == 0 ? 0 : words[leftMost - 1];
                 b0l1w += 2;
-                b0l1l = state.getDependency(leftMost);
+                b0l1l = state.leftMostModifierLabel(b0Position);
                 b0l1l += 2;
 
                 int l2 = state.secondLeftMostModifier(b0Position);
@@ -123,7 +166,7 @@ public class FeatureExtractor {
                     b0l2w += 2;
                     b0l2p = l2 == 0 ? 0 : tags[l2 - 1];
                     b0l2p += 2;
-                    b0l2l = state.getDependency(l2);
+                    b0l2l = state.secondLeftMostModifierLabel(b0Position);
                     b0l2l += 2;
                 }
             }
@@ -164,7 +207,7 @@ public class FeatureExtractor {
                 s0l1p += 2;
                 s0l1w = leftMost == 0 ? 0 : words[leftMost - 1];
                 s0l1w += 2;
-                s0l1l = state.getDependency(leftMost);
+                s0l1l = state.leftMostModifierLabel(s0Position);
                 s0l1l += 2;
             }
 
@@ -174,7 +217,7 @@ public class FeatureExtractor {
                 sr1p += 2;
                 sr1w = rightMost == 0 ? 0 : words[rightMost - 1];
                 sr1w += 2;
-                sr1l = state.getDependency(rightMost);
+                sr1l = state.rightMostModifierLabel(s0Position);
                 sr1l += 2;
             }
 
@@ -195,7 +238,7 @@ public class FeatureExtractor {
                     s0l2w += 2;
                     s0l2p = l2 == 0 ? 0 : tags[l2 - 1];
                     s0l2p += 2;
-                    s0l2l = state.getDependency(l2);
+                    s0l2l = state.secondLeftMostModifierLabel(s0Position);
                     s0l2l += 2;
                 }
             }
@@ -215,7 +258,7 @@ public class FeatureExtractor {
                     s0r2w += 2;
                     s0r2p = r2 == 0 ? 0 : tags[r2 - 1];
                     s0r2p += 2;
-                    s0r2l = state.getDependency(r2);
+                    s0r2l = state.secondRightMostModifierLabel(s0Position);
                     s0r2l += 2;
                 }
             }
@@ -238,8 +281,8 @@ public class FeatureExtractor {
             featureMap[index++] = s0wp;
             featureMap[index++] = s0w;
         } else {
-            featureMap[index++] = null;
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
+            featureMap[index++] = NONE;
         }
         featureMap[index++] = s0p;
 
@@ -247,8 +290,8 @@ public class FeatureExtractor {
             featureMap[index++] = b0wp;
             featureMap[index++] = b0w;
         } else {
-            featureMap[index++] = null;
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
+            featureMap[index++] = NONE;
         }
         featureMap[index++] = b0p;
 
@@ -256,8 +299,8 @@ public class FeatureExtractor {
             featureMap[index++] = b1wp;
             featureMap[index++] = b1w;
         } else {
-            featureMap[index++] = null;
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
+            featureMap[index++] = NONE;
         }
         featureMap[index++] = b1p;
 
@@ -265,8 +308,8 @@ public class FeatureExtractor {
             featureMap[index++] = b2wp;
             featureMap[index++] = b2w;
         } else {
-            featureMap[index++] = null;
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
+            featureMap[index++] = NONE;
         }
         featureMap[index++] = b2p;
 
@@ -278,27 +321,27 @@ public class FeatureExtractor {
             featureMap[index++] = (s0wp << 20) | b0w;
             featureMap[index++] = (s0w << 28) | b0wp;
         } else {
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
+            featureMap[index++] = NONE;
+            featureMap[index++] = NONE;
         }
 
         if (s0w != 1) {
             featureMap[index++] = (s0wp << 8) | b0p;
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
         }
 
         if (b0w != 1) {
             featureMap[index++] = (s0p << 28) | b0wp;
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
         }
 
         if (s0w != 1 && b0w != 1) {
             featureMap[index++] = (s0w << 20) | b0w;
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
         }
         featureMap[index++] = (s0p << 8) | b0p;
         featureMap[index++] = (b0p << 8) | b1p;
@@ -322,19 +365,19 @@ public class FeatureExtractor {
         if (s0w != 1) {
             featureMap[index++] = s0w | (distance << 20);
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
         }
         featureMap[index++] = s0p | (distance << 8);
         if (b0w != 1) {
             featureMap[index++] = b0w | (distance << 20);
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
         }
         featureMap[index++] = b0p | (distance << 8);
         if (s0w != 1 && b0w != 1) {
             featureMap[index++] = s0w | (b0w << 20) | (distance << 40);
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
         }
         featureMap[index++] = s0p | (b0p << 8) | (distance << 28);
 
@@ -344,19 +387,19 @@ public class FeatureExtractor {
         if (s0w != 1) {
             featureMap[index++] = s0w | (svr << 20);
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
         }
         featureMap[index++] = s0p | (svr << 8);
         if (s0w != 1) {
             featureMap[index++] = s0w | (svl << 20);
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
         }
         featureMap[index++] = s0p | (svl << 8);
         if (b0w != 1) {
             featureMap[index++] = b0w | (bvl << 20);
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
         }
         featureMap[index++] = b0p | (bvl << 8);
 
@@ -366,28 +409,28 @@ public class FeatureExtractor {
         if (sh0w != 1) {
             featureMap[index++] = sh0w;
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
         }
         featureMap[index++] = sh0p;
         featureMap[index++] = s0l;
         if (s0l1w != 1) {
             featureMap[index++] = s0l1w;
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
         }
         featureMap[index++] = s0l1p;
         featureMap[index++] = s0l1l;
         if (sr1w != 1) {
             featureMap[index++] = sr1w;
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
         }
         featureMap[index++] = sr1p;
         featureMap[index++] = sr1l;
         if (b0l1w != 1) {
             featureMap[index++] = b0l1w;
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
         }
         featureMap[index++] = b0l1p;
         featureMap[index++] = b0l1l;
@@ -398,28 +441,28 @@ public class FeatureExtractor {
         if (sh1w != 1) {
             featureMap[index++] = sh1w;
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
         }
         featureMap[index++] = sh1p;
         featureMap[index++] = sh0l;
         if (s0l2w != 1) {
             featureMap[index++] = s0l2w;
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
         }
         featureMap[index++] = s0l2p;
         featureMap[index++] = s0l2l;
         if (s0r2w != 1) {
             featureMap[index++] = s0r2w;
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
         }
         featureMap[index++] = s0r2p;
         featureMap[index++] = s0r2l;
         if (b0l2w != 1) {
             featureMap[index++] = b0l2w;
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
         }
         featureMap[index++] = b0l2p;
         featureMap[index++] = b0l2l;
@@ -441,24 +484,23 @@ public class FeatureExtractor {
         }
 
         if (s0w != 1) {
-            featureMap[index++] = (s0w +"|"+ sdr) ;
+            featureMap[index++] = labelSetFeature(s0w, sdr);
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
         }
-        featureMap[index++] = (s0p +"|"+ sdr) ;
+        featureMap[index++] = labelSetFeature(s0p, sdr);
         if (s0w != 1) {
-            featureMap[index++] = s0w +"|"+ sdl ;
+            featureMap[index++] = labelSetFeature(s0w, sdl);
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
         }
-        featureMap[index++] = (s0p +"|"+  sdl) ;
+        featureMap[index++] = labelSetFeature(s0p, sdl);
         if (b0w != 1) {
-            featureMap[index++] = (b0w +"|"+  bdl) ;
+            featureMap[index++] = labelSetFeature(b0w, bdl);
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
         }
-        featureMap[index++] = (b0p +"|"+  bdl);
-        return featureMap;
+        featureMap[index++] = labelSetFeature(b0p, bdl);
     }
 
     /**
@@ -468,8 +510,7 @@ public class FeatureExtractor {
      * @return
      * @throws Exception
      */
-    private static Long[] extractBasicFeatures(Configuration configuration, int length) {
-        Long[] featureMap = new Long[length];
+    private static void extractBasicFeatures(Configuration configuration, long[] featureMap) {
 
         State state = configuration.state;
         Sentence sentence = configuration.sentence;
@@ -575,8 +616,8 @@ public class FeatureExtractor {
             featureMap[index++] = s0wp;
             featureMap[index++] = s0w;
         } else {
-            featureMap[index++] = null;
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
+            featureMap[index++] = NONE;
         }
         featureMap[index++] = s0p;
 
@@ -584,8 +625,8 @@ public class FeatureExtractor {
             featureMap[index++] = b0wp;
             featureMap[index++] = b0w;
         } else {
-            featureMap[index++] = null;
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
+            featureMap[index++] = NONE;
         }
         featureMap[index++] = b0p;
 
@@ -593,8 +634,8 @@ public class FeatureExtractor {
             featureMap[index++] = b1wp;
             featureMap[index++] = b1w;
         } else {
-            featureMap[index++] = null;
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
+            featureMap[index++] = NONE;
         }
         featureMap[index++] = b1p;
 
@@ -602,8 +643,8 @@ public class FeatureExtractor {
             featureMap[index++] = b2wp;
             featureMap[index++] = b2w;
         } else {
-            featureMap[index++] = null;
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
+            featureMap[index++] = NONE;
         }
         featureMap[index++] = b2p;
 
@@ -615,27 +656,27 @@ public class FeatureExtractor {
             featureMap[index++] = (s0wp << 20) | b0w;
             featureMap[index++] = (s0w << 28) | b0wp;
         } else {
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
+            featureMap[index++] = NONE;
+            featureMap[index++] = NONE;
         }
 
         if (s0w != 1) {
             featureMap[index++] = (s0wp << 8) | b0p;
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
         }
 
         if (b0w != 1) {
             featureMap[index++] = (s0p << 28) | b0wp;
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
         }
 
         if (s0w != 1 && b0w != 1) {
             featureMap[index++] = (s0w << 20) | b0w;
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
         }
         featureMap[index++] = (s0p << 8) | b0p;
         featureMap[index++] = (b0p << 8) | b1p;
@@ -649,11 +690,9 @@ public class FeatureExtractor {
         featureMap[index++] = (s0p << 16) | (sl0p << 8) | b0p;
         featureMap[index++] = (s0p << 16) | (sr0p << 8) | b0p;
         featureMap[index++] = (s0p << 16) | (b0p << 8) | bl0p;
-        return featureMap;
     }
 
-    private static Object[] extractExtendedFeaturesWithBrownClusters(Configuration configuration, int length) {
-        Object[] featureMap = new Object[length];
+    private static void extractExtendedFeaturesWithBrownClusters(Configuration configuration, long[] featureMap) {
 
         State state = configuration.state;
         Sentence sentence = configuration.sentence;
@@ -749,7 +788,7 @@ public class FeatureExtractor {
                 b0l1p += 2;
                 b0l1w = leftMost == 0 ? 0 : words[leftMost - 1];
                 b0l1w += 2;
-                b0l1l = state.getDependency(leftMost);
+                b0l1l = state.leftMostModifierLabel(b0Position);
                 b0l1l += 2;
 
                 int l2 = state.secondLeftMostModifier(b0Position);
@@ -758,7 +797,7 @@ public class FeatureExtractor {
                     b0l2w += 2;
                     b0l2p = l2 == 0 ? 0 : tags[l2 - 1];
                     b0l2p += 2;
-                    b0l2l = state.getDependency(l2);
+                    b0l2l = state.secondLeftMostModifierLabel(b0Position);
                     b0l2l += 2;
                 }
             }
@@ -806,7 +845,7 @@ public class FeatureExtractor {
                 s0l1p += 2;
                 s0l1w = leftMost == 0 ? 0 : words[leftMost - 1];
                 s0l1w += 2;
-                s0l1l = state.getDependency(leftMost);
+                s0l1l = state.leftMostModifierLabel(s0Position);
                 s0l1l += 2;
             }
 
@@ -816,7 +855,7 @@ public class FeatureExtractor {
                 s0r1p += 2;
                 s0r1w = rightMost == 0 ? 0 : words[rightMost - 1];
                 s0r1w += 2;
-                s0r1l = state.getDependency(rightMost);
+                s0r1l = state.rightMostModifierLabel(s0Position);
                 s0r1l += 2;
             }
 
@@ -837,7 +876,7 @@ public class FeatureExtractor {
                     s0l2w += 2;
                     s0l2p = l2 == 0 ? 0 : tags[l2 - 1];
                     s0l2p += 2;
-                    s0l2l = state.getDependency(l2);
+                    s0l2l = state.secondLeftMostModifierLabel(s0Position);
                     s0l2l += 2;
                 }
             }
@@ -857,7 +896,7 @@ public class FeatureExtractor {
                     s0r2w += 2;
                     s0r2p = r2 == 0 ? 0 : tags[r2 - 1];
                     s0r2p += 2;
-                    s0r2l = state.getDependency(r2);
+                    s0r2l = state.secondRightMostModifierLabel(s0Position);
                     s0r2l += 2;
                 }
             }
@@ -881,8 +920,8 @@ public class FeatureExtractor {
             featureMap[index++] = s0wp;
             featureMap[index++] = s0w;
         } else {
-            featureMap[index++] = null;
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
+            featureMap[index++] = NONE;
         }
         featureMap[index++] = s0p;
 
@@ -890,8 +929,8 @@ public class FeatureExtractor {
             featureMap[index++] = b0wp;
             featureMap[index++] = b0w;
         } else {
-            featureMap[index++] = null;
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
+            featureMap[index++] = NONE;
         }
         featureMap[index++] = b0p;
 
@@ -899,8 +938,8 @@ public class FeatureExtractor {
             featureMap[index++] = b1wp;
             featureMap[index++] = b1w;
         } else {
-            featureMap[index++] = null;
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
+            featureMap[index++] = NONE;
         }
         featureMap[index++] = b1p;
 
@@ -908,8 +947,8 @@ public class FeatureExtractor {
             featureMap[index++] = b2wp;
             featureMap[index++] = b2w;
         } else {
-            featureMap[index++] = null;
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
+            featureMap[index++] = NONE;
         }
         featureMap[index++] = b2p;
 
@@ -921,27 +960,27 @@ public class FeatureExtractor {
             featureMap[index++] = (s0wp << 20) | b0w;
             featureMap[index++] = (s0w << 28) | b0wp;
         } else {
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
+            featureMap[index++] = NONE;
+            featureMap[index++] = NONE;
         }
 
         if (s0w != 1) {
             featureMap[index++] = (s0wp << 8) | b0p;
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
         }
 
         if (b0w != 1) {
             featureMap[index++] = (s0p << 28) | b0wp;
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
         }
 
         if (s0w != 1 && b0w != 1) {
             featureMap[index++] = (s0w << 20) | b0w;
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
         }
         featureMap[index++] = (s0p << 8) | b0p;
         featureMap[index++] = (b0p << 8) | b1p;
@@ -965,19 +1004,19 @@ public class FeatureExtractor {
         if (s0w != 1) {
             featureMap[index++] = s0w | (distance << 20);
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
         }
         featureMap[index++] = s0p | (distance << 8);
         if (b0w != 1) {
             featureMap[index++] = b0w | (distance << 20);
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
         }
         featureMap[index++] = b0p | (distance << 8);
         if (s0w != 1 && b0w != 1) {
             featureMap[index++] = s0w | (b0w << 20) | (distance << 40);
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
         }
         featureMap[index++] = s0p | (b0p << 8) | (distance << 28);
 
@@ -987,19 +1026,19 @@ public class FeatureExtractor {
         if (s0w != 1) {
             featureMap[index++] = s0w | (svr << 20);
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
         }
         featureMap[index++] = s0p | (svr << 8);
         if (s0w != 1) {
             featureMap[index++] = s0w | (svl << 20);
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
         }
         featureMap[index++] = s0p | (svl << 8);
         if (b0w != 1) {
             featureMap[index++] = b0w | (bvl << 20);
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
         }
         featureMap[index++] = b0p | (bvl << 8);
 
@@ -1009,28 +1048,28 @@ public class FeatureExtractor {
         if (sh0w != 1) {
             featureMap[index++] = sh0w;
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
         }
         featureMap[index++] = sh0p;
         featureMap[index++] = s0l;
         if (s0l1w != 1) {
             featureMap[index++] = s0l1w;
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
         }
         featureMap[index++] = s0l1p;
         featureMap[index++] = s0l1l;
         if (s0r1w != 1) {
             featureMap[index++] = s0r1w;
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
         }
         featureMap[index++] = s0r1p;
         featureMap[index++] = s0r1l;
         if (b0l1w != 1) {
             featureMap[index++] = b0l1w;
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
         }
         featureMap[index++] = b0l1p;
         featureMap[index++] = b0l1l;
@@ -1041,28 +1080,28 @@ public class FeatureExtractor {
         if (sh1w != 1) {
             featureMap[index++] = sh1w;
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
         }
         featureMap[index++] = sh1p;
         featureMap[index++] = sh0l;
         if (s0l2w != 1) {
             featureMap[index++] = s0l2w;
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
         }
         featureMap[index++] = s0l2p;
         featureMap[index++] = s0l2l;
         if (s0r2w != 1) {
             featureMap[index++] = s0r2w;
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
         }
         featureMap[index++] = s0r2p;
         featureMap[index++] = s0r2l;
         if (b0l2w != 1) {
             featureMap[index++] = b0l2w;
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
         }
         featureMap[index++] = b0l2p;
         featureMap[index++] = b0l2l;
@@ -1084,23 +1123,23 @@ public class FeatureExtractor {
         }
 
         if (s0w != 1) {
-            featureMap[index++] = (s0w +"|"+ sdr) ;
+            featureMap[index++] = labelSetFeature(s0w, sdr);
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
         }
-        featureMap[index++] = (s0p +"|"+ sdr) ;
+        featureMap[index++] = labelSetFeature(s0p, sdr);
         if (s0w != 1) {
-            featureMap[index++] = s0w +"|"+ sdl ;
+            featureMap[index++] = labelSetFeature(s0w, sdl);
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
         }
-        featureMap[index++] = (s0p +"|"+  sdl) ;
+        featureMap[index++] = labelSetFeature(s0p, sdl);
         if (b0w != 1) {
-            featureMap[index++] = (b0w +"|"+  bdl) ;
+            featureMap[index++] = labelSetFeature(b0w, bdl);
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
         }
-        featureMap[index++] = (b0p +"|"+  bdl);
+        featureMap[index++] = labelSetFeature(b0p, bdl);
 
         /**
          * Brown cluster features
@@ -1137,8 +1176,8 @@ public class FeatureExtractor {
             featureMap[index++] = s0wbc4;
             featureMap[index++] = s0wbc6;
             } else {
-                featureMap[index++] = null;
-                featureMap[index++] = null;
+                featureMap[index++] = NONE;
+                featureMap[index++] = NONE;
             }
             featureMap[index++] = s0bcfP;
 
@@ -1147,12 +1186,12 @@ public class FeatureExtractor {
             featureMap[index++] = s0bc4;
             featureMap[index++] = s0bc6;
         } else {
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
+            featureMap[index++] = NONE;
+            featureMap[index++] = NONE;
+            featureMap[index++] = NONE;
+            featureMap[index++] = NONE;
+            featureMap[index++] = NONE;
         }
 
         if (b0bcf > 0) {
@@ -1160,8 +1199,8 @@ public class FeatureExtractor {
                 featureMap[index++] = b0wbc4;
                 featureMap[index++] = b0wbc6;
             } else {
-                featureMap[index++] = null;
-                featureMap[index++] = null;
+                featureMap[index++] = NONE;
+                featureMap[index++] = NONE;
             }
             featureMap[index++] = b0bcfP;
 
@@ -1170,12 +1209,12 @@ public class FeatureExtractor {
             featureMap[index++] = b0bc4;
             featureMap[index++] = b0bc6;
         } else {
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
+            featureMap[index++] = NONE;
+            featureMap[index++] = NONE;
+            featureMap[index++] = NONE;
+            featureMap[index++] = NONE;
+            featureMap[index++] = NONE;
         }
 
 
@@ -1187,28 +1226,28 @@ public class FeatureExtractor {
                 featureMap[index++] = (s0wbc4 << 32) | b0wbc4;
                 featureMap[index++] = (s0wbc6 << 32) | b0wbc6;
             } else {
-                featureMap[index++] = null;
-                featureMap[index++] = null;
+                featureMap[index++] = NONE;
+                featureMap[index++] = NONE;
             }
             if (b0w != 1) {
                 featureMap[index++] = (s0wbc4 << 28) | b0wp;
                 featureMap[index++] = (s0wbc6 << 28) | b0wp;
             } else {
-                featureMap[index++] = null;
-                featureMap[index++] = null;
+                featureMap[index++] = NONE;
+                featureMap[index++] = NONE;
             }
         } else {
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
+            featureMap[index++] = NONE;
+            featureMap[index++] = NONE;
+            featureMap[index++] = NONE;
         }
         if (b0bcf > 0 && s0w != 1 & b0w!=1) {
             featureMap[index++] = (s0wp << 32) | b0wbc4;
             featureMap[index++] = (s0wp << 32) | b0wbc6;
         } else {
-            featureMap[index++] = null;
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
+            featureMap[index++] = NONE;
         }
 
         if (s0bcf > 0 && s0w!=1) {
@@ -1216,33 +1255,33 @@ public class FeatureExtractor {
                 featureMap[index++] = (s0wbc4 << 20) | b0w;
                 featureMap[index++] = (s0wbc6 << 20) | b0w;
             } else {
-                featureMap[index++] = null;
-                featureMap[index++] = null;
+                featureMap[index++] = NONE;
+                featureMap[index++] = NONE;
             }
             if (b0bcf > 0) {
                 featureMap[index++] = (s0wbc4 << 12) | b0bcf;
                 featureMap[index++] = (s0wbc6 << 12) | b0bcf;
             } else {
-                featureMap[index++] = null;
-                featureMap[index++] = null;
+                featureMap[index++] = NONE;
+                featureMap[index++] = NONE;
             }
         } else {
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
+            featureMap[index++] = NONE;
+            featureMap[index++] = NONE;
+            featureMap[index++] = NONE;
         }
 
         if (b0bcf > 0 && s0w != 1) {
             featureMap[index++] = (s0wp << 12) | b0bcf;
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
         }
 
         if (s0bcf > 0 && b0w != 1) {
             featureMap[index++] = (s0bcf << 28) | b0wp;
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
         }
 
         if (b0bcf > 0) {
@@ -1250,21 +1289,21 @@ public class FeatureExtractor {
                 featureMap[index++] = (s0w << 32) | b0wbc4;
                 featureMap[index++] = (s0w << 32) | b0wbc6;
             } else {
-                featureMap[index++] = null;
-                featureMap[index++] = null;
+                featureMap[index++] = NONE;
+                featureMap[index++] = NONE;
             }
             if (s0bcf > 0 && b0w!=1) {
                 featureMap[index++] = (s0bcf << 32) | b0wbc4;
                 featureMap[index++] = (s0bcf << 32) | b0wbc6;
             } else {
-                featureMap[index++] = null;
-                featureMap[index++] = null;
+                featureMap[index++] = NONE;
+                featureMap[index++] = NONE;
             }
         } else {
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
+            featureMap[index++] = NONE;
+            featureMap[index++] = NONE;
+            featureMap[index++] = NONE;
         }
 
         if (s0bcf > 0 && s0w!=1) {
@@ -1274,22 +1313,22 @@ public class FeatureExtractor {
                 featureMap[index++] = (s0wbc4 << 8) | b0bc4;
                 featureMap[index++] = (s0wbc6 << 8) | b0bc6;
             } else {
-                featureMap[index++] = null;
-                featureMap[index++] = null;
+                featureMap[index++] = NONE;
+                featureMap[index++] = NONE;
             }
         } else {
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
+            featureMap[index++] = NONE;
+            featureMap[index++] = NONE;
+            featureMap[index++] = NONE;
         }
 
         if (s0bcf > 0 && b0w != 1) {
             featureMap[index++] = (s0bc4 << 28) | b0wp;
             featureMap[index++] = (s0bc6 << 28) | b0wp;
         } else {
-            featureMap[index++] = null;
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
+            featureMap[index++] = NONE;
         }
 
         if (b0bcf > 0 && b0w!=1) {
@@ -1300,44 +1339,44 @@ public class FeatureExtractor {
                 featureMap[index++] = (s0bc4 << 32) | b0wbc4;
                 featureMap[index++] = (s0bc6 << 32) | b0wbc6;
             } else {
-                featureMap[index++] = null;
-                featureMap[index++] = null;
+                featureMap[index++] = NONE;
+                featureMap[index++] = NONE;
             }
         } else {
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
+            featureMap[index++] = NONE;
+            featureMap[index++] = NONE;
+            featureMap[index++] = NONE;
         }
 
         if (b0bcf > 0 && s0w != 1) {
             featureMap[index++] = (s0w << 12) | b0bcf;
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
         }
 
         if (s0bcf > 0) {
             if (b0w != 1) {
                 featureMap[index++] = (s0bcf << 20) | b0w;
             } else {
-                featureMap[index++] = null;
+                featureMap[index++] = NONE;
             }
             if (b0bcf > 0) {
                 featureMap[index++] = (s0bcf << 12) | b0bcf;
             } else {
-                featureMap[index++] = null;
+                featureMap[index++] = NONE;
             }
         } else {
-            featureMap[index++] = null;
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
+            featureMap[index++] = NONE;
         }
 
         if (s0bcf > 0) {
             featureMap[index++] = (s0bc4 << 8) | b0p;
             featureMap[index++] = (s0bc6 << 8) | b0p;
         } else {
-            featureMap[index++] = null;
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
+            featureMap[index++] = NONE;
         }
 
         if (b0bcf > 0) {
@@ -1348,19 +1387,19 @@ public class FeatureExtractor {
                 featureMap[index++] = (s0bc4 << 12) | b0bc4;
                 featureMap[index++] = (s0bc6 << 12) | b0bc6;
             } else {
-                featureMap[index++] = null;
-                featureMap[index++] = null;
+                featureMap[index++] = NONE;
+                featureMap[index++] = NONE;
             }
 
             featureMap[index++] = (b0bc4 << 8) | b1p;
             featureMap[index++] = (b0bc6 << 8) | b1p;
         } else {
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
+            featureMap[index++] = NONE;
+            featureMap[index++] = NONE;
+            featureMap[index++] = NONE;
+            featureMap[index++] = NONE;
+            featureMap[index++] = NONE;
         }
 
         /**
@@ -1373,10 +1412,10 @@ public class FeatureExtractor {
             featureMap[index++] = (s0p << 20) | (b0bc4 << 8) | b1p;
             featureMap[index++] = (s0p << 20) | (b0bc6 << 8) | b1p;
         } else {
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
+            featureMap[index++] = NONE;
+            featureMap[index++] = NONE;
+            featureMap[index++] = NONE;
         }
 
         if (s0bcf > 0) {
@@ -1386,19 +1425,19 @@ public class FeatureExtractor {
                 featureMap[index++] = (s0bc4 << 20) | (b0bc4 << 8) | b1p;
                 featureMap[index++] = (s0bc6 << 20) | (b0bc6 << 8) | b1p;
             } else {
-                featureMap[index++] = null;
-                featureMap[index++] = null;
+                featureMap[index++] = NONE;
+                featureMap[index++] = NONE;
             }
 
             featureMap[index++] = (sh0p << 20) | (s0bc4 << 8) | b0p;
             featureMap[index++] = (sh0p << 20) | (s0bc6 << 8) | b0p;
         } else {
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
+            featureMap[index++] = NONE;
+            featureMap[index++] = NONE;
+            featureMap[index++] = NONE;
+            featureMap[index++] = NONE;
+            featureMap[index++] = NONE;
         }
 
         if (b0bcf > 0) {
@@ -1408,14 +1447,14 @@ public class FeatureExtractor {
                 featureMap[index++] = (sh0p << 24) | (s0bc4 << 12) | b0bc4;
                 featureMap[index++] = (sh0p << 24) | (s0bc6 << 12) | b0bc6;
             } else {
-                featureMap[index++] = null;
-                featureMap[index++] = null;
+                featureMap[index++] = NONE;
+                featureMap[index++] = NONE;
             }
         } else {
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
+            featureMap[index++] = NONE;
+            featureMap[index++] = NONE;
+            featureMap[index++] = NONE;
         }
 
 
@@ -1423,8 +1462,8 @@ public class FeatureExtractor {
             featureMap[index++] = (s0p << 20) | (s0l1p << 12) | b0bc4;
             featureMap[index++] = (s0p << 20) | (s0l1p << 12) | b0bc6;
         } else {
-            featureMap[index++] = null;
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
+            featureMap[index++] = NONE;
         }
 
         if (s0bcf > 0) {
@@ -1434,22 +1473,22 @@ public class FeatureExtractor {
                 featureMap[index++] = (s0bc4 << 20) | (s0l1p << 12) | b0bc4;
                 featureMap[index++] = (s0bc6 << 20) | (s0l1p << 12) | b0bc6;
             } else {
-                featureMap[index++] = null;
-                featureMap[index++] = null;
+                featureMap[index++] = NONE;
+                featureMap[index++] = NONE;
             }
         } else {
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
+            featureMap[index++] = NONE;
+            featureMap[index++] = NONE;
+            featureMap[index++] = NONE;
         }
 
         if (b0bcf > 0) {
             featureMap[index++] = (s0p << 20) | (s0r1p << 12) | b0bc4;
             featureMap[index++] = (s0p << 20) | (s0r1p << 12) | b0bc6;
         } else {
-            featureMap[index++] = null;
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
+            featureMap[index++] = NONE;
         }
 
         if (s0bcf > 0) {
@@ -1459,22 +1498,22 @@ public class FeatureExtractor {
                 featureMap[index++] = (s0bc4 << 20) | (s0r1p << 12) | b0bc4;
                 featureMap[index++] = (s0bc6 << 20) | (s0r1p << 12) | b0bc6;
             } else {
-                featureMap[index++] = null;
-                featureMap[index++] = null;
+                featureMap[index++] = NONE;
+                featureMap[index++] = NONE;
             }
         } else {
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
+            featureMap[index++] = NONE;
+            featureMap[index++] = NONE;
+            featureMap[index++] = NONE;
         }
 
         if (b0bcf > 0) {
             featureMap[index++] = (s0p << 20) | (b0bc4 << 8) | b0l1p;
             featureMap[index++] = (s0p << 20) | (b0bc6 << 8) | b0l1p;
         } else {
-            featureMap[index++] = null;
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
+            featureMap[index++] = NONE;
         }
 
         if (s0bcf > 0) {
@@ -1484,17 +1523,16 @@ public class FeatureExtractor {
                 featureMap[index++] = (s0bc4 << 20) | (b0bc4 << 8) | b0l1p;
                 featureMap[index++] = (s0bc6 << 20) | (b0bc6 << 8) | b0l1p;
             } else {
-                featureMap[index++] = null;
-                featureMap[index++] = null;
+                featureMap[index++] = NONE;
+                featureMap[index++] = NONE;
             }
         } else {
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
+            featureMap[index++] = NONE;
+            featureMap[index++] = NONE;
+            featureMap[index++] = NONE;
+            featureMap[index++] = NONE;
         }
 
-        return featureMap;
     }
 
 }
@@ -0,0 +1,115 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package YaraParser.TransitionBasedSystem.Parser;
+
+import YaraParser.Structures.IndexMaps;
+import YaraParser.TransitionBasedSystem.Configuration.ParseResult;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Asynchronous parses of a shared {@link KBeamArcEagerParser}: each call returns a future of the parse at once, so
+ * that a service can have many requests in flight without a waiting thread for each of them. The parses are
+ * {@link ParseResult}s, so a finished request that is not taken yet only keeps the arcs of its sentence.
+ * <p/>
+ * The parses run on the workers of the parser (a fixed number of threads) unless another executor is given. At most
+ * maxInFlight parses are submitted and not finished; {@link #parse} waits for one of them to finish when there are
+ * that many, and {@link #tryParse} gives a future that failed with a {@link RejectedExecutionException} instead.
+ * A parse finishes (and frees its place) before its future is completed, so the actions of the future can submit the
+ * next parse.
+ */
+
+public class AsyncParser {
+    private final KBeamArcEagerParser parser;
+    private final IndexMaps maps;
+    private final boolean rootFirst;
+    private final int beamWidth;
+    private final boolean lowercase;
+    private final Executor executor;
+    private final int maxInFlight;
+    private final Semaphore inFlight;
+
+    /**
+     * Parses on the workers of the parser
+     *
+     * @param rootFirst the root position, beam width and lower-casing of the model
+     */
+    public AsyncParser(KBeamArcEagerParser parser, boolean rootFirst, int beamWidth, boolean lowercase, int maxInFlight) {
+        this(parser, rootFirst, beamWidth, lowercase, maxInFlight, parser.scheduler.pool);
+    }
+
+    /**
+     * @param executor runs the parses, e.g. the executor of the service; a parse may still split its beam on the
+     *                 idle workers of the parser
+     */
+    public AsyncParser(KBeamArcEagerParser parser, boolean rootFirst, int beamWidth, boolean lowercase, int maxInFlight, Executor executor) {
+        this.parser = parser;
+        this.maps = parser.maps;
+        this.rootFirst = rootFirst;
+        this.beamWidth = beamWidth;
+        this.lowercase = lowercase;
+        this.maxInFlight = maxInFlight;
+        this.executor = executor;
+        inFlight = new Semaphore(maxInFlight);
+    }
+
+    /**
+     * Submits the parse of the sentence, after waiting while maxInFlight parses are not finished
+     */
+    public CompletableFuture<ParseResult> parse(String[] words, String[] tags) throws InterruptedException {
+        inFlight.acquire();
+        return submit(words, tags);
+    }
+
+    /**
+     * Submits the parse of the sentence if fewer than maxInFlight parses are not finished
+     *
+     * @return the future of the parse, or a failed one if there is no place for it
+     */
+    public CompletableFuture<ParseResult> tryParse(String[] words, String[] tags) {
+        if (!inFlight.tryAcquire()) {
+            CompletableFuture<ParseResult> future = new CompletableFuture<ParseResult>();
+            future.completeExceptionally(new RejectedExecutionException(maxInFlight + " parses are in flight"));
+            return future;
+        }
+        return submit(words, tags);
+    }
+
+    /**
+     * @return the number of parses that are submitted and not finished
+     */
+    public int inFlight() {
+        return maxInFlight - inFlight.availablePermits();
+    }
+
+    private CompletableFuture<ParseResult> submit(final String[] words, final String[] tags) {
+        final CompletableFuture<ParseResult> future = new CompletableFuture<ParseResult>();
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    ParseResult parse;
+                    try {
+                        parse = parser.parseResult(maps.makeSentence(words, tags, rootFirst, lowercase), rootFirst, beamWidth, parser.scheduler.numOfThreads);
+                    } catch (Throwable e) {
+                        inFlight.release();
+                        future.completeExceptionally(e);
+                        return;
+                    }
+                    inFlight.release();
+                    future.complete(parse);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.release();
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+}
@@ -7,8 +7,10 @@ package YaraParser.TransitionBasedSystem.Parser;
 
 import YaraParser.Learning.AveragedPerceptron;
 import YaraParser.TransitionBasedSystem.Configuration.BeamElement;
+import YaraParser.TransitionBasedSystem.Configuration.BeamSelector;
 import YaraParser.TransitionBasedSystem.Configuration.Configuration;
 import YaraParser.TransitionBasedSystem.Configuration.State;
+import YaraParser.TransitionBasedSystem.Features.FeatureBuffer;
 import YaraParser.TransitionBasedSystem.Features.FeatureExtractor;
 
 import java.util.ArrayList;
@@ -21,6 +23,8 @@ public class BeamScorerThread implements Callable<ArrayList<BeamElement>> {
     AveragedPerceptron classifier;
     Configuration configuration;
     ArrayList<Integer> dependencyRelations;
+    int[] labels;
+    int topLabels;
     int featureLength;
     int b;
     boolean rootFirst;
@@ -35,6 +39,16 @@ public class BeamScorerThread implements Callable<ArrayList<BeamElement>> {
         this.rootFirst = rootFirst;
     }
 
+    /**
+     * @param topLabels if more than zero, only the best topLabels labels of each arc are candidates
+     */
+    public BeamScorerThread(boolean isDecode, AveragedPerceptron classifier, Configuration configuration, ArrayList<Integer> dependencyRelations,
+                            int featureLength, int b, boolean rootFirst, int[] labels, int topLabels) {
+        this(isDecode, classifier, configuration, dependencyRelations, featureLength, b, rootFirst);
+        this.labels = labels;
+        this.topLabels = topLabels;
+    }
+
 
     public ArrayList<BeamElement> call() {
         ArrayList<BeamElement> elements = new ArrayList<BeamElement>(dependencyRelations.size() * 2 + 3);
@@ -46,36 +60,41 @@ public class BeamScorerThread implements Callable<ArrayList<BeamElement>> {
         boolean canReduce = ArcEager.canDo(Actions.Reduce, currentState);
         boolean canRightArc = ArcEager.canDo(Actions.RightArc, currentState);
         boolean canLeftArc = ArcEager.canDo(Actions.LeftArc, currentState);
-        Object[] features = FeatureExtractor.extractAllParseFeatures(configuration, featureLength);
+        FeatureBuffer features = FeatureBuffer.forThread(featureLength, classifier.dependencySize);
+        FeatureExtractor.extractAllParseFeatures(configuration, features);
+        classifier.scoreActions(features, isDecode, canShift, canReduce, canRightArc, canLeftArc);
 
         if (canShift) {
-            float score = classifier.shiftScore(features, isDecode);
+            float score = features.shiftScore;
             float addedScore = score + prevScore;
             elements.add(new BeamElement(addedScore, b, 0, -1));
         }
         if (canReduce) {
-            float score = classifier.reduceScore(features, isDecode);
+            float score = features.reduceScore;
             float addedScore = score + prevScore;
             elements.add(new BeamElement(addedScore, b, 1, -1));
 
         }
 
-        if (canRightArc) {
-            float[] rightArcScores = classifier.rightArcScores(features, isDecode);
-            for (int dependency : dependencyRelations) {
-                float score = rightArcScores[dependency];
-                float addedScore = score + prevScore;
-                elements.add(new BeamElement(addedScore, b, 2, dependency));
-            }
+        if (canRightArc)
+            addArcs(elements, prevScore, 2, features.rightArcScores);
+        if (canLeftArc)
+            addArcs(elements, prevScore, 3, features.leftArcScores);
+        return elements;
+    }
+
+    private void addArcs(ArrayList<BeamElement> elements, float prevScore, int action, float[] labelScores) {
+        if (topLabels > 0 && topLabels < labels.length) {
+            int[] best = new int[topLabels];
+            int count = BeamSelector.bestLabels(labelScores, labels, topLabels, best);
+            for (int i = 0; i < count; i++)
+                elements.add(new BeamElement(labelScores[best[i]] + prevScore, b, action, best[i]));
+            return;
         }
-        if (canLeftArc) {
-            float[] leftArcScores = classifier.leftArcScores(features, isDecode);
-            for (int dependency : dependencyRelations) {
-                float score = leftArcScores[dependency];
-                float addedScore = score + prevScore;
-                elements.add(new BeamElement(addedScore, b, 3, dependency));
-            }
+        for (int dependency : dependencyRelations) {
+            float score = labelScores[dependency];
+            float addedScore = score + prevScore;
+            elements.add(new BeamElement(addedScore, b, action, dependency));
         }
-        return elements;
     }
 }
\ No newline at end of file
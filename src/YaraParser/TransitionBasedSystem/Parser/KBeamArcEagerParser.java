@@ -12,37 +12,79 @@ import YaraParser.Structures.IndexMaps;
 import YaraParser.Structures.InfStruct;
 import YaraParser.Structures.Sentence;
 import YaraParser.TransitionBasedSystem.Configuration.BeamElement;
+import YaraParser.TransitionBasedSystem.Configuration.BeamSelector;
 import YaraParser.TransitionBasedSystem.Configuration.Configuration;
 import YaraParser.TransitionBasedSystem.Configuration.GoldConfiguration;
+import YaraParser.TransitionBasedSystem.Configuration.ParseResult;
 import YaraParser.TransitionBasedSystem.Configuration.State;
+import YaraParser.TransitionBasedSystem.Configuration.StateArena;
+import YaraParser.TransitionBasedSystem.Features.FeatureBuffer;
 import YaraParser.TransitionBasedSystem.Features.FeatureExtractor;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.FileReader;
 import java.io.FileWriter;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.text.DecimalFormat;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.TreeSet;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CompletionService;
-import java.util.concurrent.ExecutorCompletionService;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
 
+/**
+ * A beam parser of a read-only model. One parser can be shared by any number of threads: {@link #parse},
+ * {@link #parsePartial} and {@link #parseBatch} keep their beams and candidates in each call, their feature buffers and
+ * states in the {@link FeatureBuffer} and {@link StateArena} of the calling thread, and only read the model. The
+ * threads that ask for more than one thread share the workers of the parser's scheduler; each call only waits for its
+ * own tasks. The setters (and the feature rows of the classifier) should be set before the parser is shared.
+ */
 public class KBeamArcEagerParser extends TransitionBasedParser {
+    /**
+     * The file name of the standard input or output
+     */
+    public static final String STANDARD_STREAM = "-";
+
+    /**
+     * The number of sentences per thread that a streamed file may have between the reader and the writer
+     */
+    public static final int SENTENCES_IN_FLIGHT = 64;
+
     /**
      * Any kind of classifier that can give us scores
      */
-    AveragedPerceptron classifier;
+    final AveragedPerceptron classifier;
 
-    ArrayList<Integer> dependencyRelations;
+    final ArrayList<Integer> dependencyRelations;
 
-    int featureLength;
+    /**
+     * The dependency labels as an array, for the candidate loops
+     */
+    final int[] labels;
 
-    IndexMaps maps;
+    /**
+     * If more than zero, only the best topLabels labels of each arc are beam candidates
+     */
+    int topLabels;
 
-    ExecutorService executor;
-    CompletionService<ArrayList<BeamElement>> pool;
+    /**
+     * If true, the sentences of a file are submitted to the workers by blocks, each from its longest sentence
+     */
+    boolean longestFirst;
+
+    final int featureLength;
+
+    final IndexMaps maps;
+
+    /**
+     * The threads of the parser, for the sentences of a file and the beams of long sentences
+     */
+    final ParseScheduler scheduler;
 
     public static KBeamArcEagerParser createParser(String modelPath,int numOfThreads) throws Exception{
         InfStruct infStruct = new InfStruct(modelPath);
@@ -60,14 +102,72 @@ public class KBeamArcEagerParser extends TransitionBasedParser {
                                int featureLength, IndexMaps maps, int numOfThreads) {
         this.classifier = classifier;
         this.dependencyRelations = dependencyRelations;
+        labels = labelArray(dependencyRelations);
         this.featureLength = featureLength;
         this.maps = maps;
-        executor = Executors.newFixedThreadPool(numOfThreads);
-        pool = new ExecutorCompletionService<ArrayList<BeamElement>>(executor);
+        scheduler = new ParseScheduler(numOfThreads);
     }
 
-    private void parseWithOneThread(ArrayList<Configuration> beam, TreeSet<BeamElement> beamPreserver, Sentence sentence, boolean rootFirst, int beamWidth) throws Exception {
-        for (int b = 0; b < beam.size(); b++) {
+    public static int[] labelArray(ArrayList<Integer> dependencyRelations) {
+        int[] labels = new int[dependencyRelations.size()];
+        for (int i = 0; i < labels.length; i++)
+            labels[i] = dependencyRelations.get(i);
+        return labels;
+    }
+
+    /**
+     * Keeps only the best topLabels labels of each left-arc and right-arc as beam candidates;
+     * this is faster with a wide beam, but the parses can change. Zero (the default) keeps all of the labels.
+     */
+    public void setTopLabels(int topLabels) {
+        this.topLabels = topLabels;
+    }
+
+    /**
+     * With more than one thread, parses each block of {@link #SENTENCES_IN_FLIGHT} sentences per thread of a CoNLL file
+     * from its longest sentence, so that the slowest sentences do not start last and leave the other workers idle at
+     * the end of the block; the output keeps the order of the input, and the parses do not change.
+     */
+    public void setLongestFirst(boolean longestFirst) {
+        this.longestFirst = longestFirst;
+    }
+
+    /**
+     * Adds the candidates of the beam items to the selector. If split, the scheduler may score the beam of a long
+     * sentence in slices on its idle workers, each slice into its own selector; the slices are merged in order, which
+     * keeps the same candidates as scoring the items one after the other.
+     */
+    void scoreBeam(final ArrayList<Configuration> beam, BeamSelector beamPreserver, final Sentence sentence,
+                   final boolean rootFirst, final int beamWidth, boolean split) throws Exception {
+        int slices = split ? scheduler.slices(sentence.size(), beam.size()) : 1;
+        if (slices == 1) {
+            parseWithOneThread(beam, beamPreserver, 0, beam.size(), sentence, rootFirst, beamWidth);
+            return;
+        }
+
+        BeamSelector[] selectors = new BeamSelector[slices];
+        ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[slices];
+        for (int s = 0; s < slices; s++) {
+            final int from = beam.size() * s / slices;
+            final int to = beam.size() * (s + 1) / slices;
+            final BeamSelector selector = new BeamSelector(beamWidth);
+            selectors[s] = selector;
+            tasks[s] = ParseScheduler.task(new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    parseWithOneThread(beam, selector, from, to, sentence, rootFirst, beamWidth);
+                    return null;
+                }
+            });
+        }
+        scheduler.invokeAll(tasks);
+        for (BeamSelector selector : selectors)
+            beamPreserver.addAll(selector);
+    }
+
+    private void parseWithOneThread(ArrayList<Configuration> beam, BeamSelector beamPreserver, int from, int to, Sentence sentence, boolean rootFirst, int beamWidth) throws Exception {
+        FeatureBuffer features = FeatureBuffer.forThread(featureLength, classifier.dependencySize);
+        for (int b = from; b < to; b++) {
             Configuration configuration = beam.get(b);
             State currentState = configuration.state;
             float prevScore = configuration.score;
@@ -75,98 +175,83 @@ public class KBeamArcEagerParser extends TransitionBasedParser {
             boolean canReduce = ArcEager.canDo(Actions.Reduce, currentState);
             boolean canRightArc = ArcEager.canDo(Actions.RightArc, currentState);
             boolean canLeftArc = ArcEager.canDo(Actions.LeftArc, currentState);
-            Object[] features = FeatureExtractor.extractAllParseFeatures(configuration, featureLength);
+            FeatureExtractor.extractAllParseFeatures(configuration, features);
+            classifier.scoreActions(features, true, canShift, canReduce, canRightArc, canLeftArc);
             if (!canShift
                     && !canReduce
                     && !canRightArc
                     && !canLeftArc) {
                 float addedScore = prevScore;
-                beamPreserver.add(new BeamElement(addedScore, b, 4, -1));
-
-                if (beamPreserver.size() > beamWidth)
-                    beamPreserver.pollFirst();
+                beamPreserver.add(addedScore, b, 4, -1);
             }
 
             if (canShift) {
-                float score = classifier.shiftScore(features, true);
+                float score = features.shiftScore;
                 float addedScore = score + prevScore;
-                beamPreserver.add(new BeamElement(addedScore, b, 0, -1));
-
-                if (beamPreserver.size() > beamWidth)
-                    beamPreserver.pollFirst();
+                beamPreserver.add(addedScore, b, 0, -1);
             }
 
             if (canReduce) {
-                float score = classifier.reduceScore(features, true);
+                float score = features.reduceScore;
                 float addedScore = score + prevScore;
-                beamPreserver.add(new BeamElement(addedScore, b, 1, -1));
-
-                if (beamPreserver.size() > beamWidth)
-                    beamPreserver.pollFirst();
+                beamPreserver.add(addedScore, b, 1, -1);
             }
 
-            if (canRightArc) {
-                float[] rightArcScores = classifier.rightArcScores(features, true);
-                for (int dependency : dependencyRelations) {
-                    float score = rightArcScores[dependency];
-                    float addedScore = score + prevScore;
-                    beamPreserver.add(new BeamElement(addedScore, b, 2, dependency));
+            if (canRightArc)
+                beamPreserver.addArcs(prevScore, b, 2, features.rightArcScores, labels, topLabels);
 
-                    if (beamPreserver.size() > beamWidth)
-                        beamPreserver.pollFirst();
-                }
-            }
+            if (canLeftArc)
+                beamPreserver.addArcs(prevScore, b, 3, features.leftArcScores, labels, topLabels);
+        }
+    }
 
-            if (canLeftArc) {
-                float[] leftArcScores = classifier.leftArcScores(features, true);
-                for (int dependency : dependencyRelations) {
-                    float score = leftArcScores[dependency];
-                    float addedScore = score + prevScore;
-                    beamPreserver.add(new BeamElement(addedScore, b, 3, dependency));
+    public Configuration parse(Sentence sentence, boolean rootFirst, int beamWidth, int numOfThreads) throws Exception {
+        StateArena arena = StateArena.forThread();
+        try {
+            return arena.detach(decode(arena, sentence, rootFirst, beamWidth, numOfThreads));
+        } finally {
+            arena.release();
+        }
+    }
 
-                    if (beamPreserver.size() > beamWidth)
-                        beamPreserver.pollFirst();
-                }
-            }
+    /**
+     * Parses the sentence like {@link #parse} and gives only the arcs and the score of the parse, which are taken
+     * from the best beam item without copying its state and history
+     */
+    public ParseResult parseResult(Sentence sentence, boolean rootFirst, int beamWidth, int numOfThreads) throws Exception {
+        StateArena arena = StateArena.forThread();
+        try {
+            return arena.result(decode(arena, sentence, rootFirst, beamWidth, numOfThreads));
+        } finally {
+            arena.release();
         }
     }
 
-    public Configuration parse(Sentence sentence, boolean rootFirst, int beamWidth, int numOfThreads) throws Exception {
-        Configuration initialConfiguration = new Configuration(sentence, rootFirst);
+    /**
+     * @return the best configuration of the final beam, in the arena
+     */
+    private Configuration decode(StateArena arena, Sentence sentence, boolean rootFirst, int beamWidth, int numOfThreads) throws Exception {
+        arena.reset();
+        Configuration initialConfiguration = arena.initial(sentence, rootFirst);
 
         ArrayList<Configuration> beam = new ArrayList<Configuration>(beamWidth);
         beam.add(initialConfiguration);
+        ArrayList<Configuration> repBeam = new ArrayList<Configuration>(beamWidth);
 
+        BeamSelector beamPreserver = new BeamSelector(beamWidth);
         while (!ArcEager.isTerminal(beam)) {
-            TreeSet<BeamElement> beamPreserver = new TreeSet<BeamElement>();
-
-            if (numOfThreads == 1) {
-                parseWithOneThread(beam, beamPreserver, sentence, rootFirst, beamWidth);
-            } else {
-                for (int b = 0; b < beam.size(); b++) {
-                    pool.submit(new BeamScorerThread(true, classifier, beam.get(b),
-                            dependencyRelations, featureLength, b, rootFirst));
-                }
-                for (int b = 0; b < beam.size(); b++) {
-                    for (BeamElement element : pool.take().get()) {
-                        beamPreserver.add(element);
-                        if (beamPreserver.size() > beamWidth)
-                            beamPreserver.pollFirst();
-                    }
-                }
-            }
+            beamPreserver.clear();
 
+            scoreBeam(beam, beamPreserver, sentence, rootFirst, beamWidth, numOfThreads > 1);
 
-            ArrayList<Configuration> repBeam = new ArrayList<Configuration>(beamWidth);
-            for (BeamElement beamElement : beamPreserver.descendingSet()) {
-                if (repBeam.size() >= beamWidth)
-                    break;
-                int b = beamElement.number;
-                int action = beamElement.action;
-                int label = beamElement.label;
-                float score = beamElement.score;
+            repBeam.clear();
+            for (int e = 0; e < beamPreserver.size(); e++) {
+                int b = beamPreserver.number(e);
+                int action = beamPreserver.action(e);
+                int label = beamPreserver.label(e);
+                float score = beamPreserver.score(e);
 
-                Configuration newConfig = beam.get(b).clone();
+                Configuration newConfig = arena.copy(beam.get(b));
 
                 if (action == 0) {
                     ArcEager.shift(newConfig.state);
@@ -187,7 +272,9 @@ public class KBeamArcEagerParser extends TransitionBasedParser {
                 newConfig.setScore(score);
                 repBeam.add(newConfig);
             }
+            ArrayList<Configuration> lastBeam = beam;
             beam = repBeam;
+            repBeam = lastBeam;
         }
 
         Configuration bestConfiguration = null;
@@ -201,7 +288,8 @@ public class KBeamArcEagerParser extends TransitionBasedParser {
         return bestConfiguration;
     }
 
-    private void parsePartialWithOneThread(ArrayList<Configuration> beam, TreeSet<BeamElement> beamPreserver, Boolean isNonProjective, GoldConfiguration goldConfiguration, int beamWidth, boolean rootFirst) throws Exception {
+    private void parsePartialWithOneThread(ArrayList<Configuration> beam, BeamSelector beamPreserver, Boolean isNonProjective, GoldConfiguration goldConfiguration, int beamWidth, boolean rootFirst) throws Exception {
+        FeatureBuffer features = FeatureBuffer.forThread(featureLength, classifier.dependencySize);
         for (int b = 0; b < beam.size(); b++) {
             Configuration configuration = beam.get(b);
             State currentState = configuration.state;
@@ -210,63 +298,49 @@ public class KBeamArcEagerParser extends TransitionBasedParser {
             boolean canReduce = ArcEager.canDo(Actions.Reduce, currentState);
             boolean canRightArc = ArcEager.canDo(Actions.RightArc, currentState);
             boolean canLeftArc = ArcEager.canDo(Actions.LeftArc, currentState);
-            Object[] features = FeatureExtractor.extractAllParseFeatures(configuration, featureLength);
+            FeatureExtractor.extractAllParseFeatures(configuration, features);
+            classifier.scoreActions(features, true, canShift, canReduce, canRightArc, canLeftArc);
             if (!canShift
                     && !canReduce
                     && !canRightArc
                     && !canLeftArc && rootFirst) {
-                beamPreserver.add(new BeamElement(prevScore, b, 4, -1));
-
-                if (beamPreserver.size() > beamWidth)
-                    beamPreserver.pollFirst();
+                beamPreserver.add(prevScore, b, 4, -1);
             }
 
             if (canShift) {
                 if (isNonProjective || goldConfiguration.actionCost(Actions.Shift, -1, currentState) == 0) {
-                    float score = classifier.shiftScore(features, true);
+                    float score = features.shiftScore;
                     float addedScore = score + prevScore;
-                    beamPreserver.add(new BeamElement(addedScore, b, 0, -1));
-
-                    if (beamPreserver.size() > beamWidth)
-                        beamPreserver.pollFirst();
+                    beamPreserver.add(addedScore, b, 0, -1);
                 }
             }
 
             if (canReduce) {
                 if (isNonProjective || goldConfiguration.actionCost(Actions.Reduce, -1, currentState) == 0) {
-                    float score = classifier.reduceScore(features, true);
+                    float score = features.reduceScore;
                     float addedScore = score + prevScore;
-                    beamPreserver.add(new BeamElement(addedScore, b, 1, -1));
-
-                    if (beamPreserver.size() > beamWidth)
-                        beamPreserver.pollFirst();
+                    beamPreserver.add(addedScore, b, 1, -1);
                 }
             }
 
             if (canRightArc) {
-                float[] rightArcScores = classifier.rightArcScores(features, true);
-                for (int dependency : dependencyRelations) {
+                float[] rightArcScores = features.rightArcScores;
+                for (int dependency : labels) {
                     if (isNonProjective || goldConfiguration.actionCost(Actions.RightArc, dependency, currentState) == 0) {
                         float score = rightArcScores[dependency];
                         float addedScore = score + prevScore;
-                        beamPreserver.add(new BeamElement(addedScore, b, 2, dependency));
-
-                        if (beamPreserver.size() > beamWidth)
-                            beamPreserver.pollFirst();
+                        beamPreserver.add(addedScore, b, 2, dependency);
                     }
                 }
             }
 
             if (canLeftArc) {
-                float[] leftArcScores = classifier.leftArcScores(features, true);
-                for (int dependency : dependencyRelations) {
+                float[] leftArcScores = features.leftArcScores;
+                for (int dependency : labels) {
                     if (isNonProjective || goldConfiguration.actionCost(Actions.LeftArc, dependency, currentState) == 0) {
                         float score = leftArcScores[dependency];
                         float addedScore = score + prevScore;
-                        beamPreserver.add(new BeamElement(addedScore, b, 3, dependency));
-
-                        if (beamPreserver.size() > beamWidth)
-                            beamPreserver.pollFirst();
+                        beamPreserver.add(addedScore, b, 3, dependency);
                     }
                 }
             }
@@ -282,64 +356,51 @@ public class KBeamArcEagerParser extends TransitionBasedParser {
                 boolean canReduce = ArcEager.canDo(Actions.Reduce, currentState);
                 boolean canRightArc = ArcEager.canDo(Actions.RightArc, currentState);
                 boolean canLeftArc = ArcEager.canDo(Actions.LeftArc, currentState);
-                Object[] features = FeatureExtractor.extractAllParseFeatures(configuration, featureLength);
+                FeatureExtractor.extractAllParseFeatures(configuration, features);
+                classifier.scoreActions(features, true, canShift, canReduce, canRightArc, canLeftArc);
                 if (!canShift
                         && !canReduce
                         && !canRightArc
                         && !canLeftArc) {
-                    beamPreserver.add(new BeamElement(prevScore, b, 4, -1));
-
-                    if (beamPreserver.size() > beamWidth)
-                        beamPreserver.pollFirst();
+                    beamPreserver.add(prevScore, b, 4, -1);
                 }
 
                 if (canShift) {
-                    float score = classifier.shiftScore(features, true);
+                    float score = features.shiftScore;
                     float addedScore = score + prevScore;
-                    beamPreserver.add(new BeamElement(addedScore, b, 0, -1));
-
-                    if (beamPreserver.size() > beamWidth)
-                        beamPreserver.pollFirst();
+                    beamPreserver.add(addedScore, b, 0, -1);
                 }
 
                 if (canReduce) {
-                    float score = classifier.reduceScore(features, true);
+                    float score = features.reduceScore;
                     float addedScore = score + prevScore;
-                    beamPreserver.add(new BeamElement(addedScore, b, 1, -1));
-
-                    if (beamPreserver.size() > beamWidth)
-                        beamPreserver.pollFirst();
+                    beamPreserver.add(addedScore, b, 1, -1);
                 }
 
-                if (canRightArc) {
-                    float[] rightArcScores = classifier.rightArcScores(features, true);
-                    for (int dependency : dependencyRelations) {
-                        float score = rightArcScores[dependency];
-                        float addedScore = score + prevScore;
-                        beamPreserver.add(new BeamElement(addedScore, b, 2, dependency));
+                if (canRightArc)
+                    beamPreserver.addArcs(prevScore, b, 2, features.rightArcScores, labels, topLabels);
 
-                        if (beamPreserver.size() > beamWidth)
-                            beamPreserver.pollFirst();
-                    }
-                }
-
-                if (canLeftArc) {
-                    float[] leftArcScores = classifier.leftArcScores(features, true);
-                    for (int dependency : dependencyRelations) {
-                        float score = leftArcScores[dependency];
-                        float addedScore = score + prevScore;
-                        beamPreserver.add(new BeamElement(addedScore, b, 3, dependency));
-
-                        if (beamPreserver.size() > beamWidth)
-                            beamPreserver.pollFirst();
-                    }
-                }
+                if (canLeftArc)
+                    beamPreserver.addArcs(prevScore, b, 3, features.leftArcScores, labels, topLabels);
             }
         }
     }
 
     public Configuration parsePartial(GoldConfiguration goldConfiguration, Sentence sentence, boolean rootFirst, int beamWidth, int numOfThreads) throws Exception {
-        Configuration initialConfiguration = new Configuration(sentence, rootFirst);
+        StateArena arena = StateArena.forThread();
+        try {
+            return arena.detach(decodePartial(arena, goldConfiguration, sentence, rootFirst, beamWidth, numOfThreads));
+        } finally {
+            arena.release();
+        }
+    }
+
+    /**
+     * @return the best configuration of the final beam, in the arena
+     */
+    private Configuration decodePartial(StateArena arena, GoldConfiguration goldConfiguration, Sentence sentence, boolean rootFirst, int beamWidth, int numOfThreads) throws Exception {
+        arena.reset();
+        Configuration initialConfiguration = arena.initial(sentence, rootFirst);
         boolean isNonProjective = false;
         if (goldConfiguration.isNonprojective()) {
             isNonProjective = true;
@@ -347,36 +408,36 @@ public class KBeamArcEagerParser extends TransitionBasedParser {
 
         ArrayList<Configuration> beam = new ArrayList<Configuration>(beamWidth);
         beam.add(initialConfiguration);
+        ArrayList<Configuration> repBeam = new ArrayList<Configuration>(beamWidth);
 
+        BeamSelector beamPreserver = new BeamSelector(beamWidth);
         while (!ArcEager.isTerminal(beam)) {
-            TreeSet<BeamElement> beamPreserver = new TreeSet<BeamElement>();
+            beamPreserver.clear();
 
             if (numOfThreads == 1) {
                 parsePartialWithOneThread(beam, beamPreserver, isNonProjective, goldConfiguration, beamWidth, rootFirst);
             } else {
+                ArrayList<ForkJoinTask<ArrayList<BeamElement>>> tasks = new ArrayList<ForkJoinTask<ArrayList<BeamElement>>>(beam.size());
                 for (int b = 0; b < beam.size(); b++) {
-                    pool.submit(new PartialTreeBeamScorerThread(true, classifier, goldConfiguration, beam.get(b),
-                            dependencyRelations, featureLength, b));
+                    tasks.add(ParseScheduler.task(new PartialTreeBeamScorerThread(true, classifier, goldConfiguration, beam.get(b),
+                            dependencyRelations, featureLength, b)));
                 }
-                for (int b = 0; b < beam.size(); b++) {
-                    for (BeamElement element : pool.take().get()) {
+                scheduler.invokeAll(tasks);
+                for (ForkJoinTask<ArrayList<BeamElement>> task : tasks) {
+                    for (BeamElement element : task.join()) {
                         beamPreserver.add(element);
-                        if (beamPreserver.size() > beamWidth)
-                            beamPreserver.pollFirst();
                     }
                 }
             }
 
-            ArrayList<Configuration> repBeam = new ArrayList<Configuration>(beamWidth);
-            for (BeamElement beamElement : beamPreserver.descendingSet()) {
-                if (repBeam.size() >= beamWidth)
-                    break;
-                int b = beamElement.number;
-                int action = beamElement.action;
-                int label = beamElement.label;
-                float score = beamElement.score;
+            repBeam.clear();
+            for (int e = 0; e < beamPreserver.size(); e++) {
+                int b = beamPreserver.number(e);
+                int action = beamPreserver.action(e);
+                int label = beamPreserver.label(e);
+                float score = beamPreserver.score(e);
 
-                Configuration newConfig = beam.get(b).clone();
+                Configuration newConfig = arena.copy(beam.get(b));
 
                 if (action == 0) {
                     ArcEager.shift(newConfig.state);
@@ -397,7 +458,9 @@ public class KBeamArcEagerParser extends TransitionBasedParser {
                 newConfig.setScore(score);
                 repBeam.add(newConfig);
             }
+            ArrayList<Configuration> lastBeam = beam;
             beam = repBeam;
+            repBeam = lastBeam;
         }
 
         Configuration bestConfiguration = null;
@@ -411,11 +474,14 @@ public class KBeamArcEagerParser extends TransitionBasedParser {
         return bestConfiguration;
     }
 
+    /**
+     * Parses a CoNLL file, or the standard input if inputFile is {@link #STANDARD_STREAM}, to outputFile (or the
+     * standard output) in one pass: see {@link #parseConllStream}.
+     *
+     * @param scorePath if not empty, the score of each parse (divided by the sentence length) is written there
+     */
     public void parseConllFile(String inputFile, String outputFile, boolean rootFirst, int beamWidth, boolean labeled, boolean lowerCased, int numThreads, boolean partial, String scorePath) throws Exception {
-        if (numThreads == 1)
-            parseConllFileNoParallel(inputFile, outputFile, rootFirst, beamWidth, labeled, lowerCased, numThreads, partial, scorePath);
-        else
-            parseConllFileParallel(inputFile, outputFile, rootFirst, beamWidth, lowerCased, numThreads, partial, scorePath);
+        parseConllStream(inputFile, outputFile, rootFirst, beamWidth, labeled, lowerCased, numThreads, partial, scorePath);
     }
 
     /**
@@ -428,296 +494,257 @@ public class KBeamArcEagerParser extends TransitionBasedParser {
      * @throws Exception
      */
     public void parseConllFileNoParallel(String inputFile, String outputFile, boolean rootFirst, int beamWidth, boolean labeled, boolean lowerCased, int numOfThreads, boolean partial, String scorePath) throws Exception {
-        CoNLLReader reader = new CoNLLReader(inputFile);
-        boolean addScore = false;
+        parseConllStream(inputFile, outputFile, rootFirst, beamWidth, labeled, lowerCased, 1, partial, scorePath);
+    }
+
+    /**
+     * Reads the sentences one by one and writes each parse, with the other columns of its input lines, as soon as it
+     * and the sentences before it are parsed. With more than one thread, the sentences are parsed by the workers of the
+     * scheduler; the reader waits while {@link #SENTENCES_IN_FLIGHT} sentences per thread are not written yet, so the
+     * memory does not grow with the size of the file.
+     * <p/>
+     * If {@link #longestFirst} is set, the sentences are read in blocks of the same size and each block is submitted
+     * from its longest sentence while the block before it is written.
+     */
+    private void parseConllStream(String inputFile, String outputFile, boolean rootFirst, int beamWidth, boolean labeled, boolean lowerCased, int numOfThreads, boolean partial, String scorePath) throws Exception {
+        CoNLLReader reader = new CoNLLReader(openReader(inputFile));
+        BufferedWriter writer = openWriter(outputFile);
+        BufferedWriter scoreWriter = null;
         if (scorePath.trim().length() > 0)
-            addScore = true;
-        ArrayList<Float> scoreList = new ArrayList<Float>();
+            scoreWriter = openWriter(scorePath);
+
+        ArrayDeque<Future<Pair<Configuration, Integer>>> parses = new ArrayDeque<Future<Pair<Configuration, Integer>>>();
+        ArrayDeque<ArrayList<String>> parseLines = new ArrayDeque<ArrayList<String>>();
+        int window = numOfThreads * SENTENCES_IN_FLIGHT;
+        ArrayList<GoldConfiguration> block = new ArrayList<GoldConfiguration>();
+        ArrayList<ArrayList<String>> blockLines = new ArrayList<ArrayList<String>>();
 
         long start = System.currentTimeMillis();
         int allArcs = 0;
         int size = 0;
-        BufferedWriter writer = new BufferedWriter(new FileWriter(outputFile + ".tmp"));
-        int dataCount = 0;
 
         while (true) {
-            ArrayList<GoldConfiguration> data = reader.readData(15000, true, labeled, rootFirst, lowerCased, maps);
-            size += data.size();
-            if (data.size() == 0)
+            ArrayList<String> lines = new ArrayList<String>();
+            GoldConfiguration goldConfiguration = reader.readSentence(labeled, rootFirst, lowerCased, maps, lines);
+            if (goldConfiguration == null)
                 break;
+            size++;
+            if (size % 100 == 0)
+                System.err.print(size + " ... ");
 
-            for (GoldConfiguration goldConfiguration : data) {
-                dataCount++;
-                if (dataCount % 100 == 0)
-                    System.err.print(dataCount + " ... ");
+            if (numOfThreads == 1) {
                 Configuration bestParse;
                 if (partial)
-                    bestParse = parsePartial(goldConfiguration, goldConfiguration.getSentence(), rootFirst, beamWidth, numOfThreads);
-                else bestParse = parse(goldConfiguration.getSentence(), rootFirst, beamWidth, numOfThreads);
-
-                int[] words = goldConfiguration.getSentence().getWords();
-                allArcs += words.length - 1;
-                if (addScore)
-                    scoreList.add(bestParse.score / bestParse.sentence.size());
-
-                StringBuilder finalOutput = new StringBuilder();
-                for (int i = 0; i < words.length; i++) {
-                    int w = i + 1;
-                    int head = bestParse.state.getHead(w);
-                    int dep = bestParse.state.getDependency(w);
-
-                    if (w == bestParse.state.rootIndex && !rootFirst)
-                        continue;
-
-                    if (head == bestParse.state.rootIndex)
-                        head = 0;
-
-                    String label = head == 0 ? maps.rootString : maps.revWords[dep];
-                    String output = head + "\t" + label + "\n";
-                    finalOutput.append(output);
+                    bestParse = parsePartial(goldConfiguration, goldConfiguration.getSentence(), rootFirst, beamWidth, 1);
+                else bestParse = parse(goldConfiguration.getSentence(), rootFirst, beamWidth, 1);
+                allArcs += writeParse(bestParse, lines, writer, scoreWriter);
+            } else if (longestFirst) {
+                block.add(goldConfiguration);
+                blockLines.add(lines);
+                if (block.size() == window) {
+                    submitLongestFirst(block, blockLines, rootFirst, beamWidth, partial, parses, parseLines);
+                    block.clear();
+                    blockLines.clear();
+                    while (parses.size() > window)
+                        allArcs += writeParse(parses.poll().get().first, parseLines.poll(), writer, scoreWriter);
                 }
-                finalOutput.append("\n");
-                writer.write(finalOutput.toString());
+            } else {
+                parses.add(scheduler.submit(new ParseThread(size, this, goldConfiguration.getSentence(), rootFirst, beamWidth, goldConfiguration, partial)));
+                parseLines.add(lines);
+                if (parses.size() >= window)
+                    allArcs += writeParse(parses.poll().get().first, parseLines.poll(), writer, scoreWriter);
             }
         }
+        if (!block.isEmpty())
+            submitLongestFirst(block, blockLines, rootFirst, beamWidth, partial, parses, parseLines);
+        while (!parses.isEmpty())
+            allArcs += writeParse(parses.poll().get().first, parseLines.poll(), writer, scoreWriter);
+
+        writer.flush();
+        if (!outputFile.equals(STANDARD_STREAM))
+            writer.close();
+        if (scoreWriter != null)
+            scoreWriter.close();
 
         System.err.print("\n");
         long end = System.currentTimeMillis();
         float each = (1.0f * (end - start)) / size;
         float eacharc = (1.0f * (end - start)) / allArcs;
 
-        writer.flush();
-        writer.close();
-
         DecimalFormat format = new DecimalFormat("##.00");
 
         System.err.print(format.format(eacharc) + " ms for each arc!\n");
-        System.err.print(format.format(each) + " ms for each sentence!\n\n");
-
-        BufferedReader gReader = new BufferedReader(new FileReader(inputFile));
-        BufferedReader pReader = new BufferedReader(new FileReader(outputFile + ".tmp"));
-        BufferedWriter pwriter = new BufferedWriter(new FileWriter(outputFile));
-
-        String line;
+        System.err.print(format.format(each) + " ms for each sentence!\n");
+        System.err.print(StateArena.statistics() + "\n\n");
+    }
 
-        while ((line = pReader.readLine()) != null) {
-            String gLine = gReader.readLine();
-            if (line.trim().length() > 0) {
-                while (gLine.trim().length() == 0)
-                    gLine = gReader.readLine();
-                String[] ps = line.split("\t");
-                String[] gs = gLine.split("\t");
-                gs[6] = ps[0];
-                gs[7] = ps[1];
-                StringBuilder output = new StringBuilder();
-                for (int i = 0; i < gs.length; i++) {
-                    output.append(gs[i]).append("\t");
-                }
-                pwriter.write(output.toString().trim() + "\n");
-            } else {
-                pwriter.write("\n");
+    /**
+     * Submits the sentences of the block from the longest one and adds their parses and lines to the queues in the
+     * order of the block
+     */
+    private void submitLongestFirst(final ArrayList<GoldConfiguration> block, ArrayList<ArrayList<String>> blockLines, boolean rootFirst, int beamWidth, boolean partial,
+                                    ArrayDeque<Future<Pair<Configuration, Integer>>> parses, ArrayDeque<ArrayList<String>> parseLines) {
+        Integer[] order = new Integer[block.size()];
+        for (int i = 0; i < order.length; i++)
+            order[i] = i;
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer first, Integer second) {
+                return block.get(second).getSentence().size() - block.get(first).getSentence().size();
             }
+        });
+
+        ArrayList<Future<Pair<Configuration, Integer>>> blockParses = new ArrayList<Future<Pair<Configuration, Integer>>>(order.length);
+        for (int i = 0; i < order.length; i++)
+            blockParses.add(null);
+        for (int i : order) {
+            GoldConfiguration goldConfiguration = block.get(i);
+            blockParses.set(i, scheduler.submit(new ParseThread(i, this, goldConfiguration.getSentence(), rootFirst, beamWidth, goldConfiguration, partial)));
         }
-        pwriter.flush();
-        pwriter.close();
-
-        if (addScore) {
-            BufferedWriter scoreWriter = new BufferedWriter(new FileWriter(scorePath));
-
-            for (int i = 0; i < scoreList.size(); i++)
-                scoreWriter.write(scoreList.get(i) + "\n");
-            scoreWriter.flush();
-            scoreWriter.close();
-        }
+        parses.addAll(blockParses);
+        parseLines.addAll(blockLines);
     }
 
-    public void parseTaggedFile(String inputFile, String outputFile, boolean rootFirst, int beamWidth, boolean lowerCased, String separator, int numOfThreads) throws Exception {
-        BufferedReader reader = new BufferedReader(new FileReader(inputFile));
-        BufferedWriter writer = new BufferedWriter(new FileWriter(outputFile));
-        long start = System.currentTimeMillis();
-
-        ExecutorService executor = Executors.newFixedThreadPool(numOfThreads);
-        CompletionService<Pair<String, Integer>> pool = new ExecutorCompletionService<Pair<String, Integer>>(executor);
-
-
-        String line;
-        int count = 0;
-        int lineNum = 0;
-        while ((line = reader.readLine()) != null) {
-            pool.submit(new ParseTaggedThread(lineNum++, line, separator, rootFirst, lowerCased, maps, beamWidth, this));
-
-            if (lineNum % 1000 == 0) {
-                String[] outs = new String[lineNum];
-                for (int i = 0; i < lineNum; i++) {
-                    count++;
-                    if (count % 100 == 0)
-                        System.err.print(count + "...");
-                    Pair<String, Integer> result = pool.take().get();
-                    outs[result.second] = result.first;
-                }
-
-                for (int i = 0; i < lineNum; i++) {
-                    if (outs[i].length() > 0) {
-                        writer.write(outs[i]);
-                    }
-                }
-
-                lineNum = 0;
-            }
-        }
+    /**
+     * Writes the input lines of the sentence with the predicted head and label in place of their 7th and 8th columns
+     *
+     * @return the number of arcs of the sentence
+     */
+    private int writeParse(Configuration bestParse, ArrayList<String> lines, BufferedWriter writer, BufferedWriter scoreWriter) throws Exception {
+        if (scoreWriter != null)
+            scoreWriter.write((bestParse.score / bestParse.sentence.size()) + "\n");
 
-        if (lineNum > 0) {
-            String[] outs = new String[lineNum];
-            for (int i = 0; i < lineNum; i++) {
-                count++;
-                if (count % 100 == 0)
-                    System.err.print(count + "...");
-                Pair<String, Integer> result = pool.take().get();
-                outs[result.second] = result.first;
-            }
+        writer.write(conllParse(bestParse, lines));
+        return bestParse.sentence.getWords().length - 1;
+    }
 
-            for (int i = 0; i < lineNum; i++) {
+    /**
+     * @param lines the CoNLL lines of the sentence
+     * @return the lines with the predicted head and label in place of their 7th and 8th columns, and an empty line
+     */
+    public String conllParse(Configuration bestParse, ArrayList<String> lines) {
+        return conllParse(new ParseResult(bestParse), lines);
+    }
 
-                if (outs[i].length() > 0) {
-                    writer.write(outs[i]);
-                }
+    public String conllParse(ParseResult parse, ArrayList<String> lines) {
+        StringBuilder finalOutput = new StringBuilder();
+        for (int i = 0; i < lines.size(); i++) {
+            int w = i + 1;
+            String[] gs = lines.get(i).split("\t");
+            gs[6] = Integer.toString(parse.head(w));
+            gs[7] = parse.labelName(w, maps);
+            StringBuilder output = new StringBuilder();
+            for (int j = 0; j < gs.length; j++) {
+                output.append(gs[j]).append("\t");
             }
+            finalOutput.append(output.toString().trim()).append("\n");
         }
-
-        long end = System.currentTimeMillis();
-        System.out.println("\n" + (end - start) + " ms");
-        writer.flush();
-        writer.close();
-
-        System.out.println("done!");
+        finalOutput.append("\n");
+        return finalOutput.toString();
     }
 
-    public void parseConllFileParallel(String inputFile, String outputFile, boolean rootFirst, int beamWidth, boolean lowerCased, int numThreads, boolean partial, String scorePath) throws Exception {
-        CoNLLReader reader = new CoNLLReader(inputFile);
-
-        boolean addScore = false;
-        if (scorePath.trim().length() > 0)
-            addScore = true;
-        ArrayList<Float> scoreList = new ArrayList<Float>();
+    /**
+     * @return a reader of the file, or of the standard input for {@link #STANDARD_STREAM}
+     */
+    public static BufferedReader openReader(String path) throws Exception {
+        if (path.equals(STANDARD_STREAM))
+            return new BufferedReader(new InputStreamReader(System.in));
+        return new BufferedReader(new FileReader(path));
+    }
 
-        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
-        CompletionService<Pair<Configuration, Integer>> pool = new ExecutorCompletionService<Pair<Configuration, Integer>>(executor);
+    /**
+     * @return a writer of the file, or of the standard output for {@link #STANDARD_STREAM}
+     */
+    public static BufferedWriter openWriter(String path) throws Exception {
+        if (path.equals(STANDARD_STREAM))
+            return new BufferedWriter(new OutputStreamWriter(System.out));
+        return new BufferedWriter(new FileWriter(path));
+    }
 
+    /**
+     * Parses a file of tagged sentences, one in each line (or the standard input, for {@link #STANDARD_STREAM}).
+     * The lines are submitted to the scheduler continuously; a parse that finishes early waits in a reorder buffer of
+     * {@link #SENTENCES_IN_FLIGHT} lines per thread and is written as soon as all of the lines before it are, so a long
+     * sentence only holds back the writer, not the other workers. The reader waits only when the buffer is full.
+     */
+    public void parseTaggedFile(String inputFile, String outputFile, boolean rootFirst, int beamWidth, boolean lowerCased, String separator, int numOfThreads) throws Exception {
+        BufferedReader reader = openReader(inputFile);
+        BufferedWriter writer = openWriter(outputFile);
         long start = System.currentTimeMillis();
-        int allArcs = 0;
-        int size = 0;
-        BufferedWriter writer = new BufferedWriter(new FileWriter(outputFile + ".tmp"));
-        int dataCount = 0;
-
-        while (true) {
-            ArrayList<GoldConfiguration> data = reader.readData(15000, true, true, rootFirst, lowerCased, maps);
-            size += data.size();
-            if (data.size() == 0)
-                break;
-
-            int index = 0;
-            Configuration[] confs = new Configuration[data.size()];
-
-            for (GoldConfiguration goldConfiguration : data) {
-                ParseThread thread = new ParseThread(index, classifier, dependencyRelations, featureLength, goldConfiguration.getSentence(), rootFirst, beamWidth, goldConfiguration, partial);
-                pool.submit(thread);
-                index++;
-            }
 
-            for (int i = 0; i < confs.length; i++) {
-                dataCount++;
-                if (dataCount % 100 == 0)
-                    System.err.print(dataCount + " ... ");
+        CompletionService<Pair<String, Integer>> pool = scheduler.sentenceService();
+        int window = numOfThreads * SENTENCES_IN_FLIGHT;
+        String[] reorderBuffer = new String[window];
 
-                Pair<Configuration, Integer> configurationIntegerPair = pool.take().get();
-                confs[configurationIntegerPair.second] = configurationIntegerPair.first;
-            }
-
-            for (int j = 0; j < confs.length; j++) {
-                Configuration bestParse = confs[j];
-                if (addScore) {
-                    scoreList.add(bestParse.score / bestParse.sentence.size());
-                }
-                int[] words = data.get(j).getSentence().getWords();
-
-                allArcs += words.length - 1;
-
-                StringBuilder finalOutput = new StringBuilder();
-                for (int i = 0; i < words.length; i++) {
-                    int w = i + 1;
-                    int head = bestParse.state.getHead(w);
-                    int dep = bestParse.state.getDependency(w);
-
-                    if (w == bestParse.state.rootIndex && !rootFirst)
-                        continue;
-
-                    if (head == bestParse.state.rootIndex)
-                        head = 0;
-
-                    String label = head == 0 ? maps.rootString : maps.revWords[dep];
-                    String output = head + "\t" + label + "\n";
-                    finalOutput.append(output);
-                }
-                finalOutput.append("\n");
-                writer.write(finalOutput.toString());
-            }
+        String line;
+        int submitted = 0;
+        int written = 0;
+        while ((line = reader.readLine()) != null) {
+            while (submitted - written == window)
+                written = writeTagged(pool.take().get(), reorderBuffer, written, submitted, writer);
+            pool.submit(new ParseTaggedThread(submitted++, line, separator, rootFirst, lowerCased, maps, beamWidth, this));
         }
-
-        System.err.print("\n");
-        long end = System.currentTimeMillis();
-        float each = (1.0f * (end - start)) / size;
-        float eacharc = (1.0f * (end - start)) / allArcs;
+        while (written < submitted)
+            written = writeTagged(pool.take().get(), reorderBuffer, written, submitted, writer);
 
         writer.flush();
-        writer.close();
+        if (!outputFile.equals(STANDARD_STREAM))
+            writer.close();
 
+        long end = System.currentTimeMillis();
         DecimalFormat format = new DecimalFormat("##.00");
+        System.err.println("\n" + (end - start) + " ms; " + format.format(1000.0 * written / Math.max(1, end - start)) + " sentences per second");
+        System.err.println("done!");
+    }
 
-        System.err.print(format.format(eacharc) + " ms for each arc!\n");
-        System.err.print(format.format(each) + " ms for each sentence!\n\n");
-
-        BufferedReader gReader = new BufferedReader(new FileReader(inputFile));
-        BufferedReader pReader = new BufferedReader(new FileReader(outputFile + ".tmp"));
-        BufferedWriter pwriter = new BufferedWriter(new FileWriter(outputFile));
-
-        String line;
+    /**
+     * Puts the parse in the reorder buffer and writes the parses that follow the written ones
+     *
+     * @return the new number of written lines
+     */
+    private int writeTagged(Pair<String, Integer> result, String[] reorderBuffer, int written, int submitted, BufferedWriter writer) throws Exception {
+        reorderBuffer[result.second % reorderBuffer.length] = result.first;
+        while (written < submitted && reorderBuffer[written % reorderBuffer.length] != null) {
+            String output = reorderBuffer[written % reorderBuffer.length];
+            reorderBuffer[written % reorderBuffer.length] = null;
+            if (output.length() > 0)
+                writer.write(output);
+            written++;
+            if (written % 100 == 0)
+                System.err.print(written + "...");
+        }
+        return written;
+    }
 
-        while ((line = pReader.readLine()) != null) {
-            String gLine = gReader.readLine();
-            if (line.trim().length() > 0) {
-                while (gLine.trim().length() == 0)
-                    gLine = gReader.readLine();
-                String[] ps = line.split("\t");
-                String[] gs = gLine.split("\t");
-                gs[6] = ps[0];
-                gs[7] = ps[1];
-                StringBuilder output = new StringBuilder();
-                for (int i = 0; i < gs.length; i++) {
-                    output.append(gs[i]).append("\t");
+    /**
+     * Parses the sentences on the workers of the scheduler and waits for all of them; as in a file, the beam of a long
+     * sentence may also be scored on the workers that have no sentence
+     *
+     * @return the parses, in the order of the sentences
+     */
+    public ParseResult[] parseBatch(ArrayList<Sentence> sentences, final boolean rootFirst, final int beamWidth) throws Exception {
+        ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[sentences.size()];
+        for (int i = 0; i < tasks.length; i++) {
+            final Sentence sentence = sentences.get(i);
+            tasks[i] = ParseScheduler.task(new Callable<ParseResult>() {
+                @Override
+                public ParseResult call() throws Exception {
+                    return parseResult(sentence, rootFirst, beamWidth, scheduler.numOfThreads);
                 }
-                pwriter.write(output.toString().trim() + "\n");
-            } else {
-                pwriter.write("\n");
-            }
+            });
         }
-        pwriter.flush();
-        pwriter.close();
+        scheduler.invokeAll(tasks);
 
-        if (addScore) {
-            BufferedWriter scoreWriter = new BufferedWriter(new FileWriter(scorePath));
-
-            for (int i = 0; i < scoreList.size(); i++)
-                scoreWriter.write(scoreList.get(i) + "\n");
-            scoreWriter.flush();
-            scoreWriter.close();
-        }
+        ParseResult[] parses = new ParseResult[tasks.length];
+        for (int i = 0; i < tasks.length; i++)
+            parses[i] = (ParseResult) tasks[i].join();
+        return parses;
     }
 
+    public void parseConllFileParallel(String inputFile, String outputFile, boolean rootFirst, int beamWidth, boolean lowerCased, int numThreads, boolean partial, String scorePath) throws Exception {
+        parseConllStream(inputFile, outputFile, rootFirst, beamWidth, true, lowerCased, numThreads, partial, scorePath);
+    }
     public void shutDownLiveThreads() {
-        boolean isTerminated = executor.isTerminated();
-        while (!isTerminated) {
-            executor.shutdownNow();
-            isTerminated = executor.isTerminated();
-        }
+        scheduler.shutdown();
     }
 }
\ No newline at end of file
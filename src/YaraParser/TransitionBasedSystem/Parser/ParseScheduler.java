@@ -0,0 +1,115 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package YaraParser.TransitionBasedSystem.Parser;
+
+import java.util.Collection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The one thread pool of a parser: a work-stealing pool of numOfThreads workers that parses the sentences of a file
+ * in parallel and, when there are idle workers (e.g. at the end of a file), also scores the beam of a long sentence on
+ * several of them. So a parser never runs more than numOfThreads threads, whatever it parallelizes.
+ */
+
+public class ParseScheduler {
+    /**
+     * The beam of a sentence with fewer words is always scored by one thread
+     */
+    public static final int MIN_SPLIT_LENGTH = 20;
+
+    /**
+     * The least number of beam items of one slice of a split beam
+     */
+    public static final int MIN_SLICE_SIZE = 4;
+
+    final ForkJoinPool pool;
+    final int numOfThreads;
+
+    public ParseScheduler(int numOfThreads) {
+        this.numOfThreads = numOfThreads;
+        pool = new ForkJoinPool(numOfThreads);
+    }
+
+    /**
+     * Submits a sentence task
+     */
+    public <T> Future<T> submit(Callable<T> task) {
+        return pool.submit(task);
+    }
+
+    /**
+     * @return a completion service of the sentence tasks of one file
+     */
+    public <T> CompletionService<T> sentenceService() {
+        return new ExecutorCompletionService<T>(pool);
+    }
+
+    /**
+     * @return the number of slices that the beam of the sentence should be split into; 1 if the beam should be scored
+     * by the calling thread alone (a short sentence, a small beam, or no idle worker because other sentences are waiting)
+     */
+    int slices(int sentenceLength, int beamSize) {
+        if (numOfThreads == 1 || sentenceLength < MIN_SPLIT_LENGTH || beamSize < 2 * MIN_SLICE_SIZE)
+            return 1;
+        if (pool.hasQueuedSubmissions())
+            return 1;
+        int workers = numOfThreads - pool.getActiveThreadCount();
+        if (ForkJoinTask.getPool() == pool)
+            workers++; // the calling worker scores a slice too
+        return Math.max(1, Math.min(workers, beamSize / MIN_SLICE_SIZE));
+    }
+
+    /**
+     * Runs the tasks on the workers; a worker of this pool runs some of them itself while idle workers steal the rest
+     */
+    void invokeAll(final ForkJoinTask<?>[] tasks) {
+        if (ForkJoinTask.getPool() == pool)
+            ForkJoinTask.invokeAll(tasks);
+        else
+            pool.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    ForkJoinTask.invokeAll(tasks);
+                }
+            });
+    }
+
+    /**
+     * Runs the tasks as {@link #invokeAll(ForkJoinTask[])} does
+     */
+    <T extends ForkJoinTask<?>> void invokeAll(final Collection<T> tasks) {
+        if (ForkJoinTask.getPool() == pool)
+            ForkJoinTask.invokeAll(tasks);
+        else
+            pool.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    ForkJoinTask.invokeAll(tasks);
+                }
+            });
+    }
+
+    /**
+     * @return the task of the callable whose exceptions are thrown by {@link #invokeAll(ForkJoinTask[])} unchecked
+     */
+    static <T> ForkJoinTask<T> task(Callable<T> callable) {
+        return ForkJoinTask.adapt(callable);
+    }
+
+    public void shutdown() {
+        boolean isTerminated = pool.isTerminated();
+        while (!isTerminated) {
+            pool.shutdownNow();
+            isTerminated = pool.isTerminated();
+        }
+    }
+}
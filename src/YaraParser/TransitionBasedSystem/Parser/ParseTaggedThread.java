@@ -91,7 +91,7 @@ public class ParseTaggedThread implements Callable<Pair<String, Integer>> {
             }
 
             Sentence sentence = new Sentence(tokens, tags,brownCluster4thPrefix,brownCluster6thPrefix,brownClusterFullString);
-            Configuration bestParse = parser.parse(sentence, rootFirst, beamWidth, 1);
+            Configuration bestParse = parser.parse(sentence, rootFirst, beamWidth, parser.scheduler.numOfThreads);
 
             StringBuilder finalOutput = new StringBuilder();
             for (i = 0; i < words.length; i++) {
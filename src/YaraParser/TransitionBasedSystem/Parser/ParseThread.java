@@ -10,19 +10,23 @@ import YaraParser.Accessories.Pair;
 import YaraParser.Learning.AveragedPerceptron;
 import YaraParser.Structures.Sentence;
 import YaraParser.TransitionBasedSystem.Configuration.BeamElement;
+import YaraParser.TransitionBasedSystem.Configuration.BeamSelector;
 import YaraParser.TransitionBasedSystem.Configuration.Configuration;
 import YaraParser.TransitionBasedSystem.Configuration.GoldConfiguration;
 import YaraParser.TransitionBasedSystem.Configuration.State;
+import YaraParser.TransitionBasedSystem.Configuration.StateArena;
+import YaraParser.TransitionBasedSystem.Features.FeatureBuffer;
 import YaraParser.TransitionBasedSystem.Features.FeatureExtractor;
 
 import java.util.ArrayList;
-import java.util.TreeSet;
 import java.util.concurrent.Callable;
 
 public class ParseThread implements Callable<Pair<Configuration, Integer>> {
     AveragedPerceptron classifier;
 
     ArrayList<Integer> dependencyRelations;
+    int[] labels;
+    int topLabels;
 
     int featureLength;
 
@@ -34,13 +38,20 @@ public class ParseThread implements Callable<Pair<Configuration, Integer>> {
 
     int id;
 
-    public ParseThread(int id, AveragedPerceptron classifier, ArrayList<Integer> dependencyRelations, int featureLength,
-                       Sentence sentence,
+    /**
+     * The parser of the sentence; its scheduler may score the beam of a long sentence on several workers
+     */
+    KBeamArcEagerParser parser;
+
+    public ParseThread(int id, KBeamArcEagerParser parser, Sentence sentence,
                        boolean rootFirst, int beamWidth, GoldConfiguration goldConfiguration, boolean partial) {
         this.id = id;
-        this.classifier = classifier;
-        this.dependencyRelations = dependencyRelations;
-        this.featureLength = featureLength;
+        this.parser = parser;
+        this.classifier = parser.classifier;
+        this.dependencyRelations = parser.dependencyRelations;
+        this.labels = parser.labels;
+        this.topLabels = parser.topLabels;
+        this.featureLength = parser.featureLength;
         this.sentence = sentence;
         this.rootFirst = rootFirst;
         this.beamWidth = beamWidth;
@@ -56,86 +67,39 @@ public class ParseThread implements Callable<Pair<Configuration, Integer>> {
     }
 
     Pair<Configuration, Integer> parse() throws Exception {
-        Configuration initialConfiguration = new Configuration(sentence, rootFirst);
+        StateArena arena = StateArena.forThread();
+        try {
+            return new Pair<Configuration, Integer>(arena.detach(decode(arena)), id);
+        } finally {
+            arena.release();
+        }
+    }
+
+    /**
+     * @return the best configuration of the final beam, in the arena
+     */
+    private Configuration decode(StateArena arena) throws Exception {
+        arena.reset();
+        Configuration initialConfiguration = arena.initial(sentence, rootFirst);
 
         ArrayList<Configuration> beam = new ArrayList<Configuration>(beamWidth);
         beam.add(initialConfiguration);
+        ArrayList<Configuration> repBeam = new ArrayList<Configuration>(beamWidth);
 
+        BeamSelector beamPreserver = new BeamSelector(beamWidth);
         while (!ArcEager.isTerminal(beam)) {
             if (beamWidth != 1) {
-                TreeSet<BeamElement> beamPreserver = new TreeSet<BeamElement>();
-                for (int b = 0; b < beam.size(); b++) {
-                    Configuration configuration = beam.get(b);
-                    State currentState = configuration.state;
-                    float prevScore = configuration.score;
-                    boolean canShift = ArcEager.canDo(Actions.Shift, currentState);
-                    boolean canReduce = ArcEager.canDo(Actions.Reduce, currentState);
-                    boolean canRightArc = ArcEager.canDo(Actions.RightArc, currentState);
-                    boolean canLeftArc = ArcEager.canDo(Actions.LeftArc, currentState);
-                    Object[] features = FeatureExtractor.extractAllParseFeatures(configuration, featureLength);
-                    if (!canShift
-                            && !canReduce
-                            && !canRightArc
-                            && !canLeftArc) {
-                        beamPreserver.add(new BeamElement(prevScore, b, 4, -1));
-
-                        if (beamPreserver.size() > beamWidth)
-                            beamPreserver.pollFirst();
-                    }
-
-                    if (canShift) {
-                        float score = classifier.shiftScore(features, true);
-                        float addedScore = score + prevScore;
-                        beamPreserver.add(new BeamElement(addedScore, b, 0, -1));
-
-                        if (beamPreserver.size() > beamWidth)
-                            beamPreserver.pollFirst();
-                    }
+                beamPreserver.clear();
+                parser.scoreBeam(beam, beamPreserver, sentence, rootFirst, beamWidth, true);
 
-                    if (canReduce) {
-                        float score = classifier.reduceScore(features, true);
-                        float addedScore = score + prevScore;
-                        beamPreserver.add(new BeamElement(addedScore, b, 1, -1));
-
-                        if (beamPreserver.size() > beamWidth)
-                            beamPreserver.pollFirst();
-                    }
+                repBeam.clear();
+                for (int e = 0; e < beamPreserver.size(); e++) {
+                    int b = beamPreserver.number(e);
+                    int action = beamPreserver.action(e);
+                    int label = beamPreserver.label(e);
+                    float score = beamPreserver.score(e);
 
-                    if (canRightArc) {
-                        float[] rightArcScores = classifier.rightArcScores(features, true);
-                        for (int dependency : dependencyRelations) {
-                            float score = rightArcScores[dependency];
-                            float addedScore = score + prevScore;
-                            beamPreserver.add(new BeamElement(addedScore, b, 2, dependency));
-
-                            if (beamPreserver.size() > beamWidth)
-                                beamPreserver.pollFirst();
-                        }
-                    }
-
-                    if (canLeftArc) {
-                        float[] leftArcScores = classifier.leftArcScores(features, true);
-                        for (int dependency : dependencyRelations) {
-                            float score = leftArcScores[dependency];
-                            float addedScore = score + prevScore;
-                            beamPreserver.add(new BeamElement(addedScore, b, 3, dependency));
-
-                            if (beamPreserver.size() > beamWidth)
-                                beamPreserver.pollFirst();
-                        }
-                    }
-                }
-
-                ArrayList<Configuration> repBeam = new ArrayList<Configuration>(beamWidth);
-                for (BeamElement beamElement : beamPreserver.descendingSet()) {
-                    if (repBeam.size() >= beamWidth)
-                        break;
-                    int b = beamElement.number;
-                    int action = beamElement.action;
-                    int label = beamElement.label;
-                    float score = beamElement.score;
-
-                    Configuration newConfig = beam.get(b).clone();
+                    Configuration newConfig = arena.copy(beam.get(b));
 
                     if (action == 0) {
                         ArcEager.shift(newConfig.state);
@@ -156,11 +120,14 @@ public class ParseThread implements Callable<Pair<Configuration, Integer>> {
                     newConfig.setScore(score);
                     repBeam.add(newConfig);
                 }
+                ArrayList<Configuration> lastBeam = beam;
                 beam = repBeam;
+                repBeam = lastBeam;
             } else {
                 Configuration configuration = beam.get(0);
                 State currentState = configuration.state;
-                Object[] features = FeatureExtractor.extractAllParseFeatures(configuration, featureLength);
+                FeatureBuffer features = FeatureBuffer.forThread(featureLength, classifier.dependencySize);
+                FeatureExtractor.extractAllParseFeatures(configuration, features);
                 float bestScore = Float.NEGATIVE_INFINITY;
                 int bestAction = -1;
 
@@ -182,24 +149,27 @@ public class ParseThread implements Callable<Pair<Configuration, Integer>> {
                         configuration.addAction(0);
                     }
                 }
+                // the left-arc is checked again after the unshift (with the features of the state before it)
+                boolean scoreLeftArc = ArcEager.canDo(Actions.LeftArc, currentState);
+                classifier.scoreActions(features, true, canShift, canReduce, canRightArc, scoreLeftArc);
 
                 if (canShift) {
-                    float score = classifier.shiftScore(features, true);
+                    float score = features.shiftScore;
                     if (score > bestScore) {
                         bestScore = score;
                         bestAction = 0;
                     }
                 }
                 if (canReduce) {
-                    float score = classifier.reduceScore(features, true);
+                    float score = features.reduceScore;
                     if (score > bestScore) {
                         bestScore = score;
                         bestAction = 1;
                     }
                 }
                 if (canRightArc) {
-                    float[] rightArcScores = classifier.rightArcScores(features, true);
-                    for (int dependency : dependencyRelations) {
+                    float[] rightArcScores = features.rightArcScores;
+                    for (int dependency : labels) {
                         float score = rightArcScores[dependency];
                         if (score > bestScore) {
                             bestScore = score;
@@ -207,9 +177,9 @@ public class ParseThread implements Callable<Pair<Configuration, Integer>> {
                         }
                     }
                 }
-                if (ArcEager.canDo(Actions.LeftArc, currentState)) {
-                    float[] leftArcScores = classifier.leftArcScores(features, true);
-                    for (int dependency : dependencyRelations) {
+                if (scoreLeftArc) {
+                    float[] leftArcScores = features.leftArcScores;
+                    for (int dependency : labels) {
                         float score = leftArcScores[dependency];
                         if (score > bestScore) {
                             bestScore = score;
@@ -250,11 +220,24 @@ public class ParseThread implements Callable<Pair<Configuration, Integer>> {
                 bestConfiguration = configuration;
             }
         }
-        return new Pair<Configuration, Integer>(bestConfiguration, id);
+        return bestConfiguration;
     }
 
     public Configuration parsePartial() throws Exception {
-        Configuration initialConfiguration = new Configuration(sentence, rootFirst);
+        StateArena arena = StateArena.forThread();
+        try {
+            return arena.detach(decodePartial(arena));
+        } finally {
+            arena.release();
+        }
+    }
+
+    /**
+     * @return the best configuration of the final beam, in the arena
+     */
+    private Configuration decodePartial(StateArena arena) throws Exception {
+        arena.reset();
+        Configuration initialConfiguration = arena.initial(sentence, rootFirst);
         boolean isNonProjective = false;
         if (goldConfiguration.isNonprojective()) {
             isNonProjective = true;
@@ -262,22 +245,22 @@ public class ParseThread implements Callable<Pair<Configuration, Integer>> {
 
         ArrayList<Configuration> beam = new ArrayList<Configuration>(beamWidth);
         beam.add(initialConfiguration);
+        ArrayList<Configuration> repBeam = new ArrayList<Configuration>(beamWidth);
 
+        BeamSelector beamPreserver = new BeamSelector(beamWidth);
         while (!ArcEager.isTerminal(beam)) {
-            TreeSet<BeamElement> beamPreserver = new TreeSet<BeamElement>();
+            beamPreserver.clear();
 
             parsePartialWithOneThread(beam, beamPreserver, isNonProjective, goldConfiguration, beamWidth);
 
-            ArrayList<Configuration> repBeam = new ArrayList<Configuration>(beamWidth);
-            for (BeamElement beamElement : beamPreserver.descendingSet()) {
-                if (repBeam.size() >= beamWidth)
-                    break;
-                int b = beamElement.number;
-                int action = beamElement.action;
-                int label = beamElement.label;
-                float score = beamElement.score;
+            repBeam.clear();
+            for (int e = 0; e < beamPreserver.size(); e++) {
+                int b = beamPreserver.number(e);
+                int action = beamPreserver.action(e);
+                int label = beamPreserver.label(e);
+                float score = beamPreserver.score(e);
 
-                Configuration newConfig = beam.get(b).clone();
+                Configuration newConfig = arena.copy(beam.get(b));
 
                 if (action == 0) {
                     ArcEager.shift(newConfig.state);
@@ -298,7 +281,9 @@ public class ParseThread implements Callable<Pair<Configuration, Integer>> {
                 newConfig.setScore(score);
                 repBeam.add(newConfig);
             }
+            ArrayList<Configuration> lastBeam = beam;
             beam = repBeam;
+            repBeam = lastBeam;
         }
 
         Configuration bestConfiguration = null;
@@ -312,7 +297,8 @@ public class ParseThread implements Callable<Pair<Configuration, Integer>> {
         return bestConfiguration;
     }
 
-    private void parsePartialWithOneThread(ArrayList<Configuration> beam, TreeSet<BeamElement> beamPreserver, Boolean isNonProjective, GoldConfiguration goldConfiguration, int beamWidth) throws Exception {
+    private void parsePartialWithOneThread(ArrayList<Configuration> beam, BeamSelector beamPreserver, Boolean isNonProjective, GoldConfiguration goldConfiguration, int beamWidth) throws Exception {
+        FeatureBuffer features = FeatureBuffer.forThread(featureLength, classifier.dependencySize);
         for (int b = 0; b < beam.size(); b++) {
             Configuration configuration = beam.get(b);
             State currentState = configuration.state;
@@ -321,63 +307,49 @@ public class ParseThread implements Callable<Pair<Configuration, Integer>> {
             boolean canReduce = ArcEager.canDo(Actions.Reduce, currentState);
             boolean canRightArc = ArcEager.canDo(Actions.RightArc, currentState);
             boolean canLeftArc = ArcEager.canDo(Actions.LeftArc, currentState);
-            Object[] features = FeatureExtractor.extractAllParseFeatures(configuration, featureLength);
+            FeatureExtractor.extractAllParseFeatures(configuration, features);
+            classifier.scoreActions(features, true, canShift, canReduce, canRightArc, canLeftArc);
             if (!canShift
                     && !canReduce
                     && !canRightArc
                     && !canLeftArc) {
-                beamPreserver.add(new BeamElement(prevScore, b, 4, -1));
-
-                if (beamPreserver.size() > beamWidth)
-                    beamPreserver.pollFirst();
+                beamPreserver.add(prevScore, b, 4, -1);
             }
 
             if (canShift) {
                 if (isNonProjective || goldConfiguration.actionCost(Actions.Shift, -1, currentState) == 0) {
-                    float score = classifier.shiftScore(features, true);
+                    float score = features.shiftScore;
                     float addedScore = score + prevScore;
-                    beamPreserver.add(new BeamElement(addedScore, b, 0, -1));
-
-                    if (beamPreserver.size() > beamWidth)
-                        beamPreserver.pollFirst();
+                    beamPreserver.add(addedScore, b, 0, -1);
                 }
             }
 
             if (canReduce) {
                 if (isNonProjective || goldConfiguration.actionCost(Actions.Reduce, -1, currentState) == 0) {
-                    float score = classifier.reduceScore(features, true);
+                    float score = features.reduceScore;
                     float addedScore = score + prevScore;
-                    beamPreserver.add(new BeamElement(addedScore, b, 1, -1));
-
-                    if (beamPreserver.size() > beamWidth)
-                        beamPreserver.pollFirst();
+                    beamPreserver.add(addedScore, b, 1, -1);
                 }
             }
 
             if (canRightArc) {
-                float[] rightArcScores = classifier.rightArcScores(features, true);
-                for (int dependency : dependencyRelations) {
+                float[] rightArcScores = features.rightArcScores;
+                for (int dependency : labels) {
                     if (isNonProjective || goldConfiguration.actionCost(Actions.RightArc, dependency, currentState) == 0) {
                         float score = rightArcScores[dependency];
                         float addedScore = score + prevScore;
-                        beamPreserver.add(new BeamElement(addedScore, b, 2, dependency));
-
-                        if (beamPreserver.size() > beamWidth)
-                            beamPreserver.pollFirst();
+                        beamPreserver.add(addedScore, b, 2, dependency);
                     }
                 }
             }
 
             if (canLeftArc) {
-                float[] leftArcScores = classifier.leftArcScores(features, true);
-                for (int dependency : dependencyRelations) {
+                float[] leftArcScores = features.leftArcScores;
+                for (int dependency : labels) {
                     if (isNonProjective || goldConfiguration.actionCost(Actions.LeftArc, dependency, currentState) == 0) {
                         float score = leftArcScores[dependency];
                         float addedScore = score + prevScore;
-                        beamPreserver.add(new BeamElement(addedScore, b, 3, dependency));
-
-                        if (beamPreserver.size() > beamWidth)
-                            beamPreserver.pollFirst();
+                        beamPreserver.add(addedScore, b, 3, dependency);
                     }
                 }
             }
@@ -392,58 +364,32 @@ public class ParseThread implements Callable<Pair<Configuration, Integer>> {
                 boolean canReduce = ArcEager.canDo(Actions.Reduce, currentState);
                 boolean canRightArc = ArcEager.canDo(Actions.RightArc, currentState);
                 boolean canLeftArc = ArcEager.canDo(Actions.LeftArc, currentState);
-                Object[] features = FeatureExtractor.extractAllParseFeatures(configuration, featureLength);
+                FeatureExtractor.extractAllParseFeatures(configuration, features);
+                classifier.scoreActions(features, true, canShift, canReduce, canRightArc, canLeftArc);
                 if (!canShift
                         && !canReduce
                         && !canRightArc
                         && !canLeftArc) {
-                    beamPreserver.add(new BeamElement(prevScore, b, 4, -1));
-
-                    if (beamPreserver.size() > beamWidth)
-                        beamPreserver.pollFirst();
+                    beamPreserver.add(prevScore, b, 4, -1);
                 }
 
                 if (canShift) {
-                    float score = classifier.shiftScore(features, true);
+                    float score = features.shiftScore;
                     float addedScore = score + prevScore;
-                    beamPreserver.add(new BeamElement(addedScore, b, 0, -1));
-
-                    if (beamPreserver.size() > beamWidth)
-                        beamPreserver.pollFirst();
+                    beamPreserver.add(addedScore, b, 0, -1);
                 }
 
                 if (canReduce) {
-                    float score = classifier.reduceScore(features, true);
+                    float score = features.reduceScore;
                     float addedScore = score + prevScore;
-                    beamPreserver.add(new BeamElement(addedScore, b, 1, -1));
-
-                    if (beamPreserver.size() > beamWidth)
-                        beamPreserver.pollFirst();
+                    beamPreserver.add(addedScore, b, 1, -1);
                 }
 
-                if (canRightArc) {
-                    float[] rightArcScores = classifier.rightArcScores(features, true);
-                    for (int dependency : dependencyRelations) {
-                        float score = rightArcScores[dependency];
-                        float addedScore = score + prevScore;
-                        beamPreserver.add(new BeamElement(addedScore, b, 2, dependency));
-
-                        if (beamPreserver.size() > beamWidth)
-                            beamPreserver.pollFirst();
-                    }
-                }
+                if (canRightArc)
+                    beamPreserver.addArcs(prevScore, b, 2, features.rightArcScores, labels, topLabels);
 
-                if (canLeftArc) {
-                    float[] leftArcScores = classifier.leftArcScores(features, true);
-                    for (int dependency : dependencyRelations) {
-                        float score = leftArcScores[dependency];
-                        float addedScore = score + prevScore;
-                        beamPreserver.add(new BeamElement(addedScore, b, 3, dependency));
-
-                        if (beamPreserver.size() > beamWidth)
-                            beamPreserver.pollFirst();
-                    }
-                }
+                if (canLeftArc)
+                    beamPreserver.addArcs(prevScore, b, 3, features.leftArcScores, labels, topLabels);
             }
         }
     }
@@ -10,6 +10,7 @@ import YaraParser.TransitionBasedSystem.Configuration.BeamElement;
 import YaraParser.TransitionBasedSystem.Configuration.Configuration;
 import YaraParser.TransitionBasedSystem.Configuration.GoldConfiguration;
 import YaraParser.TransitionBasedSystem.Configuration.State;
+import YaraParser.TransitionBasedSystem.Features.FeatureBuffer;
 import YaraParser.TransitionBasedSystem.Features.FeatureExtractor;
 
 import java.util.ArrayList;
@@ -52,18 +53,20 @@ public class PartialTreeBeamScorerThread implements Callable<ArrayList<BeamEleme
         boolean canReduce = ArcEager.canDo(Actions.Reduce, currentState);
         boolean canRightArc = ArcEager.canDo(Actions.RightArc, currentState);
         boolean canLeftArc = ArcEager.canDo(Actions.LeftArc, currentState);
-        Object[] features = FeatureExtractor.extractAllParseFeatures(configuration, featureLength);
+        FeatureBuffer features = FeatureBuffer.forThread(featureLength, classifier.dependencySize);
+        FeatureExtractor.extractAllParseFeatures(configuration, features);
+        classifier.scoreActions(features, isDecode, canShift, canReduce, canRightArc, canLeftArc);
 
         if (canShift) {
             if (isNonProjective || goldConfiguration.actionCost(Actions.Shift, -1, currentState) == 0) {
-                float score = classifier.shiftScore(features, isDecode);
+                float score = features.shiftScore;
                 float addedScore = score + prevScore;
                 elements.add(new BeamElement(addedScore, b, 0, -1));
             }
         }
         if (canReduce) {
             if (isNonProjective || goldConfiguration.actionCost(Actions.Reduce, -1, currentState) == 0) {
-                float score = classifier.reduceScore(features, isDecode);
+                float score = features.reduceScore;
                 float addedScore = score + prevScore;
                 elements.add(new BeamElement(addedScore, b, 1, -1));
             }
@@ -71,7 +74,7 @@ public class PartialTreeBeamScorerThread implements Callable<ArrayList<BeamEleme
         }
 
         if (canRightArc) {
-            float[] rightArcScores = classifier.rightArcScores(features, isDecode);
+            float[] rightArcScores = features.rightArcScores;
             for (int dependency : dependencyRelations) {
                 if (isNonProjective || goldConfiguration.actionCost(Actions.RightArc, dependency, currentState) == 0) {
                     float score = rightArcScores[dependency];
@@ -81,7 +84,7 @@ public class PartialTreeBeamScorerThread implements Callable<ArrayList<BeamEleme
             }
         }
         if (canLeftArc) {
-            float[] leftArcScores = classifier.leftArcScores(features, isDecode);
+            float[] leftArcScores = features.leftArcScores;
             for (int dependency : dependencyRelations) {
                 if (isNonProjective || goldConfiguration.actionCost(Actions.LeftArc, dependency, currentState) == 0) {
                     float score = leftArcScores[dependency];
@@ -94,18 +97,18 @@ public class PartialTreeBeamScorerThread implements Callable<ArrayList<BeamEleme
 
         if (elements.size() == 0) {
             if (canShift) {
-                float score = classifier.shiftScore(features, isDecode);
+                float score = features.shiftScore;
                 float addedScore = score + prevScore;
                 elements.add(new BeamElement(addedScore, b, 0, -1));
             }
             if (canReduce) {
-                float score = classifier.reduceScore(features, isDecode);
+                float score = features.reduceScore;
                 float addedScore = score + prevScore;
                 elements.add(new BeamElement(addedScore, b, 1, -1));
             }
 
             if (canRightArc) {
-                float[] rightArcScores = classifier.rightArcScores(features, isDecode);
+                float[] rightArcScores = features.rightArcScores;
                 for (int dependency : dependencyRelations) {
                     float score = rightArcScores[dependency];
                     float addedScore = score + prevScore;
@@ -113,7 +116,7 @@ public class PartialTreeBeamScorerThread implements Callable<ArrayList<BeamEleme
                 }
             }
             if (canLeftArc) {
-                float[] leftArcScores = classifier.leftArcScores(features, isDecode);
+                float[] leftArcScores = features.leftArcScores;
                 for (int dependency : dependencyRelations) {
                     float score = leftArcScores[dependency];
                     float addedScore = score + prevScore;
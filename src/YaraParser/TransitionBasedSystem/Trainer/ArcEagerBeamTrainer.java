@@ -6,6 +6,7 @@
 package YaraParser.TransitionBasedSystem.Trainer;
 
 import YaraParser.Accessories.Evaluator;
+import YaraParser.Accessories.ModelConverter;
 import YaraParser.Accessories.Options;
 import YaraParser.Accessories.Pair;
 import YaraParser.Learning.AveragedPerceptron;
@@ -13,21 +14,27 @@ import YaraParser.Structures.IndexMaps;
 import YaraParser.Structures.InfStruct;
 import YaraParser.Structures.Sentence;
 import YaraParser.TransitionBasedSystem.Configuration.BeamElement;
+import YaraParser.TransitionBasedSystem.Configuration.BeamSelector;
 import YaraParser.TransitionBasedSystem.Configuration.Configuration;
 import YaraParser.TransitionBasedSystem.Configuration.GoldConfiguration;
 import YaraParser.TransitionBasedSystem.Configuration.State;
+import YaraParser.TransitionBasedSystem.Features.FeatureBuffer;
 import YaraParser.TransitionBasedSystem.Features.FeatureExtractor;
 import YaraParser.TransitionBasedSystem.Parser.Actions;
 import YaraParser.TransitionBasedSystem.Parser.ArcEager;
 import YaraParser.TransitionBasedSystem.Parser.BeamScorerThread;
 import YaraParser.TransitionBasedSystem.Parser.KBeamArcEagerParser;
 
+import java.io.File;
 import java.text.DecimalFormat;
 import java.util.*;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ArcEagerBeamTrainer {
     Options options;
@@ -42,6 +49,7 @@ public class ArcEagerBeamTrainer {
     private AveragedPerceptron classifier;
    
     private ArrayList<Integer> dependencyRelations;
+    private int[] labels;
     private int featureLength;
 
     private Random randGen;
@@ -55,9 +63,14 @@ public class ArcEagerBeamTrainer {
         this.classifier = classifier;
         this.options = options;
         this.dependencyRelations = dependencyRelations;
+        labels = KBeamArcEagerParser.labelArray(dependencyRelations);
         this.featureLength = featureLength;
         randGen = new Random();
         this.maps = maps;
+        if (options.pruneFeatures && options.pruneMinCount > 0)
+            classifier.countFeatures();
+        if (options.hogwild && options.numOfThreads > 1)
+            classifier.concurrentUpdates();
     }
 
     public void train(ArrayList<GoldConfiguration> trainData, String devPath, int maxIteration, String modelPath, boolean lowerCased, HashSet<String> punctuations, int partialTreeIter) throws Exception {
@@ -71,49 +84,114 @@ public class ArcEagerBeamTrainer {
         for (int i = 1; i <= maxIteration; i++) {
             long start = System.currentTimeMillis();
 
+            trainEpoch(trainData, partialTreeIter, i, executor, pool);
+            System.out.print("\n");
+            long end = System.currentTimeMillis();
+            long timeSec = (end - start) / 1000;
+            if (options.hogwild && options.numOfThreads > 1)
+                System.out.println("iteration " + i + " took " + timeSec + " seconds (" + (end - start) + " ms) on " + options.numOfThreads + " hogwild threads\n");
+            else
+                System.out.println("iteration "+i+" took " + timeSec + " seconds\n");
+
+            saveAndEvaluate(i, devPath, modelPath, lowerCased, punctuations);
+        }
+        shutdown(executor);
+    }
+
+    /**
+     * One pass over the training data, without saving the model (e.g. over a shard of {@link ParameterMixingTrainer})
+     *
+     * @param i the number of the pass, from 1
+     */
+    public void trainEpoch(ArrayList<GoldConfiguration> trainData, int partialTreeIter, int i) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(options.numOfThreads);
+        try {
+            trainEpoch(trainData, partialTreeIter, i, executor, new ExecutorCompletionService<ArrayList<BeamElement>>(executor));
+        } finally {
+            shutdown(executor);
+        }
+    }
+
+    private void trainEpoch(ArrayList<GoldConfiguration> trainData, int partialTreeIter, int i, ExecutorService executor,
+                            CompletionService<ArrayList<BeamElement>> pool) throws Exception {
+        if (options.hogwild && options.numOfThreads > 1) {
+            trainConcurrently(trainData, partialTreeIter, i, executor);
+        } else {
             int dataCount = 0;
 
             for (GoldConfiguration goldConfiguration : trainData) {
                 dataCount++;
                 if (dataCount % 1000 == 0)
                     System.out.print(dataCount + "...");
-                trainOnOneSample(goldConfiguration, partialTreeIter, i, dataCount, pool);
+                trainOnOneSample(goldConfiguration, partialTreeIter, i, dataCount, pool, classifier.iteration);
 
                 classifier.incrementIteration();
             }
-            System.out.print("\n");
-            long end = System.currentTimeMillis();
-            long timeSec = (end - start) / 1000;
-            System.out.println("iteration "+i+" took " + timeSec + " seconds\n");
+        }
+    }
 
-            System.out.print("saving the model...");
-            InfStruct infStruct = new InfStruct(classifier, maps, dependencyRelations, options);
-            infStruct.saveModel(modelPath + "_iter" + i);
+    /**
+     * Saves the model of the classifier as the one of the given iteration (and the pruned model if asked) and prints its
+     * accuracy on the dev file if there is one
+     */
+    public void saveAndEvaluate(int i, String devPath, String modelPath, boolean lowerCased, HashSet<String> punctuations) throws Exception {
+        System.out.print("saving the model...");
+        InfStruct infStruct = new InfStruct(classifier, maps, dependencyRelations, options);
+        save(infStruct, modelPath + "_iter" + i);
+
+        InfStruct prunedInfStruct = null;
+        if (options.pruneFeatures) {
+            prunedInfStruct = infStruct.prune(options.pruneMinCount, options.pruneWeightThreshold, options.pruneTopK, classifier.featureCounts);
+            save(prunedInfStruct, modelPath + "_iter" + i + "_pruned");
+        }
+
+        System.out.println("done\n");
 
-            System.out.println("done\n");
+        if (!devPath.equals("")) {
+            AveragedPerceptron averagedPerceptron = new AveragedPerceptron(infStruct);
 
-            if (!devPath.equals("")) {
-                AveragedPerceptron averagedPerceptron = new AveragedPerceptron(infStruct);
+            int raSize = averagedPerceptron.raSize();
+            int effectiveRaSize = averagedPerceptron.effectiveRaSize();
+            float raRatio = 100.0f * effectiveRaSize / raSize;
 
-                int raSize = averagedPerceptron.raSize();
-                int effectiveRaSize = averagedPerceptron.effectiveRaSize();
-                float raRatio = 100.0f * effectiveRaSize / raSize;
+            int laSize = averagedPerceptron.laSize();
+            int effectiveLaSize = averagedPerceptron.effectiveLaSize();
+            float laRatio = 100.0f * effectiveLaSize / laSize;
 
-                int laSize = averagedPerceptron.laSize();
-                int effectiveLaSize = averagedPerceptron.effectiveLaSize();
-                float laRatio = 100.0f * effectiveLaSize / laSize;
+            DecimalFormat format = new DecimalFormat("##.00");
+            System.out.println("size of RA features in memory:" + effectiveRaSize + "/" + raSize + "->" + format.format(raRatio) + "%");
+            System.out.println("size of LA features in memory:" + effectiveLaSize + "/" + laSize + "->" + format.format(laRatio) + "%");
+            KBeamArcEagerParser parser = new KBeamArcEagerParser(averagedPerceptron, dependencyRelations, featureLength, maps, options.numOfThreads);
 
-                DecimalFormat format = new DecimalFormat("##.00");
-                System.out.println("size of RA features in memory:" + effectiveRaSize + "/" + raSize + "->" + format.format(raRatio) + "%");
-                System.out.println("size of LA features in memory:" + effectiveLaSize + "/" + laSize + "->" + format.format(laRatio) + "%");
-                KBeamArcEagerParser parser = new KBeamArcEagerParser(averagedPerceptron, dependencyRelations, featureLength, maps, options.numOfThreads);
+            parser.parseConllFile(devPath, modelPath + ".__tmp__",
+                    options.rootFirst, options.beamWidth, true, lowerCased, options.numOfThreads, false, "");
+            Pair<Double, Double> accuracy = Evaluator.evaluate(devPath, modelPath + ".__tmp__", punctuations);
+            parser.shutDownLiveThreads();
 
+            if (prunedInfStruct != null) {
+                parser = new KBeamArcEagerParser(new AveragedPerceptron(prunedInfStruct), dependencyRelations, featureLength, maps, options.numOfThreads);
                 parser.parseConllFile(devPath, modelPath + ".__tmp__",
                         options.rootFirst, options.beamWidth, true, lowerCased, options.numOfThreads, false, "");
-                Evaluator.evaluate(devPath, modelPath + ".__tmp__", punctuations);
+                Pair<Double, Double> prunedAccuracy = Evaluator.evaluate(devPath, modelPath + ".__tmp__", punctuations);
                 parser.shutDownLiveThreads();
+                reportPruning(infStruct, prunedInfStruct, modelPath + "_iter" + i, accuracy, prunedAccuracy);
             }
+        } else if (prunedInfStruct != null) {
+            reportPruning(infStruct, prunedInfStruct, modelPath + "_iter" + i, null, null);
         }
+    }
+
+    /**
+     * Writes the model in the serialized format, or in the memory-mapped binary one if it is asked by -format binary
+     */
+    private void save(InfStruct infStruct, String modelPath) throws Exception {
+        if (options.modelFormat.equals(ModelConverter.BINARY_FORMAT))
+            infStruct.saveBinaryModel(modelPath);
+        else
+            infStruct.saveModel(modelPath);
+    }
+
+    private static void shutdown(ExecutorService executor) {
         boolean isTerminated = executor.isTerminated();
         while (!isTerminated) {
             executor.shutdownNow();
@@ -121,7 +199,68 @@ public class ArcEagerBeamTrainer {
         }
     }
 
-    private void trainOnOneSample(GoldConfiguration goldConfiguration, int partialTreeIter, int i, int dataCount, CompletionService<ArrayList<BeamElement>> pool) throws Exception {
+    /**
+     * One pass over the training data by numOfThreads workers that decode and update different sentences at once,
+     * on the same weights without waiting for each other (Hogwild). The update of each sentence has the iteration stamp that it has in
+     * sequential training, so the averaged weights are the same sums as if the sentences were trained in order on the
+     * weights that their workers saw.
+     */
+    private void trainConcurrently(final ArrayList<GoldConfiguration> trainData, final int partialTreeIter, final int i,
+                                   ExecutorService executor) throws Exception {
+        final int firstIteration = classifier.iteration;
+        final AtomicInteger next = new AtomicInteger();
+        ArrayList<Future<Void>> workers = new ArrayList<Future<Void>>(options.numOfThreads);
+        for (int t = 0; t < options.numOfThreads; t++) {
+            workers.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    int index;
+                    while ((index = next.getAndIncrement()) < trainData.size()) {
+                        int dataCount = index + 1;
+                        if (dataCount % 1000 == 0)
+                            System.out.print(dataCount + "...");
+                        try {
+                            trainOnOneSample(trainData.get(index), partialTreeIter, i, dataCount, null, firstIteration + index);
+                        } catch (Exception e) {
+                            next.set(trainData.size()); // stops the other workers
+                            throw e;
+                        }
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<Void> worker : workers)
+            worker.get();
+        classifier.iteration = firstIteration + trainData.size();
+    }
+
+    /**
+     * Prints the size of the pruned model against the full model and, if there is a dev set, the accuracy of both
+     */
+    private void reportPruning(InfStruct infStruct, InfStruct prunedInfStruct, String modelPath, Pair<Double, Double> accuracy,
+                               Pair<Double, Double> prunedAccuracy) {
+        int featureCount = infStruct.featureCount();
+        int prunedFeatureCount = prunedInfStruct.featureCount();
+        DecimalFormat format = new DecimalFormat("0.00");
+        System.out.println("pruned features: " + featureCount + " -> " + prunedFeatureCount + " ("
+                + format.format(100.0 * prunedFeatureCount / featureCount) + "%)");
+        System.out.println("pruned model file: " + format.format(new File(modelPath).length() / 1048576.0) + " MB -> "
+                + format.format(new File(modelPath + "_pruned").length() / 1048576.0) + " MB");
+        if (accuracy != null) {
+            System.out.println("pruned LAS: " + format.format(accuracy.first) + " -> " + format.format(prunedAccuracy.first)
+                    + " (" + format.format(prunedAccuracy.first - accuracy.first) + ")");
+            System.out.println("pruned UAS: " + format.format(accuracy.second) + " -> " + format.format(prunedAccuracy.second)
+                    + " (" + format.format(prunedAccuracy.second - accuracy.second) + ")\n");
+        }
+    }
+
+    /**
+     * @param pool       scores the beam items on several threads; null for scoring them on the calling thread
+     * @param iteration  the iteration stamp of the updates (see {@link AveragedPerceptron#changeWeight})
+     */
+    private void trainOnOneSample(GoldConfiguration goldConfiguration, int partialTreeIter, int i, int dataCount, CompletionService<ArrayList<BeamElement>> pool,
+                                  int iteration) throws Exception {
         boolean isPartial = goldConfiguration.isPartial(options.rootFirst);
 
         if (partialTreeIter > i && isPartial)
@@ -158,6 +297,7 @@ public class ArcEagerBeamTrainer {
         Configuration bestScoringOracle = null;
         boolean oracleInBeam = false;
 
+        BeamSelector beamPreserver = new BeamSelector(options.beamWidth);
         while (!ArcEager.isTerminal(beam) && beam.size() > 0) {
             /**
              *  generating new oracles
@@ -176,9 +316,9 @@ public class ArcEagerBeamTrainer {
             }
             oracles = newOracles;
 
-            TreeSet<BeamElement> beamPreserver = new TreeSet<BeamElement>();
+            beamPreserver.clear();
 
-            if (options.numOfThreads == 1 || beam.size() == 1) {
+            if (pool == null || options.numOfThreads == 1 || beam.size() == 1) {
                 beamSortOneThread(beam, beamPreserver, sentence);
             } else {
                 for (int b = 0; b < beam.size(); b++) {
@@ -188,8 +328,6 @@ public class ArcEagerBeamTrainer {
                 for (int b = 0; b < beam.size(); b++) {
                     for (BeamElement element : pool.take().get()) {
                         beamPreserver.add(element);
-                        if (beamPreserver.size() > options.beamWidth)
-                            beamPreserver.pollFirst();
                     }
                 }
             }
@@ -200,13 +338,11 @@ public class ArcEagerBeamTrainer {
                 oracleInBeam = false;
 
                 ArrayList<Configuration> repBeam = new ArrayList<Configuration>(options.beamWidth);
-                for (BeamElement beamElement : beamPreserver.descendingSet()) {
-                    if (repBeam.size() >= options.beamWidth)
-                        break;
-                    int b = beamElement.number;
-                    int action = beamElement.action;
-                    int label = beamElement.label;
-                    float sc = beamElement.score;
+                for (int e = 0; e < beamPreserver.size(); e++) {
+                    int b = beamPreserver.number(e);
+                    int action = beamPreserver.action(e);
+                    int label = beamPreserver.label(e);
+                    float sc = beamPreserver.score(e);
 
                     Configuration newConfig = beam.get(b).clone();
 
@@ -271,7 +407,7 @@ public class ArcEagerBeamTrainer {
 
         // updating weights
         if (!oracleInBeam || !bestScoringOracle.equals(beam.get(0))) {
-            updateWeights(initialConfiguration, maxViol, isPartial, bestScoringOracle, maxViolPair, beam);
+            updateWeights(initialConfiguration, maxViol, isPartial, bestScoringOracle, maxViolPair, beam, iteration);
         }
     }
 
@@ -279,12 +415,11 @@ public class ArcEagerBeamTrainer {
         Configuration bestScoringOracle = null;
         int top = -1;
         int first = -1;
-        HashMap<Integer, Pair<Integer, Integer>> goldDependencies = goldConfiguration.getGoldDependencies();
-        HashMap<Integer, HashSet<Integer>> reversedDependencies = goldConfiguration.getReversedDependencies();
 
+        FeatureBuffer features = FeatureBuffer.forThread(featureLength, classifier.dependencySize);
         for (Configuration configuration : oracles.keySet()) {
             State state = configuration.state;
-            Object[] features = FeatureExtractor.extractAllParseFeatures(configuration, featureLength);
+            FeatureExtractor.extractAllParseFeatures(configuration, features);
 
             if (!state.stackEmpty())
                 top = state.peek();
@@ -294,15 +429,15 @@ public class ArcEagerBeamTrainer {
             if (!configuration.state.isTerminalState()) {
                 Configuration newConfig = configuration.clone();
 
-                if (first > 0 && goldDependencies.containsKey(first) && goldDependencies.get(first).first == top) {
-                    int dependency = goldDependencies.get(first).second;
+                if (first > 0 && goldConfiguration.isGoldArc(top, first)) {
+                    int dependency = goldConfiguration.goldLabel(first);
                     float[] scores = classifier.rightArcScores(features, false);
                     float score = scores[dependency];
                     ArcEager.rightArc(newConfig.state, dependency);
                     newConfig.addAction(3 + dependency);
                     newConfig.addScore(score);
-                } else if (top > 0 && goldDependencies.containsKey(top) && goldDependencies.get(top).first == first) {
-                    int dependency = goldDependencies.get(top).second;
+                } else if (top > 0 && goldConfiguration.isGoldArc(first, top)) {
+                    int dependency = goldConfiguration.goldLabel(top);
                     float[] scores = classifier.leftArcScores(features, false);
                     float score = scores[dependency];
                     ArcEager.leftArc(newConfig.state, dependency);
@@ -310,8 +445,8 @@ public class ArcEagerBeamTrainer {
                     newConfig.addScore(score);
                 } else if (top >= 0 && state.hasHead(top)) {
 
-                    if (reversedDependencies.containsKey(top)) {
-                        if (reversedDependencies.get(top).size() == state.valence(top)) {
+                    if (goldConfiguration.goldDependentCount(top) > 0) {
+                        if (goldConfiguration.goldDependentCount(top) == state.valence(top)) {
                             float score = classifier.reduceScore(features, false);
                             ArcEager.reduce(newConfig.state);
                             newConfig.addAction(1);
@@ -353,10 +488,11 @@ public class ArcEagerBeamTrainer {
         float bestScore = Float.NEGATIVE_INFINITY;
         Configuration bestScoringOracle = null;
 
+        FeatureBuffer features = FeatureBuffer.forThread(featureLength, classifier.dependencySize);
         for (Configuration configuration : oracles.keySet()) {
             if (!configuration.state.isTerminalState()) {
                 State currentState = configuration.state;
-                Object[] features = FeatureExtractor.extractAllParseFeatures(configuration, featureLength);
+                FeatureExtractor.extractAllParseFeatures(configuration, features);
                 int accepted = 0;
                 // I only assumed that we need zero cost ones
                 if (goldConfiguration.actionCost(Actions.Shift, -1, currentState) == 0) {
@@ -375,7 +511,7 @@ public class ArcEagerBeamTrainer {
                 }
                 if (ArcEager.canDo(Actions.RightArc, currentState)) {
                     float[] rightArcScores = classifier.rightArcScores(features, false);
-                    for (int dependency : dependencyRelations) {
+                    for (int dependency : labels) {
                         if (goldConfiguration.actionCost(Actions.RightArc, dependency, currentState) == 0) {
                             Configuration newConfig = configuration.clone();
                             float score = rightArcScores[dependency];
@@ -395,7 +531,7 @@ public class ArcEagerBeamTrainer {
                 if (ArcEager.canDo(Actions.LeftArc, currentState)) {
                     float[] leftArcScores = classifier.leftArcScores(features, false);
 
-                    for (int dependency : dependencyRelations) {
+                    for (int dependency : labels) {
                         if (goldConfiguration.actionCost(Actions.LeftArc, dependency, currentState) == 0) {
                             Configuration newConfig = configuration.clone();
                             float score = leftArcScores[dependency];
@@ -434,7 +570,8 @@ public class ArcEagerBeamTrainer {
         return bestScoringOracle;
     }
 
-    private void beamSortOneThread(ArrayList<Configuration> beam, TreeSet<BeamElement> beamPreserver, Sentence sentence) throws Exception {
+    private void beamSortOneThread(ArrayList<Configuration> beam, BeamSelector beamPreserver, Sentence sentence) throws Exception {
+        FeatureBuffer features = FeatureBuffer.forThread(featureLength, classifier.dependencySize);
         for (int b = 0; b < beam.size(); b++) {
             Configuration configuration = beam.get(b);
             State currentState = configuration.state;
@@ -443,51 +580,28 @@ public class ArcEagerBeamTrainer {
             boolean canReduce = ArcEager.canDo(Actions.Reduce, currentState);
             boolean canRightArc = ArcEager.canDo(Actions.RightArc, currentState);
             boolean canLeftArc = ArcEager.canDo(Actions.LeftArc, currentState);
-            Object[] features = FeatureExtractor.extractAllParseFeatures(configuration, featureLength);
+            FeatureExtractor.extractAllParseFeatures(configuration, features);
 
             if (canShift) {
                 float score = classifier.shiftScore(features, false);
                 float addedScore = score + prevScore;
-                beamPreserver.add(new BeamElement(addedScore, b, 0, -1));
-
-                if (beamPreserver.size() > options.beamWidth)
-                    beamPreserver.pollFirst();
+                beamPreserver.add(addedScore, b, 0, -1);
             }
             if (canReduce) {
                 float score = classifier.reduceScore(features, false);
                 float addedScore = score + prevScore;
-                beamPreserver.add(new BeamElement(addedScore, b, 1, -1));
-
-                if (beamPreserver.size() > options.beamWidth)
-                    beamPreserver.pollFirst();
+                beamPreserver.add(addedScore, b, 1, -1);
             }
 
-            if (canRightArc) {
-                float[] rightArcScores = classifier.rightArcScores(features, false);
-                for (int dependency : dependencyRelations) {
-                    float score = rightArcScores[dependency];
-                    float addedScore = score + prevScore;
-                    beamPreserver.add(new BeamElement(addedScore, b, 2, dependency));
-
-                    if (beamPreserver.size() > options.beamWidth)
-                        beamPreserver.pollFirst();
-                }
-            }
-            if (canLeftArc) {
-                float[] leftArcScores = classifier.leftArcScores(features, false);
-                for (int dependency : dependencyRelations) {
-                    float score = leftArcScores[dependency];
-                    float addedScore = score + prevScore;
-                    beamPreserver.add(new BeamElement(addedScore, b, 3, dependency));
-
-                    if (beamPreserver.size() > options.beamWidth)
-                        beamPreserver.pollFirst();
-                }
-            }
+            if (canRightArc)
+                beamPreserver.addArcs(prevScore, b, 2, classifier.rightArcScores(features, false), labels, 0);
+            if (canLeftArc)
+                beamPreserver.addArcs(prevScore, b, 3, classifier.leftArcScores(features, false), labels, 0);
         }
     }
 
-    private void updateWeights(Configuration initialConfiguration, float maxViol, boolean isPartial, Configuration bestScoringOracle, Pair<Configuration, Configuration> maxViolPair, ArrayList<Configuration> beam) throws Exception {
+    private void updateWeights(Configuration initialConfiguration, float maxViol, boolean isPartial, Configuration bestScoringOracle, Pair<Configuration, Configuration> maxViolPair, ArrayList<Configuration> beam,
+                               int iteration) throws Exception {
         Configuration predicted = null;
         Configuration finalOracle = null;
         if (!updateMode.equals("max_violation")) {
@@ -502,17 +616,19 @@ public class ArcEagerBeamTrainer {
             finalOracle = maxViolPair.second;
         }
 
-        Object[] predictedFeatures = new Object[featureLength];
-        Object[] oracleFeatures = new Object[featureLength];
+        HashMap<Pair<Integer, Long>, Float>[] predictedFeatures = new HashMap[featureLength];
+        HashMap<Pair<Integer, Long>, Float>[] oracleFeatures = new HashMap[featureLength];
         for (int f = 0; f < predictedFeatures.length; f++) {
             oracleFeatures[f] = new HashMap<Pair<Integer, Long>, Float>();
             predictedFeatures[f] = new HashMap<Pair<Integer, Long>, Float>();
         }
+        FeatureBuffer buffer = FeatureBuffer.forThread(featureLength, classifier.dependencySize);
+        long[] feats = buffer.features;
 
         Configuration predictedConfiguration = initialConfiguration.clone();
         Configuration oracleConfiguration = initialConfiguration.clone();
 
-        for (int action : finalOracle.actionHistory) {
+        for (int action : finalOracle.actionHistory()) {
             boolean isTrueFeature = true;
             if (isPartial && action >= 3) {
                 if (!oracleConfiguration.state.hasHead(oracleConfiguration.state.peek()) || !oracleConfiguration.state.hasHead(oracleConfiguration.state.bufferHead()))
@@ -526,10 +642,12 @@ public class ArcEagerBeamTrainer {
             }
 
             if (isTrueFeature) {   // if the made dependency is truely for the word
-                Object[] feats = FeatureExtractor.extractAllParseFeatures(oracleConfiguration, featureLength);
+                FeatureExtractor.extractAllParseFeatures(oracleConfiguration, buffer);
                 for (int f = 0; f < feats.length; f++) {
-                    Pair<Integer, Object> featName = new Pair<Integer, Object>(action, feats[f]);
-                    HashMap<Pair<Integer, Object>, Float> map = (HashMap<Pair<Integer, Object>, Float>) oracleFeatures[f];
+                    if (!buffer.has(f))
+                        continue;
+                    Pair<Integer, Long> featName = new Pair<Integer, Long>(action, feats[f]);
+                    HashMap<Pair<Integer, Long>, Float> map = oracleFeatures[f];
                     Float value = map.get(featName);
                     if (value == null)
                         map.put(featName, 1.0f);
@@ -551,7 +669,7 @@ public class ArcEagerBeamTrainer {
             }
         }
 
-        for (int action : predicted.actionHistory) {
+        for (int action : predicted.actionHistory()) {
             boolean isTrueFeature = true;
             if (isPartial && action >= 3) {
                 if (!predictedConfiguration.state.hasHead(predictedConfiguration.state.peek()) || !predictedConfiguration.state.hasHead(predictedConfiguration.state.bufferHead()))
@@ -565,11 +683,13 @@ public class ArcEagerBeamTrainer {
             }
 
             if (isTrueFeature) {   // if the made dependency is truely for the word
-                Object[] feats = FeatureExtractor.extractAllParseFeatures(predictedConfiguration, featureLength);
+                FeatureExtractor.extractAllParseFeatures(predictedConfiguration, buffer);
                 if (action != 2) // do not take into account for unshift
                     for (int f = 0; f < feats.length; f++) {
-                        Pair<Integer, Object> featName = new Pair<Integer, Object>(action, feats[f]);
-                        HashMap<Pair<Integer, Object>, Float> map = (HashMap<Pair<Integer, Object>, Float>) predictedFeatures[f];
+                        if (!buffer.has(f))
+                            continue;
+                        Pair<Integer, Long> featName = new Pair<Integer, Long>(action, feats[f]);
+                        HashMap<Pair<Integer, Long>, Float> map = predictedFeatures[f];
                         Float value = map.get(featName);
                         if (value == null)
                             map.put(featName, 1.f);
@@ -595,9 +715,9 @@ public class ArcEagerBeamTrainer {
         }
 
         for (int f = 0; f < predictedFeatures.length; f++) {
-            HashMap<Pair<Integer, Object>, Float> map = (HashMap<Pair<Integer, Object>, Float>) predictedFeatures[f];
-            HashMap<Pair<Integer, Object>, Float> map2 = (HashMap<Pair<Integer, Object>, Float>) oracleFeatures[f];
-            for (Pair<Integer, Object> feat : map.keySet()) {
+            HashMap<Pair<Integer, Long>, Float> map = predictedFeatures[f];
+            HashMap<Pair<Integer, Long>, Float> map2 = oracleFeatures[f];
+            for (Pair<Integer, Long> feat : map.keySet()) {
                 int action = feat.first;
                 Actions actionType = Actions.Shift;
                 int dependency = 0;
@@ -614,14 +734,11 @@ public class ArcEagerBeamTrainer {
                 } else if (action == 2) {
                     actionType = Actions.Unshift;
                 }
-                if (feat.second != null) {
-                    Object feature = feat.second;
-                    if (!(map2.containsKey(feat) && map2.get(feat).equals(map.get(feat))))
-                        classifier.changeWeight(actionType, f, feature, dependency, -map.get(feat));
-                }
+                if (!(map2.containsKey(feat) && map2.get(feat).equals(map.get(feat))))
+                    classifier.changeWeight(actionType, f, feat.second, dependency, -map.get(feat), iteration);
             }
 
-            for (Pair<Integer, Object> feat : map2.keySet()) {
+            for (Pair<Integer, Long> feat : map2.keySet()) {
                 int action = feat.first;
                 Actions actionType = Actions.Shift;
                 int dependency = 0;
@@ -638,11 +755,8 @@ public class ArcEagerBeamTrainer {
                 } else if (action == 2) {
                     actionType = Actions.Unshift;
                 }
-                if (feat.second != null) {
-                    Object feature = feat.second;
-                    if (!(map.containsKey(feat) && map.get(feat).equals(map2.get(feat))))
-                        classifier.changeWeight(actionType, f, feature, dependency, map2.get(feat));
-                }
+                if (!(map.containsKey(feat) && map.get(feat).equals(map2.get(feat))))
+                    classifier.changeWeight(actionType, f, feat.second, dependency, map2.get(feat), iteration);
             }
         }
     }
@@ -0,0 +1,367 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package YaraParser.TransitionBasedSystem.Trainer;
+
+import YaraParser.Accessories.CoNLLReader;
+import YaraParser.Accessories.Options;
+import YaraParser.Learning.AveragedPerceptron;
+import YaraParser.Structures.IndexMaps;
+import YaraParser.Structures.LongFloatMap;
+import YaraParser.TransitionBasedSystem.Configuration.GoldConfiguration;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Iterative parameter mixing:
+ * Ryan McDonald, Keith Hall and Gideon Mann. "Distributed training strategies for the structured perceptron."
+ * In Proceedings of the 2010 Conference of the North American Chapter of the Association for Computational Linguistics: Human Language Technologies,
+ * pp. 456-464. Association for Computational Linguistics, 2010.
+ * <p/>
+ * The training sentences are split into shards, one for each worker process. In every iteration each worker trains
+ * one epoch over its shard from the mixed weights, and the coordinator averages the weights of the workers (with the
+ * same mixture weight for every shard) into the mixed weights, which are saved and evaluated as the model of the
+ * iteration and sent back to the workers for the next one.
+ * <p/>
+ * The workers talk to the coordinator over TCP, so they can be started by the coordinator on the same machine or
+ * with train_worker on other ones. The shards are sent as CoNLL text, so a worker does not need the training file.
+ * A worker stamps its updates for the averaged weights as sequential training does, from the iteration of the mixed
+ * weights; the mixture gets the iteration of the longest shard.
+ * <p/>
+ * The coordinator listens on the loopback address unless another one is given. Before any object is read, both ends
+ * prove that they have the same secret (from a file for remote workers, a fresh one for local workers) and the object
+ * streams only accept the classes of the options, the index maps and the weight tables.
+ */
+
+public class ParameterMixingTrainer {
+    /**
+     * How long the coordinator waits for a worker that it started
+     */
+    private static final int LOCAL_CONNECT_TIMEOUT = 60000;
+    /**
+     * How long each end waits for the other one in the handshake
+     */
+    private static final int HANDSHAKE_TIMEOUT = 10000;
+    private static final int CHALLENGE_SIZE = 32;
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    /**
+     * The classes that the coordinator and the workers send to each other; anything else in a stream is rejected
+     */
+    private static final ObjectInputFilter FILTER = ObjectInputFilter.Config.createFilter(
+            "maxdepth=32;java.lang.Object;java.lang.String;java.lang.Number;java.lang.Integer;java.lang.Float;java.lang.Boolean;"
+                    + "java.util.ArrayList;java.util.HashMap;java.util.HashSet;java.util.Map$Entry;java.util.concurrent.locks.StampedLock;"
+                    + "YaraParser.Accessories.Options;YaraParser.Structures.IndexMaps;"
+                    + "YaraParser.Structures.LongFloatMap;YaraParser.Structures.LongCompactArrayMap;"
+                    + "YaraParser.Structures.ConcurrentLongFloatMap;YaraParser.Structures.ConcurrentLongCompactArrayMap;!*");
+
+    private String updateMode;
+    private Options options;
+    private ArrayList<Integer> dependencyRelations;
+    private int featureLength;
+    private IndexMaps maps;
+
+    public ParameterMixingTrainer(String updateMode, Options options, ArrayList<Integer> dependencyRelations, int featureLength, IndexMaps maps) {
+        this.updateMode = updateMode;
+        this.options = options;
+        this.dependencyRelations = dependencyRelations;
+        this.featureLength = featureLength;
+        this.maps = maps;
+    }
+
+    public void train(String trainPath, String devPath, int maxIteration, String modelPath, boolean lowerCased, HashSet<String> punctuations, int partialTreeIter) throws Exception {
+        int shards = options.shards;
+        ArrayList<StringBuilder> shardTexts = split(trainPath, shards);
+
+        if (options.remoteShards && options.secretFile.equals(""))
+            throw new IllegalArgumentException("remote_shards needs a secret file (-secret [secret-file]) that the workers also have");
+        InetAddress address = !options.remoteShards || options.bindAddress.equals("") ? InetAddress.getLoopbackAddress()
+                : InetAddress.getByName(options.bindAddress);
+        File localSecret = null;
+        byte[] secret;
+        if (options.remoteShards) {
+            secret = readSecret(options.secretFile);
+        } else {
+            localSecret = createSecret();
+            secret = readSecret(localSecret.getPath());
+        }
+
+        ServerSocket server = new ServerSocket(options.remoteShards ? options.port : 0, shards, address);
+        ArrayList<Process> processes = new ArrayList<Process>();
+        Socket[] sockets = new Socket[shards];
+        ObjectOutputStream[] writers = new ObjectOutputStream[shards];
+        ObjectInputStream[] readers = new ObjectInputStream[shards];
+        try {
+            if (options.remoteShards) {
+                System.out.println("waiting for " + shards + " workers on " + address.getHostAddress() + ":" + server.getLocalPort() + "...");
+            } else {
+                for (int k = 0; k < shards; k++)
+                    processes.add(startWorker(server.getLocalPort(), localSecret));
+                server.setSoTimeout(LOCAL_CONNECT_TIMEOUT);
+            }
+            for (int k = 0; k < shards; ) {
+                sockets[k] = server.accept();
+                if (!handshake(sockets[k], secret, true)) {
+                    System.err.println("rejected a connection from " + sockets[k].getInetAddress().getHostAddress() + ": it does not have the secret");
+                    sockets[k].close();
+                    sockets[k] = null;
+                    continue;
+                }
+                writers[k] = new ObjectOutputStream(new BufferedOutputStream(sockets[k].getOutputStream()));
+                writers[k].writeObject(updateMode);
+                writers[k].writeObject(options);
+                writers[k].writeObject(maps);
+                writers[k].writeObject(dependencyRelations);
+                writers[k].writeInt(featureLength);
+                writers[k].writeInt(partialTreeIter);
+                writers[k].writeObject(shardTexts.get(k).toString());
+                writers[k].flush();
+                writers[k].reset();
+                readers[k] = new ObjectInputStream(new BufferedInputStream(sockets[k].getInputStream()));
+                readers[k].setObjectInputFilter(FILTER);
+                System.out.println("worker " + (k + 1) + " connected from " + sockets[k].getInetAddress().getHostAddress());
+                k++;
+            }
+            shardTexts = null;
+
+            AveragedPerceptron classifier = new AveragedPerceptron(featureLength, dependencyRelations.size());
+            ArcEagerBeamTrainer trainer = new ArcEagerBeamTrainer(updateMode, classifier, options, dependencyRelations, featureLength, maps);
+
+            for (int i = 1; i <= maxIteration; i++) {
+                long start = System.currentTimeMillis();
+                for (int k = 0; k < shards; k++) {
+                    writers[k].writeInt(i);
+                    classifier.writeWeights(writers[k]);
+                    writers[k].flush();
+                    writers[k].reset();
+                }
+
+                classifier.clearWeights();
+                int iteration = classifier.iteration;
+                AveragedPerceptron shard = new AveragedPerceptron(featureLength, dependencyRelations.size());
+                for (int k = 0; k < shards; k++) {
+                    shard.readWeights(readers[k]);
+                    LongFloatMap[] featureCounts = (LongFloatMap[]) readers[k].readObject();
+                    classifier.addWeights(shard, 1.0f / shards);
+                    if (classifier.featureCounts != null)
+                        addCounts(classifier.featureCounts, featureCounts);
+                    iteration = Math.max(iteration, shard.iteration);
+                }
+                shard = null;
+                classifier.iteration = iteration;
+
+                long end = System.currentTimeMillis();
+                long timeSec = (end - start) / 1000;
+                System.out.println("iteration " + i + " took " + timeSec + " seconds on " + shards + " shards\n");
+
+                trainer.saveAndEvaluate(i, devPath, modelPath, lowerCased, punctuations);
+            }
+            for (int k = 0; k < shards; k++) {
+                writers[k].writeInt(0);
+                writers[k].flush();
+            }
+        } finally {
+            for (Socket socket : sockets)
+                if (socket != null)
+                    socket.close();
+            server.close();
+            for (Process process : processes)
+                if (!process.waitFor(10, TimeUnit.SECONDS))
+                    process.destroy();
+            if (localSecret != null)
+                localSecret.delete();
+        }
+    }
+
+    /**
+     * Connects to the coordinator at [host]:[port] and trains the iterations of its shard until the coordinator
+     * stops it
+     *
+     * @param secretFile the file with the secret of the coordinator
+     */
+    public static void work(String coordinator, String secretFile) throws Exception {
+        byte[] secret = readSecret(secretFile);
+        int colon = coordinator.lastIndexOf(':');
+        Socket socket = new Socket(coordinator.substring(0, colon), Integer.parseInt(coordinator.substring(colon + 1)));
+        try {
+            if (!handshake(socket, secret, false))
+                throw new IOException("the coordinator at " + coordinator + " does not have the secret");
+            ObjectOutputStream writer = new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            writer.flush();
+            ObjectInputStream reader = new ObjectInputStream(new BufferedInputStream(socket.getInputStream()));
+            reader.setObjectInputFilter(FILTER);
+            String updateMode = (String) reader.readObject();
+            Options options = (Options) reader.readObject();
+            IndexMaps maps = (IndexMaps) reader.readObject();
+            // the coordinator writes its list of labels, and the filter only lets lists of numbers and strings through
+            @SuppressWarnings("unchecked")
+            ArrayList<Integer> dependencyRelations = (ArrayList<Integer>) reader.readObject();
+            int featureLength = reader.readInt();
+            int partialTreeIter = reader.readInt();
+            CoNLLReader shardReader = new CoNLLReader(new BufferedReader(new StringReader((String) reader.readObject())));
+            ArrayList<GoldConfiguration> trainData = shardReader.readData(Integer.MAX_VALUE, false, options.labeled, options.rootFirst, options.lowercase, maps);
+            System.out.println("size of the shard (#sens): " + trainData.size());
+
+            int i;
+            while ((i = reader.readInt()) > 0) {
+                AveragedPerceptron classifier = new AveragedPerceptron(featureLength, dependencyRelations.size());
+                classifier.readWeights(reader);
+                ArcEagerBeamTrainer trainer = new ArcEagerBeamTrainer(updateMode, classifier, options, dependencyRelations, featureLength, maps);
+
+                long start = System.currentTimeMillis();
+                trainer.trainEpoch(trainData, partialTreeIter, i);
+                System.out.println("\niteration " + i + " took " + (System.currentTimeMillis() - start) / 1000 + " seconds");
+
+                classifier.writeWeights(writer);
+                writer.writeObject(classifier.featureCounts);
+                writer.flush();
+                writer.reset();
+            }
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * @return the CoNLL text of each shard: the sentences of the file are dealt to the shards in turn
+     */
+    private static ArrayList<StringBuilder> split(String trainPath, int shards) throws IOException {
+        ArrayList<StringBuilder> shardTexts = new ArrayList<StringBuilder>(shards);
+        for (int k = 0; k < shards; k++)
+            shardTexts.add(new StringBuilder());
+
+        BufferedReader reader = new BufferedReader(new FileReader(trainPath));
+        try {
+            int sentence = 0;
+            boolean inSentence = false;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().length() == 0) {
+                    if (inSentence) {
+                        shardTexts.get(sentence % shards).append('\n');
+                        sentence++;
+                        inSentence = false;
+                    }
+                } else {
+                    shardTexts.get(sentence % shards).append(line).append('\n');
+                    inSentence = true;
+                }
+            }
+            if (inSentence)
+                shardTexts.get(sentence % shards).append('\n');
+        } finally {
+            reader.close();
+        }
+        return shardTexts;
+    }
+
+    /**
+     * Each end sends a random challenge and answers the challenge of the other end with its HMAC under the secret
+     * (with the role of the end, so that an answer cannot be sent back to its sender), so the secret itself is not
+     * sent
+     *
+     * @return true if the other end answered with the secret
+     */
+    private static boolean handshake(Socket socket, byte[] secret, boolean coordinator) throws IOException, GeneralSecurityException {
+        byte[] challenge = new byte[CHALLENGE_SIZE];
+        new SecureRandom().nextBytes(challenge);
+        DataOutputStream output = new DataOutputStream(socket.getOutputStream());
+        DataInputStream input = new DataInputStream(socket.getInputStream());
+        socket.setSoTimeout(HANDSHAKE_TIMEOUT);
+        try {
+            output.write(challenge);
+            output.flush();
+            byte[] otherChallenge = new byte[CHALLENGE_SIZE];
+            input.readFully(otherChallenge);
+            output.write(answer(secret, coordinator, otherChallenge));
+            output.flush();
+            byte[] expected = answer(secret, !coordinator, challenge);
+            byte[] otherAnswer = new byte[expected.length];
+            input.readFully(otherAnswer);
+            return MessageDigest.isEqual(otherAnswer, expected);
+        } catch (IOException e) {
+            if (coordinator)
+                return false;
+            throw e;
+        } finally {
+            if (!socket.isClosed())
+                socket.setSoTimeout(0);
+        }
+    }
+
+    private static byte[] answer(byte[] secret, boolean coordinator, byte[] challenge) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance(MAC_ALGORITHM);
+        mac.init(new SecretKeySpec(secret, MAC_ALGORITHM));
+        mac.update((byte) (coordinator ? 'C' : 'W'));
+        return mac.doFinal(challenge);
+    }
+
+    private static byte[] readSecret(String secretFile) throws IOException {
+        byte[] secret = Files.readAllBytes(new File(secretFile).toPath());
+        if (secret.length == 0)
+            throw new IOException("the secret file " + secretFile + " is empty");
+        return secret;
+    }
+
+    /**
+     * @return a file (only readable by this user where the file system allows it) with a new random secret for the
+     * local workers
+     */
+    private static File createSecret() throws IOException {
+        File file = File.createTempFile("yara_shards", ".secret");
+        file.deleteOnExit();
+        try {
+            Files.setPosixFilePermissions(file.toPath(), PosixFilePermissions.fromString("rw-------"));
+        } catch (UnsupportedOperationException e) {
+            file.setReadable(false, false);
+            file.setReadable(true, true);
+        }
+        byte[] secret = new byte[CHALLENGE_SIZE];
+        new SecureRandom().nextBytes(secret);
+        Files.write(file.toPath(), secret);
+        return file;
+    }
+
+    /**
+     * Starts a worker in a JVM with the same class path and arguments as this one; its output is dropped
+     */
+    private static Process startWorker(int port, File secretFile) throws IOException {
+        ArrayList<String> command = new ArrayList<String>();
+        command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+        command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add("YaraParser.Parser.YaraParser");
+        command.add("train_worker");
+        command.add("-coordinator");
+        command.add(InetAddress.getLoopbackAddress().getHostAddress() + ":" + port);
+        command.add("-secret");
+        command.add(secretFile.getPath());
+
+        ProcessBuilder builder = new ProcessBuilder(command);
+        builder.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+        builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+        return builder.start();
+    }
+
+    private static void addCounts(LongFloatMap[] counts, LongFloatMap[] shardCounts) {
+        for (int f = 0; f < counts.length; f++)
+            for (long feat : shardCounts[f].keys())
+                counts[f].add(feat, shardCounts[f].get(feat));
+    }
+}